@@ -0,0 +1,116 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.util.Random;
+
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * @author David Law
+ *
+ *         Generates the rows the benchmarks run on: a String field "code"
+ *         that holds {@link #MATCH} for the requested share of the rows, an
+ *         "expected" field and Integer / String fields to make up the width.
+ */
+public class BenchRows {
+
+	/**
+	 * Rows per benchmark invocation, the results are reported per row
+	 */
+	public static final int ROWS = 4096;
+
+	static final String CODE = "code";
+	static final String EXPECTED = "expected";
+	static final String MATCH = "MATCH-0";
+
+	private final RowMetaInterface rowMeta;
+	private final Object[][] rows;
+
+	/**
+	 * @param width
+	 *            the number of fields, at least 1
+	 * @param matchRate
+	 *            the share of rows with the matching code
+	 * @param seed
+	 */
+	public BenchRows(int width, double matchRate, long seed) {
+		rowMeta = new RowMeta();
+		rowMeta.addValueMeta(new ValueMetaString(CODE));
+		if (width > 1) {
+			rowMeta.addValueMeta(new ValueMetaString(EXPECTED));
+		}
+		for (int i = rowMeta.size(); i < width; i++) {
+			rowMeta.addValueMeta(i % 2 == 0 ? new ValueMetaInteger("number" + i) : new ValueMetaString("text" + i));
+		}
+
+		// Exactly the requested number of matches, spread at random
+		Random random = new Random(seed);
+		int matches = (int) Math.round(ROWS * matchRate);
+		boolean[] match = new boolean[ROWS];
+		for (int i = 0; i < matches; i++) {
+			match[i] = true;
+		}
+		for (int i = ROWS - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			boolean swap = match[i];
+			match[i] = match[j];
+			match[j] = swap;
+		}
+
+		rows = new Object[ROWS][];
+		for (int r = 0; r < ROWS; r++) {
+			// with room to spare, as the rows of a running transformation
+			Object[] row = RowDataUtil.allocateRowData(width);
+			row[0] = match[r] ? MATCH : "ROW-" + random.nextInt(1000000);
+			if (width > 1) {
+				row[1] = MATCH;
+			}
+			for (int i = 2; i < width; i++) {
+				row[i] = i % 2 == 0 ? (Object) Long.valueOf(random.nextInt(100000)) : "value-" + random.nextInt(1000);
+			}
+			rows[r] = row;
+		}
+	}
+
+	/**
+	 * @return the layout of the rows
+	 */
+	public RowMetaInterface getRowMeta() {
+		return rowMeta;
+	}
+
+	/**
+	 * @return the rows, {@link #ROWS} of them
+	 */
+	public Object[][] getRows() {
+		return rows;
+	}
+}
@@ -0,0 +1,695 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaAndData;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+
+import plugin.step.BloomFilter;
+import plugin.step.ConditionCompiler;
+import plugin.step.LongHashSet;
+import plugin.step.MultiLiteralMatcher;
+import plugin.step.RowPredicate;
+
+/**
+ * @author David Law
+ *
+ *         Checks that the compiled conditions answer exactly as
+ *         Condition.evaluate: every function, negated or not, on String, case
+ *         insensitive, trimmed, Integer, Number, Date, Boolean and lazy
+ *         conversion fields, against constants and against other fields,
+ *         alone and chained with every operator. The rows hold nulls, empty
+ *         strings, padded, upper and lower case values, line breaks and bytes
+ *         that don't parse. IN LIST runs with short lists and with lists long
+ *         enough for the Bloom filter. The literal automaton, the primitive
+ *         hash set and the Bloom filter are also checked on their own against
+ *         the JDK collections.
+ *
+ *         A condition that fails on a row has to fail on both sides. The
+ *         first differences are printed with the condition and the row, and
+ *         the check exits with 1 when there are any.
+ *
+ *         Run it with -DKETTLE_EMPTY_STRING_DIFFERS_FROM_NULL=Y as well, the
+ *         empty strings follow that setting.
+ *
+ *         Arguments: -seed n (default 42)
+ */
+public class ConditionEquivalenceCheck {
+
+	/**
+	 * Differences printed, the others are only counted
+	 */
+	private static final int MAX_REPORTED = 20;
+
+	/**
+	 * Entries of the long IN LIST constants, more than the ConditionCompiler
+	 * needs to put a Bloom filter in front of the set
+	 */
+	private static final int LONG_LIST = 5000;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+	private static final String STRING = "s";
+	private static final String CASE_INSENSITIVE = "ci";
+	private static final String TRIMMED = "trim";
+	private static final String INTEGER = "n";
+	private static final String NUMBER = "d";
+	private static final String DATE = "dt";
+	private static final String BOOLEAN = "flag";
+	private static final String MASKED = "masked";
+	private static final String LAZY = "lazy";
+	private static final String LAZY_CASE_INSENSITIVE = "lazy_ci";
+	private static final String LAZY_TRIMMED = "lazy_trim";
+	private static final String LAZY_LATIN = "lazy_latin";
+	private static final String LAZY_INTEGER = "lazy_n";
+	private static final String LAZY_NUMBER = "lazy_d";
+	private static final String OTHER = "s2";
+	private static final String OTHER_INTEGER = "n2";
+
+	private static final String[] STRINGS = { null, "", " ", "abc", "ABC", "Abc", " abc ", "abc ", "abcdef", "xabc",
+			"xabcx", "ab", "a\nbc", "\u00e9t\u00e9", "\u00c9T\u00c9", "123", "-5", "7", "007", "-0", "12.5",
+			"1234567", "v17", "v4999", "v5000", "a.c", "%abc%" };
+
+	private static final Long[] INTEGERS = { null, Long.valueOf(0L), Long.valueOf(7L), Long.valueOf(-5L),
+			Long.valueOf(123L), Long.valueOf(1234567L), Long.valueOf(17L), Long.valueOf(4999L), Long.valueOf(5000L),
+			Long.valueOf(Long.MAX_VALUE), Long.valueOf(Long.MIN_VALUE) };
+
+	private static final Double[] NUMBERS = { null, Double.valueOf(0D), Double.valueOf(-0D), Double.valueOf(7D),
+			Double.valueOf(-5D), Double.valueOf(12.5D), Double.valueOf(1e20D), Double.valueOf(-1e-3D) };
+
+	private static final Date[] DATES = { null, new Date(0L), new Date(86400000L), new Date(1458000000000L) };
+
+	private static final Boolean[] BOOLEANS = { null, Boolean.TRUE, Boolean.FALSE };
+
+	/**
+	 * Text of the lazy Integer and Number fields, some of it doesn't parse
+	 */
+	private static final String[] NUMBER_TEXTS = { null, "", "0", "7", "-5", "007", "-0", "123", "12.5", "1e3",
+			"12a", " 7", "-", "99999999999999999999", "1234567" };
+
+	private static final int[] OPERATORS = { Condition.OPERATOR_NONE, Condition.OPERATOR_OR, Condition.OPERATOR_AND,
+			Condition.OPERATOR_NOT, Condition.OPERATOR_OR_NOT, Condition.OPERATOR_AND_NOT, Condition.OPERATOR_XOR };
+
+	/**
+	 * Predicates the check has to reach, so that it doesn't silently stop
+	 * covering one when the compiler changes
+	 */
+	private static final String[] REQUIRED_PREDICATES = { "ConstantPredicate", "InterpretedPredicate",
+			"CompositePredicate", "NullPredicate", "LongComparePredicate", "DoubleComparePredicate",
+			"StringEqualsPredicate", "StringComparePredicate", "ConstantComparePredicate", "ExactComparePredicate",
+			"BinaryEqualsPredicate", "BinaryNumberComparePredicate", "FieldComparePredicate", "PatternPredicate",
+			"LikeLiteralPredicate", "InListPredicate", "LongInListPredicate", "LiteralSetPredicate",
+			"BinaryLiteralPredicate", "LiteralPredicate" };
+
+	private final Random random;
+
+	private final RowMetaInterface rowMeta;
+
+	private final List<Object[]> rows;
+
+	private final Map<String, Integer> predicates = new TreeMap<String, Integer>();
+
+	private int conditions;
+
+	private int compiled;
+
+	private int interpreted;
+
+	private int failures;
+
+	public static void main(String[] args) throws Exception {
+		long seed = 42L;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if ("-seed".equals(args[i])) {
+				seed = Long.parseLong(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + args[i]);
+			}
+		}
+
+		KettleEnvironment.init(false);
+
+		ConditionEquivalenceCheck check = new ConditionEquivalenceCheck(seed);
+		check.run();
+		if (check.failures > 0) {
+			System.out.println(check.failures + " differences");
+			System.exit(1);
+		}
+		System.out.println("No differences");
+	}
+
+	/**
+	 * @param seed
+	 *            for the checks of the sets and the automaton
+	 * @throws KettleException
+	 */
+	public ConditionEquivalenceCheck(long seed) throws KettleException {
+		random = new Random(seed);
+		rowMeta = new RowMeta();
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(STRING, ValueMetaInterface.TYPE_STRING));
+		ValueMetaInterface caseInsensitive = ValueMetaFactory.createValueMeta(CASE_INSENSITIVE,
+				ValueMetaInterface.TYPE_STRING);
+		caseInsensitive.setCaseInsensitive(true);
+		rowMeta.addValueMeta(caseInsensitive);
+		ValueMetaInterface trimmed = ValueMetaFactory.createValueMeta(TRIMMED, ValueMetaInterface.TYPE_STRING);
+		trimmed.setTrimType(ValueMetaInterface.TRIM_TYPE_BOTH);
+		rowMeta.addValueMeta(trimmed);
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(INTEGER, ValueMetaInterface.TYPE_INTEGER));
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(NUMBER, ValueMetaInterface.TYPE_NUMBER));
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(DATE, ValueMetaInterface.TYPE_DATE));
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(BOOLEAN, ValueMetaInterface.TYPE_BOOLEAN));
+		// prints with grouping, so IN LIST can't look it up as a number
+		ValueMetaInterface masked = ValueMetaFactory.createValueMeta(MASKED, ValueMetaInterface.TYPE_INTEGER);
+		masked.setConversionMask("#,##0");
+		rowMeta.addValueMeta(masked);
+		rowMeta.addValueMeta(lazy(LAZY, ValueMetaInterface.TYPE_STRING, "UTF-8"));
+		ValueMetaInterface lazyCaseInsensitive = lazy(LAZY_CASE_INSENSITIVE, ValueMetaInterface.TYPE_STRING, "UTF-8");
+		lazyCaseInsensitive.setCaseInsensitive(true);
+		rowMeta.addValueMeta(lazyCaseInsensitive);
+		ValueMetaInterface lazyTrimmed = lazy(LAZY_TRIMMED, ValueMetaInterface.TYPE_STRING, "UTF-8");
+		lazyTrimmed.setTrimType(ValueMetaInterface.TRIM_TYPE_BOTH);
+		rowMeta.addValueMeta(lazyTrimmed);
+		rowMeta.addValueMeta(lazy(LAZY_LATIN, ValueMetaInterface.TYPE_STRING, "ISO-8859-1"));
+		rowMeta.addValueMeta(lazy(LAZY_INTEGER, ValueMetaInterface.TYPE_INTEGER, "UTF-8"));
+		rowMeta.addValueMeta(lazy(LAZY_NUMBER, ValueMetaInterface.TYPE_NUMBER, "UTF-8"));
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(OTHER, ValueMetaInterface.TYPE_STRING));
+		rowMeta.addValueMeta(ValueMetaFactory.createValueMeta(OTHER_INTEGER, ValueMetaInterface.TYPE_INTEGER));
+
+		// every string against every other one, the typed fields cycle
+		// through their values
+		rows = new ArrayList<Object[]>();
+		for (int i = 0; i < STRINGS.length; i++) {
+			for (int j = 0; j < STRINGS.length; j++) {
+				int k = i * STRINGS.length + j;
+				Object[] row = RowDataUtil.allocateRowData(rowMeta.size());
+				row[rowMeta.indexOfValue(STRING)] = STRINGS[i];
+				row[rowMeta.indexOfValue(CASE_INSENSITIVE)] = STRINGS[i];
+				row[rowMeta.indexOfValue(TRIMMED)] = STRINGS[i];
+				row[rowMeta.indexOfValue(INTEGER)] = INTEGERS[k % INTEGERS.length];
+				row[rowMeta.indexOfValue(NUMBER)] = NUMBERS[k % NUMBERS.length];
+				row[rowMeta.indexOfValue(DATE)] = DATES[k % DATES.length];
+				row[rowMeta.indexOfValue(BOOLEAN)] = BOOLEANS[k % BOOLEANS.length];
+				row[rowMeta.indexOfValue(MASKED)] = INTEGERS[(k + 3) % INTEGERS.length];
+				row[rowMeta.indexOfValue(LAZY)] = bytes(STRINGS[i], UTF_8);
+				row[rowMeta.indexOfValue(LAZY_CASE_INSENSITIVE)] = bytes(STRINGS[i], UTF_8);
+				row[rowMeta.indexOfValue(LAZY_TRIMMED)] = bytes(STRINGS[i], UTF_8);
+				row[rowMeta.indexOfValue(LAZY_LATIN)] = bytes(STRINGS[i], LATIN_1);
+				row[rowMeta.indexOfValue(LAZY_INTEGER)] = bytes(NUMBER_TEXTS[k % NUMBER_TEXTS.length], UTF_8);
+				row[rowMeta.indexOfValue(LAZY_NUMBER)] = bytes(NUMBER_TEXTS[(k + 5) % NUMBER_TEXTS.length], UTF_8);
+				row[rowMeta.indexOfValue(OTHER)] = STRINGS[j];
+				row[rowMeta.indexOfValue(OTHER_INTEGER)] = INTEGERS[j % INTEGERS.length];
+				rows.add(row);
+			}
+		}
+	}
+
+	/**
+	 * @return a lazy conversion field, holding the bytes read from a file
+	 */
+	private static ValueMetaInterface lazy(String name, int type, String encoding) throws KettleException {
+		ValueMetaInterface meta = ValueMetaFactory.createValueMeta(name, type);
+		ValueMetaInterface storage = ValueMetaFactory.createValueMeta(name, ValueMetaInterface.TYPE_STRING);
+		storage.setStringEncoding(encoding);
+		meta.setStorageMetadata(storage);
+		meta.setStorageType(ValueMetaInterface.STORAGE_TYPE_BINARY_STRING);
+		return meta;
+	}
+
+	private static byte[] bytes(String value, Charset charset) {
+		return value == null ? null : value.getBytes(charset);
+	}
+
+	/**
+	 * Runs all checks
+	 *
+	 * @throws KettleException
+	 */
+	public void run() throws KettleException {
+		checkAtomicConditions();
+		checkFieldConditions();
+		checkOperators();
+		checkLiteralRuns();
+		checkLongHashSet();
+		checkBloomFilter();
+		checkMultiLiteralMatcher();
+
+		System.out.println(String.format("%d conditions on %d rows, %d atomic conditions compiled, %d interpreted",
+				conditions, rows.size(), compiled, interpreted));
+		for (Map.Entry<String, Integer> entry : predicates.entrySet()) {
+			System.out.println(String.format("%8d %s", entry.getValue(), entry.getKey()));
+		}
+		for (String name : REQUIRED_PREDICATES) {
+			if (!predicates.containsKey(name)) {
+				fail("No condition was compiled into a " + name);
+			}
+		}
+	}
+
+	/**
+	 * Every function on every field against the constants that make sense
+	 * for it, negated or not
+	 */
+	private void checkAtomicConditions() throws KettleException {
+		for (int negate = 0; negate < 2; negate++) {
+			check(atomic(null, Condition.FUNC_TRUE, null, null, negate == 1));
+			check(atomic("missing", Condition.FUNC_EQUAL, null, new ValueMetaAndData("constant", "abc"),
+					negate == 1));
+		}
+		check(new Condition());
+
+		for (int function = Condition.FUNC_EQUAL; function < Condition.FUNC_TRUE; function++) {
+			List<ValueMetaAndData> constants = getConstants(function);
+			for (int i = 0; i < rowMeta.size(); i++) {
+				String field = rowMeta.getValueMeta(i).getName();
+				for (ValueMetaAndData constant : constants) {
+					for (int negate = 0; negate < 2; negate++) {
+						check(atomic(field, function, null, constant, negate == 1));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Every function on every field against another field
+	 */
+	private void checkFieldConditions() {
+		String[] others = { OTHER, OTHER_INTEGER, LAZY, "missing" };
+		for (int function = Condition.FUNC_EQUAL; function < Condition.FUNC_TRUE; function++) {
+			for (int i = 0; i < rowMeta.size(); i++) {
+				String field = rowMeta.getValueMeta(i).getName();
+				for (String other : others) {
+					for (int negate = 0; negate < 2; negate++) {
+						check(atomic(field, function, other, null, negate == 1));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pairs and chains of three conditions with every combination of
+	 * operators, the whole chain negated or not
+	 */
+	private void checkOperators() {
+		Condition[] children = {
+				atomic(STRING, Condition.FUNC_CONTAINS, null, new ValueMetaAndData("c", "abc"), false),
+				atomic(CASE_INSENSITIVE, Condition.FUNC_EQUAL, null, new ValueMetaAndData("c", "ABC"), false),
+				atomic(INTEGER, Condition.FUNC_LARGER, null, new ValueMetaAndData("c", Long.valueOf(7L)), false),
+				atomic(LAZY, Condition.FUNC_STARTS_WITH, null, new ValueMetaAndData("c", "ab"), true),
+				// fails on the text that doesn't parse
+				atomic(LAZY_INTEGER, Condition.FUNC_SMALLER, null, new ValueMetaAndData("c", Long.valueOf(123L)),
+						false),
+				atomic(STRING, Condition.FUNC_NULL, null, null, false),
+				atomic(INTEGER, Condition.FUNC_IN_LIST, null, new ValueMetaAndData("c", longList(false)), false),
+				atomic(NUMBER, Condition.FUNC_SMALLER_EQUAL, null, new ValueMetaAndData("c", Double.valueOf(7D)),
+						false) };
+
+		for (int a = 0; a < children.length; a++) {
+			for (int b = 0; b < children.length; b++) {
+				for (int first : OPERATORS) {
+					for (int second : OPERATORS) {
+						for (int negate = 0; negate < 2; negate++) {
+							check(chain(new Condition[] { children[a], children[b] }, new int[] { first, second },
+									negate == 1));
+						}
+					}
+				}
+			}
+		}
+
+		for (int a = 0; a < children.length; a++) {
+			Condition[] three = { children[a], children[(a + 1) % children.length],
+					children[(a + 2) % children.length] };
+			for (int second : OPERATORS) {
+				for (int third : OPERATORS) {
+					check(chain(three, new int[] { Condition.OPERATOR_NONE, second, third }, false));
+				}
+			}
+		}
+	}
+
+	/**
+	 * OR'ed CONTAINS and STARTS WITH tests on one field, which the compiler
+	 * hands to the literal automaton, alone and next to other conditions
+	 */
+	private void checkLiteralRuns() {
+		String[] fields = { STRING, CASE_INSENSITIVE, TRIMMED, LAZY, LAZY_LATIN, INTEGER };
+		String[][] runs = { { "C:bc", "S:ab", "C:\u00e9" }, { "S:x", "S:ab", "C:cde", "C:5" },
+				{ "C:", "S:z", "C:q" }, { "C:a\nb", "S:\u00c9", "C:c ", "S: " }, { "C:bc", "!C:ab", "S:x" } };
+		Condition other = atomic(INTEGER, Condition.FUNC_LARGER, null, new ValueMetaAndData("c", Long.valueOf(0L)),
+				false);
+
+		for (String field : fields) {
+			for (String[] run : runs) {
+				Condition[] children = new Condition[run.length];
+				int[] operators = new int[run.length];
+				for (int i = 0; i < run.length; i++) {
+					boolean negate = run[i].startsWith("!");
+					String spec = negate ? run[i].substring(1) : run[i];
+					int function = spec.startsWith("C:") ? Condition.FUNC_CONTAINS : Condition.FUNC_STARTS_WITH;
+					children[i] = atomic(field, function, null, new ValueMetaAndData("c", spec.substring(2)), negate);
+					operators[i] = i == 0 ? Condition.OPERATOR_NONE : Condition.OPERATOR_OR;
+				}
+				for (int negate = 0; negate < 2; negate++) {
+					check(chain(children, operators, negate == 1));
+				}
+
+				// the run after and before another condition
+				Condition[] withOther = new Condition[run.length + 1];
+				int[] otherOperators = new int[run.length + 1];
+				for (int operator : OPERATORS) {
+					withOther[0] = other;
+					otherOperators[0] = Condition.OPERATOR_NONE;
+					for (int i = 0; i < run.length; i++) {
+						withOther[i + 1] = children[i];
+						otherOperators[i + 1] = i == 0 ? operator : Condition.OPERATOR_OR;
+					}
+					check(chain(withOther, otherOperators, false));
+
+					for (int i = 0; i < run.length; i++) {
+						withOther[i] = children[i];
+						otherOperators[i] = operators[i];
+					}
+					withOther[run.length] = other;
+					otherOperators[run.length] = operator;
+					check(chain(withOther, otherOperators, false));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the constants to test a function with
+	 */
+	private List<ValueMetaAndData> getConstants(int function) throws KettleException {
+		List<ValueMetaAndData> constants = new ArrayList<ValueMetaAndData>();
+		for (String value : new String[] { "abc", "ABC", "", " abc ", "bc", "\u00e9", "123", "-5", "7", "12.5",
+				"\u00e9t\u00e9", "a\nbc" }) {
+			constants.add(new ValueMetaAndData("constant", value));
+		}
+		constants.add(new ValueMetaAndData("constant", Long.valueOf(7L)));
+		constants.add(new ValueMetaAndData("constant", Long.valueOf(-5L)));
+		constants.add(new ValueMetaAndData("constant", Long.valueOf(0L)));
+		constants.add(new ValueMetaAndData("constant", Long.valueOf(1234567L)));
+		constants.add(new ValueMetaAndData("constant", Double.valueOf(12.5D)));
+		constants.add(new ValueMetaAndData("constant", Double.valueOf(7D)));
+		constants.add(new ValueMetaAndData("constant", new Date(86400000L)));
+		constants.add(new ValueMetaAndData("constant", Boolean.TRUE));
+		constants.add(new ValueMetaAndData(ValueMetaFactory.createValueMeta("constant",
+				ValueMetaInterface.TYPE_STRING), null));
+
+		String[] extra;
+		switch (function) {
+		case Condition.FUNC_REGEXP:
+			extra = new String[] { ".*bc.*", "a.c", "(?i)abc", "\\d+", "-?\\d+", "[" };
+			break;
+		case Condition.FUNC_LIKE:
+			extra = new String[] { "%abc%", "abc%", "%abc", "%bc%", "a%c", "a?c", "%", "%%", "%\u00e9%", "a.c",
+					"%12.5" };
+			break;
+		case Condition.FUNC_IN_LIST:
+			extra = new String[] { "abc;xabc;123;-5;7;\u00e9t\u00e9", "abc\\;x;7;", ";abc", "007;-0;5000;12.5",
+					"ABC;1234567;-9223372036854775808", longList(true), longList(false) };
+			break;
+		default:
+			extra = new String[0];
+			break;
+		}
+		for (String value : extra) {
+			constants.add(new ValueMetaAndData("constant", value));
+		}
+		return constants;
+	}
+
+	/**
+	 * @param strings
+	 *            "v0;v1;..." instead of "0;1;..."
+	 * @return an IN LIST constant long enough for the Bloom filter, with some
+	 *         of the values of the rows
+	 */
+	private static String longList(boolean strings) {
+		StringBuilder list = new StringBuilder();
+		for (int i = 0; i < LONG_LIST; i++) {
+			list.append(strings ? "v" : "").append(i).append(';');
+		}
+		list.append("abc;123;-5;1234567;\u00e9t\u00e9");
+		return list.toString();
+	}
+
+	private static Condition atomic(String field, int function, String other, ValueMetaAndData constant,
+			boolean negate) {
+		Condition condition = new Condition(field, function, other, constant);
+		condition.setNegated(negate);
+		return condition;
+	}
+
+	private static Condition chain(Condition[] children, int[] operators, boolean negate) {
+		Condition condition = new Condition();
+		for (int i = 0; i < children.length; i++) {
+			Condition child = (Condition) children[i].clone();
+			child.setOperator(operators[i]);
+			condition.addCondition(child);
+		}
+		condition.setNegated(negate);
+		return condition;
+	}
+
+	/**
+	 * Compiles the condition and compares it with Condition.evaluate on all
+	 * rows
+	 */
+	private void check(Condition condition) {
+		conditions++;
+		// the reference doesn't share any state with the compiled predicate
+		Condition reference = (Condition) condition.clone();
+		ConditionCompiler compiler = new ConditionCompiler(rowMeta);
+		RowPredicate predicate = compiler.compile(condition);
+		compiled += compiler.getCompiledCount();
+		interpreted += compiler.getInterpretedCount();
+		String name = predicate.getClass().getSimpleName();
+		Integer count = predicates.get(name);
+		predicates.put(name, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+
+		for (Object[] row : rows) {
+			String expected;
+			try {
+				expected = Boolean.toString(reference.evaluate(rowMeta, row));
+			} catch (RuntimeException e) {
+				expected = "error";
+			}
+			String actual;
+			try {
+				actual = Boolean.toString(predicate.evaluate(row));
+			} catch (Exception e) {
+				actual = "error";
+			}
+			if (!expected.equals(actual)) {
+				fail("Condition " + reference.toString().trim() + " compiled into " + name + " gives " + actual
+						+ " instead of " + expected + " on " + describe(row));
+			}
+		}
+	}
+
+	/**
+	 * Adds and looks up values against a HashSet, with zero, the extremes and
+	 * enough values to make the set grow
+	 */
+	private void checkLongHashSet() {
+		LongHashSet set = new LongHashSet(4);
+		Set<Long> expected = new HashSet<Long>();
+		long[] specials = { 0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE };
+		for (long value : specials) {
+			checkAdd(set, expected, value);
+		}
+		for (int i = 0; i < 20000; i++) {
+			checkAdd(set, expected, randomLong());
+		}
+		if (set.size() != expected.size()) {
+			fail("LongHashSet holds " + set.size() + " values instead of " + expected.size());
+		}
+		for (long value : specials) {
+			checkContains(set, expected, value);
+		}
+		for (int i = 0; i < 20000; i++) {
+			checkContains(set, expected, randomLong());
+		}
+
+		set.clear();
+		if (set.size() != 0) {
+			fail("LongHashSet holds " + set.size() + " values after clear()");
+		}
+		for (Long value : expected) {
+			if (set.contains(value.longValue())) {
+				fail("LongHashSet contains " + value + " after clear()");
+			}
+		}
+	}
+
+	private void checkAdd(LongHashSet set, Set<Long> expected, long value) {
+		if (set.add(value) != expected.add(Long.valueOf(value))) {
+			fail("LongHashSet.add(" + value + ") differs from HashSet");
+		}
+	}
+
+	private void checkContains(LongHashSet set, Set<Long> expected, long value) {
+		if (set.contains(value) != expected.contains(Long.valueOf(value))) {
+			fail("LongHashSet.contains(" + value + ") differs from HashSet");
+		}
+	}
+
+	/**
+	 * @return values from a small range, so they repeat, or from all longs
+	 */
+	private long randomLong() {
+		return random.nextBoolean() ? random.nextInt(5000) - 2500 : random.nextLong();
+	}
+
+	/**
+	 * The filter must know every value added, and should rule out most of
+	 * the others
+	 */
+	private void checkBloomFilter() {
+		BloomFilter filter = new BloomFilter(LONG_LIST);
+		Set<Long> added = new HashSet<Long>();
+		for (int i = 0; i < LONG_LIST; i++) {
+			long hash = random.nextLong();
+			filter.add(hash);
+			added.add(Long.valueOf(hash));
+		}
+		for (Long hash : added) {
+			if (!filter.mightContain(hash.longValue())) {
+				fail("BloomFilter rules out the added hash " + hash);
+			}
+		}
+		int probes = 100000;
+		int falsePositives = 0;
+		for (int i = 0; i < probes; i++) {
+			long hash = random.nextLong();
+			if (!added.contains(Long.valueOf(hash)) && filter.mightContain(hash)) {
+				falsePositives++;
+			}
+		}
+		System.out.println(String.format("BloomFilter false positive rate %.4f", falsePositives / (double) probes));
+		if (falsePositives > probes / 50) {
+			fail("BloomFilter lets " + falsePositives + " of " + probes + " other hashes through");
+		}
+	}
+
+	/**
+	 * Random literals and values over a small alphabet with a non ASCII
+	 * character and a line break, against indexOf() and startsWith()
+	 */
+	private void checkMultiLiteralMatcher() {
+		String alphabet = "abc\u00e9\n";
+		for (int m = 0; m < 2000; m++) {
+			String[] contains = randomStrings(alphabet, random.nextInt(5), 3);
+			String[] prefixes = randomStrings(alphabet, contains.length == 0 ? 1 + random.nextInt(4)
+					: random.nextInt(5), 3);
+			MultiLiteralMatcher matcher = new MultiLiteralMatcher(contains, prefixes);
+			for (String value : randomStrings(alphabet + "z", 50, 8)) {
+				boolean expected = false;
+				for (String literal : contains) {
+					expected |= value.indexOf(literal) >= 0;
+				}
+				for (String literal : prefixes) {
+					expected |= value.startsWith(literal);
+				}
+				if (matcher.matches(value) != expected) {
+					fail("MultiLiteralMatcher contains " + quote(contains) + " prefixes " + quote(prefixes)
+							+ " gives " + !expected + " on " + quote(value));
+				}
+			}
+		}
+	}
+
+	private String[] randomStrings(String alphabet, int count, int maxLength) {
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++) {
+			int length = random.nextInt(maxLength + 1);
+			StringBuilder string = new StringBuilder(length);
+			for (int j = 0; j < length; j++) {
+				string.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			strings[i] = string.toString();
+		}
+		return strings;
+	}
+
+	private void fail(String message) {
+		failures++;
+		if (failures <= MAX_REPORTED) {
+			System.out.println(message);
+		}
+	}
+
+	private String describe(Object[] row) {
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < rowMeta.size(); i++) {
+			ValueMetaInterface meta = rowMeta.getValueMeta(i);
+			description.append(i > 0 ? ", " : "").append(meta.getName()).append('=');
+			if (row[i] instanceof byte[]) {
+				Charset charset = Charset.forName(meta.getStorageMetadata().getStringEncoding());
+				description.append("bytes:").append(quote(new String((byte[]) row[i], charset)));
+			} else if (row[i] instanceof String) {
+				description.append(quote((String) row[i]));
+			} else {
+				description.append(row[i]);
+			}
+		}
+		return description.toString();
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\n", "\\n") + "\"";
+	}
+
+	private static String quote(String[] values) {
+		StringBuilder quoted = new StringBuilder("[");
+		for (int i = 0; i < values.length; i++) {
+			quoted.append(i > 0 ? ", " : "").append(quote(values[i]));
+		}
+		return quoted.append(']').toString();
+	}
+}
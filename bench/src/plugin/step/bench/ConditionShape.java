@@ -0,0 +1,154 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.row.ValueMetaAndData;
+
+/**
+ * @author David Law
+ *
+ *         The condition shapes the benchmarks run. Each matches exactly the
+ *         rows {@link BenchRows} generates with the matching code.
+ */
+public enum ConditionShape {
+	/**
+	 * code = 'MATCH-0'
+	 */
+	EQUALS {
+		Condition build(boolean hasExpected) {
+			return atomic(BenchRows.CODE, Condition.FUNC_EQUAL, BenchRows.MATCH);
+		}
+
+		String expression(boolean hasExpected) {
+			return "\"" + BenchRows.MATCH + "\".equals(code)";
+		}
+	},
+	/**
+	 * ((code STARTS WITH 'MAT' AND code ENDS WITH '-0') OR code = 'NEVER' OR
+	 * (code CONTAINS '#' AND code > 'Z')) AND NOT code IS NULL
+	 */
+	AND_OR_TREE {
+		Condition build(boolean hasExpected) {
+			Condition prefix = new Condition();
+			prefix.addCondition(atomic(BenchRows.CODE, Condition.FUNC_STARTS_WITH, "MAT"));
+			prefix.addCondition(operator(Condition.OPERATOR_AND,
+					atomic(BenchRows.CODE, Condition.FUNC_ENDS_WITH, "-0")));
+
+			Condition never = new Condition();
+			never.addCondition(atomic(BenchRows.CODE, Condition.FUNC_CONTAINS, "#"));
+			never.addCondition(operator(Condition.OPERATOR_AND, atomic(BenchRows.CODE, Condition.FUNC_LARGER, "Z")));
+
+			Condition any = new Condition();
+			any.addCondition(prefix);
+			any.addCondition(operator(Condition.OPERATOR_OR, atomic(BenchRows.CODE, Condition.FUNC_EQUAL, "NEVER")));
+			any.addCondition(operator(Condition.OPERATOR_OR, never));
+
+			Condition tree = new Condition();
+			tree.addCondition(any);
+			tree.addCondition(operator(Condition.OPERATOR_AND_NOT,
+					new Condition(BenchRows.CODE, Condition.FUNC_NULL, null, null)));
+			return tree;
+		}
+
+		String expression(boolean hasExpected) {
+			return "code != null && ((code.startsWith(\"MAT\") && code.endsWith(\"-0\")) || code.equals(\"NEVER\")"
+					+ " || (code.indexOf('#') >= 0 && code.compareTo(\"Z\") > 0))";
+		}
+	},
+	/**
+	 * code REGEXP 'MATCH-\d*0'
+	 */
+	REGEXP {
+		Condition build(boolean hasExpected) {
+			return atomic(BenchRows.CODE, Condition.FUNC_REGEXP, "MATCH-\\d*0");
+		}
+
+		String expression(boolean hasExpected) {
+			return "code.matches(\"MATCH-\\\\d*0\")";
+		}
+	},
+	/**
+	 * code IN LIST 'MATCH-0;ITEM-1;...'
+	 */
+	IN_LIST {
+		Condition build(boolean hasExpected) {
+			StringBuilder list = new StringBuilder(BenchRows.MATCH);
+			for (int i = 1; i < IN_LIST_SIZE; i++) {
+				list.append(";ITEM-").append(i);
+			}
+			return atomic(BenchRows.CODE, Condition.FUNC_IN_LIST, list.toString());
+		}
+
+		String expression(boolean hasExpected) {
+			StringBuilder expression = new StringBuilder("code.equals(\"" + BenchRows.MATCH + "\")");
+			for (int i = 1; i < IN_LIST_SIZE; i++) {
+				expression.append(" || code.equals(\"ITEM-").append(i).append("\")");
+			}
+			return expression.toString();
+		}
+	},
+	/**
+	 * code = expected, a field that always holds 'MATCH-0'. Rows of a single
+	 * field have no room for it, the code is then compared with itself and
+	 * every row matches.
+	 */
+	FIELD_COMPARE {
+		Condition build(boolean hasExpected) {
+			return new Condition(BenchRows.CODE, Condition.FUNC_EQUAL, hasExpected ? BenchRows.EXPECTED
+					: BenchRows.CODE, null);
+		}
+
+		String expression(boolean hasExpected) {
+			return "code.equals(" + (hasExpected ? BenchRows.EXPECTED : BenchRows.CODE) + ")";
+		}
+	};
+
+	private static final int IN_LIST_SIZE = 64;
+
+	/**
+	 * @param hasExpected
+	 *            true when the rows have the expected field
+	 * @return a new condition of this shape
+	 */
+	abstract Condition build(boolean hasExpected);
+
+	/**
+	 * @param hasExpected
+	 *            true when the rows have the expected field
+	 * @return the same test as an increment expression
+	 */
+	abstract String expression(boolean hasExpected);
+
+	private static Condition atomic(String field, int function, String constant) {
+		return new Condition(field, function, null, new ValueMetaAndData("constant", constant));
+	}
+
+	private static Condition operator(int operator, Condition condition) {
+		condition.setOperator(operator);
+		return condition;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.BaseRowSet;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * @author David Law
+ *
+ *         Output row set that drops the rows, remembering only the last one
+ *         so the work that went into it can't be optimized away
+ */
+public class DiscardRowSet extends BaseRowSet {
+	private long count;
+	private Object[] last;
+
+	/**
+	 * @return the number of rows put so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the last row put
+	 */
+	public Object[] getLast() {
+		return last;
+	}
+
+	public boolean putRow(RowMetaInterface rowMeta, Object[] rowData) {
+		count++;
+		last = rowData;
+		return true;
+	}
+
+	public boolean putRowWait(RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu) {
+		return putRow(rowMeta, rowData);
+	}
+
+	public Object[] getRow() {
+		return null;
+	}
+
+	public Object[] getRowImmediate() {
+		return null;
+	}
+
+	public Object[] getRowWait(long timeout, TimeUnit tu) {
+		return null;
+	}
+
+	public int size() {
+		return 0;
+	}
+
+	public void clear() {
+		last = null;
+	}
+}
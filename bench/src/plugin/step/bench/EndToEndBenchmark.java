@@ -0,0 +1,242 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaAndData;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransHopMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.RowAdapter;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.steps.dummytrans.DummyTransMeta;
+
+import plugin.step.AddFilterSequenceMeta;
+import plugin.step.ReportInputMeta;
+
+/**
+ * @author David Law
+ *
+ *         Runs generated reports through a headless transformation (report
+ *         input, the sequence step with 1 to N copies, a dummy step) and
+ *         reports rows/s, peak heap and GC time per run. The sequence values
+ *         are checked against the golden reference of the report, line by
+ *         line on its page and line number; a mismatch makes the run fail. A
+ *         single copy also has to pass the rows on in the order of the
+ *         report, several copies each pass on their own rows in their own
+ *         order.
+ * 
+ *         Arguments: -lines n (default 1000000), -copies 1,2,4, -runs n, -seed
+ *         n, -dir directory for the reports (default the temp directory)
+ */
+public class EndToEndBenchmark {
+	private static final String SEQUENCE = "sequence";
+	private static final String LINE = "line";
+	private static final String PAGE = "page";
+	private static final String LINE_NR = "line_nr";
+
+	public static void main(String[] args) throws Exception {
+		long lines = 1000000L;
+		String copiesList = "1,2,4";
+		int runs = 1;
+		long seed = 42L;
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if ("-lines".equals(args[i])) {
+				lines = Long.parseLong(args[i + 1]);
+			} else if ("-copies".equals(args[i])) {
+				copiesList = args[i + 1];
+			} else if ("-runs".equals(args[i])) {
+				runs = Integer.parseInt(args[i + 1]);
+			} else if ("-seed".equals(args[i])) {
+				seed = Long.parseLong(args[i + 1]);
+			} else if ("-dir".equals(args[i])) {
+				dir = new File(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + args[i]);
+			}
+		}
+
+		KettleEnvironment.init(false);
+
+		// Reports are kept, generating 100M lines takes a while
+		File report = new File(dir, "report-" + lines + "-" + seed + ".txt");
+		File goldenFile = new File(dir, report.getName() + ".golden");
+		GoldenReference golden = GoldenReference.load(goldenFile);
+		if (golden == null || !report.exists()) {
+			System.out.println("Generating " + report);
+			golden = ReportGenerator.generate(report, lines, seed);
+			golden.store(goldenFile);
+		}
+
+		System.out.println(String.format("%6s %12s %10s %12s %12s %8s %10s  %s", "copies", "rows", "seconds",
+				"rows/s", "peak heap MB", "GCs", "GC ms", "golden"));
+		boolean ok = true;
+		for (String copies : copiesList.split(",")) {
+			for (int run = 0; run < runs; run++) {
+				ok &= run(report, Integer.parseInt(copies.trim()), golden);
+			}
+		}
+		if (!ok) {
+			System.out.println("The sequence values differ from the golden reference or the rows came out of order");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the report through the transformation once
+	 * 
+	 * @return true when the output matches the golden reference
+	 */
+	private static boolean run(File report, int copies, GoldenReference golden) throws KettleException {
+		TransMeta transMeta = new TransMeta();
+		transMeta.setName("report-benchmark");
+
+		ReportInputMeta inputMeta = new ReportInputMeta();
+		inputMeta.setDefault();
+		inputMeta.setFileName(report.getAbsolutePath());
+		inputMeta.setEncoding("UTF-8");
+		inputMeta.setLineField(LINE);
+		inputMeta.setPageField(PAGE);
+		inputMeta.setLineNrField(LINE_NR);
+		inputMeta.setFormFeedBreak(true);
+		StepMeta input = new StepMeta("ReportInput", "report", inputMeta);
+		transMeta.addStep(input);
+
+		AddFilterSequenceMeta sequenceMeta = new AddFilterSequenceMeta();
+		sequenceMeta.setDefault();
+		sequenceMeta.setFieldName(SEQUENCE);
+		sequenceMeta.setStartAt("1");
+		sequenceMeta.setIncrementBy("1");
+		sequenceMeta.setCondition(new Condition(LINE, Condition.FUNC_STARTS_WITH, null, new ValueMetaAndData(
+				"constant", ReportGenerator.HEADER)));
+		// numbering has to be the same with more copies
+		sequenceMeta.setDeterministic(copies > 1);
+		StepMeta sequence = new StepMeta("AddFilterSequence", SEQUENCE, sequenceMeta);
+		sequence.setCopies(copies);
+		transMeta.addStep(sequence);
+
+		StepMeta collect = new StepMeta("Dummy", "collect", new DummyTransMeta());
+		transMeta.addStep(collect);
+
+		transMeta.addTransHop(new TransHopMeta(input, sequence));
+		transMeta.addTransHop(new TransHopMeta(sequence, collect));
+
+		Trans trans = new Trans(transMeta);
+		trans.prepareExecution(null);
+		final GoldenReference actual = new GoldenReference(golden.getLines(), golden.getSeed());
+		for (StepInterface step : trans.findBaseSteps("collect")) {
+			step.addRowListener(new RowAdapter() {
+				private int lineIndex = -1;
+				private int pageIndex = -1;
+				private int lineNrIndex = -1;
+				private int sequenceIndex = -1;
+
+				public void rowWrittenEvent(RowMetaInterface rowMeta, Object[] row) throws KettleStepException {
+					if (lineIndex < 0) {
+						lineIndex = rowMeta.indexOfValue(LINE);
+						pageIndex = rowMeta.indexOfValue(PAGE);
+						lineNrIndex = rowMeta.indexOfValue(LINE_NR);
+						sequenceIndex = rowMeta.indexOfValue(SEQUENCE);
+					}
+					// the report input passes the lines on as bytes
+					try {
+						actual.add(((Long) row[pageIndex]).longValue(), ((Long) row[lineNrIndex]).longValue(),
+								rowMeta.getString(row, lineIndex), ((Long) row[sequenceIndex]).longValue());
+					} catch (KettleValueException e) {
+						throw new KettleStepException(e);
+					}
+				}
+			});
+		}
+
+		List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools.add(pool);
+			}
+		}
+		System.gc();
+		for (MemoryPoolMXBean pool : heapPools) {
+			pool.resetPeakUsage();
+		}
+		long gcCount = -getGcCount();
+		long gcTime = -getGcTime();
+
+		long start = System.nanoTime();
+		trans.startThreads();
+		trans.waitUntilFinished();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		gcCount += getGcCount();
+		gcTime += getGcTime();
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : heapPools) {
+			peakHeap += pool.getPeakUsage().getUsed();
+		}
+
+		if (trans.getErrors() > 0) {
+			throw new KettleException("The transformation failed with " + copies + " copies");
+		}
+		boolean matches = golden.matches(actual);
+		// with several copies the rows leave in copy order, not report order
+		boolean ordered = copies > 1 || actual.isInOrder();
+		System.out.println(String.format("%6d %12d %10.2f %12.0f %12d %8d %10d  %s", copies, actual.getRows(),
+				seconds, actual.getRows() / seconds, peakHeap >> 20, gcCount, gcTime,
+				!matches ? "MISMATCH" : ordered ? "ok" : "OUT OF ORDER"));
+		return matches && ordered;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+import plugin.step.ConditionCompiler;
+import plugin.step.ExpressionCompiler;
+import plugin.step.RowPredicate;
+
+/**
+ * @author David Law
+ *
+ *         Evaluation of a condition per row, compiled as the step does it and
+ *         through Condition.evaluate for comparison, and of the same test as
+ *         an increment expression. Scores are ns per row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluateRowBenchmark {
+
+	@Param({ "EQUALS", "AND_OR_TREE", "REGEXP", "IN_LIST", "FIELD_COMPARE" })
+	public ConditionShape shape;
+
+	@Param({ "1", "10", "50", "200" })
+	public int width;
+
+	@Param({ "0.001", "0.01", "0.1", "0.5" })
+	public double matchRate;
+
+	private RowMetaInterface rowMeta;
+	private Object[][] rows;
+	private Condition condition;
+	private RowPredicate predicate;
+	private RowPredicate expression;
+
+	@Setup
+	public void setUp() throws KettleException {
+		KettleEnvironment.init(false);
+
+		BenchRows benchRows = new BenchRows(width, matchRate, 42L);
+		rowMeta = benchRows.getRowMeta();
+		rows = benchRows.getRows();
+		condition = shape.build(width > 1);
+		predicate = new ConditionCompiler(rowMeta).compile(condition);
+		expression = ExpressionCompiler.compile(shape.expression(width > 1), rowMeta);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchRows.ROWS)
+	public int compiled() throws KettleException {
+		int matches = 0;
+		for (Object[] row : rows) {
+			if (predicate.evaluate(row)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchRows.ROWS)
+	public int expression() throws KettleException {
+		int matches = 0;
+		for (Object[] row : rows) {
+			if (expression.evaluate(row)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchRows.ROWS)
+	public int interpreted() {
+		int matches = 0;
+		for (Object[] row : rows) {
+			if (condition.evaluate(rowMeta, row)) {
+				matches++;
+			}
+		}
+		return matches;
+	}
+}
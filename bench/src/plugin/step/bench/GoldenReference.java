@@ -0,0 +1,178 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * @author David Law
+ *
+ *         What the sequence step has to produce for a report: the number of
+ *         rows and pages and a digest of each line with its position in the
+ *         report (page and line in the page) and its sequence value. The
+ *         digest does not depend on the order the rows arrive in, several
+ *         step copies pass them on in their own order, but a row numbered as
+ *         if it came at another position changes it. Whether the rows arrived
+ *         in the order of the report is tracked separately.
+ */
+public class GoldenReference {
+	private long lines;
+	private long seed;
+	private long rows;
+	private long pages;
+	private long digest;
+	private long lastPosition = -1;
+	private boolean inOrder = true;
+
+	/**
+	 * @param lines
+	 *            the number of lines of the report
+	 * @param seed
+	 *            the seed it was generated with
+	 */
+	public GoldenReference(long lines, long seed) {
+		this.lines = lines;
+		this.seed = seed;
+	}
+
+	/**
+	 * Adds a line of the report with its sequence value
+	 * 
+	 * @param page
+	 *            the page of the line
+	 * @param lineNr
+	 *            the number of the line in its page
+	 * @param line
+	 * @param sequence
+	 */
+	public void add(long page, long lineNr, String line, long sequence) {
+		rows++;
+		pages = Math.max(pages, sequence);
+		// pages have far less than 2^20 lines
+		long position = page << 20 | lineNr;
+		if (position <= lastPosition) {
+			inOrder = false;
+		}
+		lastPosition = position;
+		// empty lines may come through as null
+		long hash = line == null ? 0 : line.hashCode();
+		digest += mix((mix(position) + hash) * 31L + sequence);
+	}
+
+	/**
+	 * @return true when the same rows with the same sequence values were
+	 *         added to both
+	 */
+	public boolean matches(GoldenReference other) {
+		return rows == other.rows && pages == other.pages && digest == other.digest;
+	}
+
+	/**
+	 * @return true when the rows were added in the order of the report
+	 */
+	public boolean isInOrder() {
+		return inOrder;
+	}
+
+	public long getLines() {
+		return lines;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getPages() {
+		return pages;
+	}
+
+	/**
+	 * @param file
+	 * @return the reference stored in the file, null when there is none
+	 * @throws IOException
+	 */
+	public static GoldenReference load(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		// written before the digest took the positions of the lines
+		if (properties.getProperty("position_digest") == null) {
+			return null;
+		}
+		GoldenReference reference = new GoldenReference(Long.parseLong(properties.getProperty("lines")),
+				Long.parseLong(properties.getProperty("seed")));
+		reference.rows = Long.parseLong(properties.getProperty("rows"));
+		reference.pages = Long.parseLong(properties.getProperty("pages"));
+		reference.digest = Long.parseLong(properties.getProperty("position_digest"));
+		return reference;
+	}
+
+	/**
+	 * @param file
+	 * @throws IOException
+	 */
+	public void store(File file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("lines", Long.toString(lines));
+		properties.setProperty("seed", Long.toString(seed));
+		properties.setProperty("rows", Long.toString(rows));
+		properties.setProperty("pages", Long.toString(pages));
+		properties.setProperty("position_digest", Long.toString(digest));
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, "Expected output of the sequence step");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+import plugin.step.AddFilterSequence;
+import plugin.step.AddFilterSequenceData;
+import plugin.step.AddFilterSequenceMeta;
+import plugin.step.ConditionCompiler;
+import plugin.step.RowPredicate;
+
+/**
+ * @author David Law
+ *
+ *         The step itself, fed from a {@link ReplayRowSet} and writing to a
+ *         {@link DiscardRowSet}, without Spoon or a running transformation.
+ *         Scores are ns per row, run with -prof gc for the bytes allocated per
+ *         row (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessRowBenchmark {
+
+	@Param({ "EQUALS", "AND_OR_TREE", "REGEXP", "IN_LIST", "FIELD_COMPARE" })
+	public ConditionShape shape;
+
+	@Param({ "1", "10", "50", "200" })
+	public int width;
+
+	@Param({ "0.001", "0.01", "0.1", "0.5" })
+	public double matchRate;
+
+	private AddFilterSequenceMeta meta;
+	private AddFilterSequenceData data;
+	private AddFilterSequence step;
+	private ReplayRowSet input;
+	private DiscardRowSet output;
+
+	private RowMetaInterface rowMeta;
+	private Object[][] rows;
+	private boolean[][] matches;
+	private boolean[] noResets;
+
+	@Setup
+	public void setUp() throws KettleException {
+		KettleEnvironment.init(false);
+
+		BenchRows benchRows = new BenchRows(width, matchRate, 42L);
+		rowMeta = benchRows.getRowMeta();
+		rows = benchRows.getRows();
+
+		meta = new AddFilterSequenceMeta();
+		meta.setDefault();
+		meta.setFieldName("sequence");
+		meta.setCondition(shape.build(width > 1));
+
+		TransMeta transMeta = new TransMeta();
+		transMeta.setName("benchmark");
+		StepMeta stepMeta = new StepMeta("sequence", meta);
+		transMeta.addStep(stepMeta);
+		Trans trans = new Trans(transMeta);
+
+		data = (AddFilterSequenceData) meta.getStepData();
+		step = new AddFilterSequence(stepMeta, data, 0, transMeta, trans);
+		input = new ReplayRowSet(rowMeta, rows);
+		output = new DiscardRowSet();
+		step.getInputRowSets().add(input);
+		step.getOutputRowSets().add(output);
+		if (!step.init(meta, data)) {
+			throw new KettleException("Unable to initialize the step");
+		}
+
+		// Get past the first row, which sets up the output layout
+		processRow();
+
+		// The outcome of the condition for each row, for addSequence alone
+		RowPredicate predicate = new ConditionCompiler(rowMeta).compile(meta.getCondition());
+		matches = new boolean[rows.length][];
+		for (int i = 0; i < rows.length; i++) {
+			matches[i] = new boolean[] { predicate.evaluate(rows[i]) };
+		}
+		noResets = new boolean[1];
+	}
+
+	@TearDown
+	public void tearDown() {
+		step.dispose(meta, data);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchRows.ROWS)
+	public Object[] processRow() throws KettleException {
+		input.startRound(BenchRows.ROWS);
+		while (!input.isRoundDone()) {
+			step.processRow(meta, data);
+		}
+		return output.getLast();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BenchRows.ROWS)
+	public Object[] addSequence() throws KettleException {
+		Object[] row = null;
+		for (int i = 0; i < rows.length; i++) {
+			row = step.addSequence(rowMeta, rows[i], matches[i], noResets, false);
+		}
+		return row;
+	}
+}
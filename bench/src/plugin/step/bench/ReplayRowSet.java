@@ -0,0 +1,98 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.BaseRowSet;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * @author David Law
+ *
+ *         Input row set that hands out the same rows over and over, a given
+ *         number of them per round
+ */
+public class ReplayRowSet extends BaseRowSet {
+	private final Object[][] rows;
+	private int next;
+	private int remaining;
+
+	public ReplayRowSet(RowMetaInterface rowMeta, Object[][] rows) {
+		this.rows = rows;
+		setRowMeta(rowMeta);
+	}
+
+	/**
+	 * Makes count more rows available
+	 * 
+	 * @param count
+	 */
+	public void startRound(int count) {
+		remaining = count;
+	}
+
+	/**
+	 * @return true when all rows of the round were read
+	 */
+	public boolean isRoundDone() {
+		return remaining == 0;
+	}
+
+	public Object[] getRow() {
+		if (remaining == 0) {
+			return null;
+		}
+		remaining--;
+		Object[] row = rows[next];
+		next = next + 1 == rows.length ? 0 : next + 1;
+		return row;
+	}
+
+	public Object[] getRowImmediate() {
+		return getRow();
+	}
+
+	public Object[] getRowWait(long timeout, TimeUnit tu) {
+		return getRow();
+	}
+
+	public boolean putRow(RowMetaInterface rowMeta, Object[] rowData) {
+		throw new UnsupportedOperationException();
+	}
+
+	public boolean putRowWait(RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu) {
+		throw new UnsupportedOperationException();
+	}
+
+	public int size() {
+		return remaining;
+	}
+
+	public void clear() {
+		remaining = 0;
+	}
+}
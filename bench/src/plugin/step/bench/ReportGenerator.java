@@ -0,0 +1,128 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * @author David Law
+ *
+ *         Writes a synthetic paginated report: pages separated by form feeds,
+ *         each with a page header, column headings, a variable number of
+ *         detail lines and a page total. A sequence that moves on at every
+ *         line starting with {@link #HEADER} numbers the pages.
+ */
+public class ReportGenerator {
+
+	/**
+	 * The start of the first line of each page
+	 */
+	public static final String HEADER = "ACME CORPORATION";
+
+	private static final String[] NAMES = { "SMITH", "JONES", "WILLIAMS", "BROWN", "TAYLOR", "DAVIES", "EVANS",
+			"WILSON", "THOMAS", "JOHNSON", "ROBERTS", "WALKER" };
+
+	private ReportGenerator() {
+	}
+
+	/**
+	 * @param file
+	 * @param lines
+	 *            the number of lines to write, the last page is cut short
+	 * @param seed
+	 * @return the output the sequence step has to produce for the report
+	 * @throws IOException
+	 */
+	public static GoldenReference generate(File file, long lines, long seed) throws IOException {
+		GoldenReference golden = new GoldenReference(lines, seed);
+		Random random = new Random(seed);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 20);
+		try {
+			long written = 0;
+			long page = 0;
+			while (written < lines) {
+				page++;
+				if (page > 1) {
+					writer.write('\f');
+				}
+				String[] heading = {
+						HEADER + "                STATEMENT OF ACCOUNTS                PAGE " + page,
+						"RUN DATE 2016-03-" + (10 + random.nextInt(20)) + "   BRANCH " + (100 + random.nextInt(900)),
+						"",
+						"ACCOUNT    NAME                  AMOUNT",
+						"-------    ------------------    ----------" };
+				for (int i = 0; i < heading.length && written < lines; i++, written++) {
+					writeLine(writer, golden, heading[i], page, i + 1);
+				}
+
+				int details = 20 + random.nextInt(36);
+				long total = 0;
+				for (int i = 0; i < details && written < lines; i++, written++) {
+					long cents = random.nextInt(10000000);
+					total += cents;
+					String line = "  " + (1000000 + random.nextInt(9000000)) + "    "
+							+ pad(NAMES[random.nextInt(NAMES.length)] + "-" + random.nextInt(1000), 18) + "    "
+							+ amount(cents);
+					writeLine(writer, golden, line, page, heading.length + i + 1);
+				}
+
+				String[] footing = { "", "           PAGE TOTAL                 " + amount(total) };
+				for (int i = 0; i < footing.length && written < lines; i++, written++) {
+					writeLine(writer, golden, footing[i], page, heading.length + details + i + 1);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return golden;
+	}
+
+	private static void writeLine(Writer writer, GoldenReference golden, String line, long page, long lineNr)
+			throws IOException {
+		writer.write(line);
+		writer.write('\n');
+		golden.add(page, lineNr, line, page);
+	}
+
+	private static String pad(String value, int length) {
+		StringBuilder padded = new StringBuilder(value);
+		while (padded.length() < length) {
+			padded.append(' ');
+		}
+		return padded.toString();
+	}
+
+	private static String amount(long cents) {
+		String fraction = Long.toString(100 + cents % 100).substring(1);
+		return cents / 100 + "." + fraction;
+	}
+}
@@ -25,16 +25,25 @@
 
 package plugin.step;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
+import javax.management.JMException;
+
+import org.pentaho.di.core.Condition;
 import org.pentaho.di.core.Const;
-import org.pentaho.di.core.Counter;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStep;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -53,6 +62,34 @@ import org.pentaho.di.trans.step.StepMetaInterface;
 public class AddFilterSequence extends BaseStep implements StepInterface {
 	private static Class<?> PKG = AddFilterSequence.class; // for i18n needed by Translator2!!
 
+	/**
+	 * Rows per copy numbered at once in deterministic mode
+	 */
+	private static final int BLOCK_SIZE = 1000;
+
+	/**
+	 * Maximum number of rows read and passed on at once
+	 */
+	private static final int BATCH_SIZE = 500;
+
+	/**
+	 * Variable with the evaluation time in ms from which rows are reported to
+	 * Java Flight Recorder
+	 */
+	public static final String SLOW_ROW_THRESHOLD_VARIABLE = "ADD_FILTER_SEQUENCE_SLOW_ROW_MS";
+
+	private static final String DEFAULT_SLOW_ROW_THRESHOLD = "10";
+
+	/**
+	 * Error code of rows sent to the error hop
+	 */
+	static final String EVALUATION_ERROR_CODE = "AFS001";
+
+	/**
+	 * Time between two summaries of the errors that repeated
+	 */
+	private static final long ERROR_SUMMARY_INTERVAL = 30000000000L;
+
 	private AddFilterSequenceMeta meta;
 
 	private AddFilterSequenceData data;
@@ -104,93 +141,456 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 		data = (AddFilterSequenceData) sdi;
 
 		if (super.init(smi, sdi)) {
-			meta.getCondition().clearFieldPositions();
+			int nrSequences = meta.getSequences().size();
+			data.nrSequences = nrSequences;
+			data.conditions = new Condition[nrSequences];
+			data.expressions = new String[nrSequences];
+			data.lookups = new String[nrSequences];
+			data.start = new long[nrSequences];
+			data.increment = new long[nrSequences];
+			data.resetConditions = new Condition[nrSequences];
+			data.matches = new boolean[nrSequences];
+			data.resets = new boolean[nrSequences];
+			data.noMatches = new boolean[nrSequences];
+			data.boxedValues = new Long[nrSequences];
+
+			for (int i = 0; i < nrSequences; i++) {
+				SequenceDefinition sequence = meta.getSequences().get(i);
+
+				// Every copy evaluates its own condition, Condition.evaluate keeps state
+				data.conditions[i] = (Condition) sequence.getCondition().clone();
+				data.conditions[i].clearFieldPositions();
+				if (sequence.hasExpression()) {
+					data.expressions[i] = sequence.getExpression();
+				}
+				Condition resetCondition = sequence.getResetCondition();
+				if (resetCondition != null && !resetCondition.isEmpty()) {
+					data.resetConditions[i] = (Condition) resetCondition.clone();
+					data.resetConditions[i].clearFieldPositions();
+				}
+
+				// Insert Kettle variables
+				data.lookups[i] = "@@sequence:" + sequence.getFieldName();
 
-			// Insert Kettle variables
-			data.setLookup("@@sequence:" + meta.getFieldName());
+				try {
+					data.start[i] = Long.parseLong(environmentSubstitute(sequence.getStartAt()));
+				} catch (NumberFormatException ex) {
+					logError(BaseMessages.getString(PKG, "AddSequence.Log.CouldNotParseCounterValue", "start",
+							sequence.getStartAt(), environmentSubstitute(sequence.getStartAt()), ex.getMessage()));
+				}
+
+				try {
+					data.increment[i] = Long.parseLong(environmentSubstitute(sequence.getIncrementBy()));
+				} catch (NumberFormatException ex) {
+					logError(BaseMessages.getString(PKG, "AddSequence.Log.CouldNotParseCounterValue", "increment",
+							sequence.getIncrementBy(), environmentSubstitute(sequence.getIncrementBy()),
+							ex.getMessage()));
+				}
+			}
 
+			data.sequenceNames = new String[nrSequences];
+			for (int i = 0; i < nrSequences; i++) {
+				data.sequenceNames[i] = meta.getSequences().get(i).getFieldName();
+			}
+			data.metrics = new AddFilterSequenceMetrics(data.sequenceNames);
 			try {
-				data.start = Long.parseLong(environmentSubstitute(meta.getStartAt()));
+				data.metricsName = data.metrics.register(getTransMeta().getName(), getTrans().getContainerObjectId(),
+						getStepname(), getCopy());
+			} catch (JMException e) {
+				// the step works just as well without
+				logDetailed(BaseMessages.getString(PKG, "AddFilterSequence.Log.MetricsNotRegistered", e.getMessage()));
+			}
+			data.events = new FlightRecorderEvents(getStepname(), getCopy(), System.nanoTime());
+			data.timeRows = data.events.isSlowRowEnabled();
+			String threshold = Const.NVL(getVariable(SLOW_ROW_THRESHOLD_VARIABLE), DEFAULT_SLOW_ROW_THRESHOLD);
+			try {
+				data.slowRowNanos = Long.parseLong(threshold.trim()) * 1000000L;
 			} catch (NumberFormatException ex) {
-				logError(BaseMessages.getString(PKG, "AddSequence.Log.CouldNotParseCounterValue", "start",
-						meta.getStartAt(), environmentSubstitute(meta.getStartAt()), ex.getMessage()));
+				logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CouldNotParseSlowRowThreshold",
+						SLOW_ROW_THRESHOLD_VARIABLE, threshold));
+				data.slowRowNanos = Long.parseLong(DEFAULT_SLOW_ROW_THRESHOLD) * 1000000L;
+			}
+
+			if (meta.getSummaryStepName() != null) {
+				if (getStepMeta().getCopies() > 1) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.SummarySingleCopy"));
+					return false;
+				}
+				try {
+					data.summaryChain = meta.getSummaryChain();
+				} catch (KettleStepException e) {
+					logError(e.getMessage());
+					return false;
+				}
 			}
 
+			data.previousRows = Const.toInt(environmentSubstitute(meta.getPreviousRows()), 1);
+			if (meta.usesPreviousRows() && getStepMeta().getCopies() > 1) {
+				logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.PreviousRowsSingleCopy"));
+				return false;
+			}
+
+			data.errorHandling = getStepMeta().isDoingErrorHandling();
+			data.errors = new ErrorLogSummary(ERROR_SUMMARY_INTERVAL, System.nanoTime());
+
 			try {
-				data.increment = Long.parseLong(environmentSubstitute(meta.getIncrementBy()));
-			} catch (NumberFormatException ex) {
-				logError(BaseMessages.getString(PKG, "AddSequence.Log.CouldNotParseCounterValue", "increment",
-						meta.getIncrementBy(), environmentSubstitute(meta.getIncrementBy()), ex.getMessage()));
-			}
-
-			// Necessary? Having multiple counters does not make sense
-			if (getTrans().getCounters() != null) {
-				// check if counter exists
-				synchronized (getTrans().getCounters()) {
-					data.counter = getTrans().getCounters().get(data.getLookup());
-					if (data.counter == null) {
-						// create a new one
-						data.counter = new Counter(data.start, data.increment);
-						getTrans().getCounters().put(data.getLookup(), data.counter);
-					}
+				data.parents = meta.getParentIndexes();
+			} catch (KettleStepException e) {
+				logError(e.getMessage());
+				return false;
+			}
+
+			String checkpointFile = environmentSubstitute(meta.getCheckpointFile());
+			if (!Const.isEmpty(checkpointFile) && getStepMeta().getCopies() > 1) {
+				logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CheckpointSingleCopy"));
+				return false;
+			}
+
+			String sequenceStore = environmentSubstitute(meta.getSequenceStore());
+			String sequenceServer = environmentSubstitute(meta.getSequenceServer());
+			if (!Const.isEmpty(sequenceStore) || !Const.isEmpty(sequenceServer)) {
+				if (!Const.isEmpty(sequenceStore) && !Const.isEmpty(sequenceServer)) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.StoreAndServer"));
+					return false;
+				}
+				if (meta.isStoredSequenceRestarted()) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.StoredSequenceRestarted"));
+					return false;
+				}
+				if (meta.isDeterministic() && getStepMeta().getCopies() > 1) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.DeterministicWithStore"));
+					return false;
+				}
+			}
+
+			if (meta.isDeterministic() && getStepMeta().getCopies() > 1) {
+				if (!AddFilterSequenceMeta.isRoundRobinInput(getTransMeta(), getStepMeta())) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.DeterministicNeedsRoundRobin"));
+					return false;
 				}
+				if (meta.getKeyFields().length > 0) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.DeterministicWithKeyFields"));
+					return false;
+				}
+
+				// Blocks have to fit in the row sets or the copies wait on each other
+				int blockSize = Math.max(1, Math.min(BLOCK_SIZE, getTransMeta().getSizeRowset() / 2));
+				data.coordinator = SequenceCounterRegistry.acquireCoordinator(getTrans(), getCoordinatorLookup(),
+						getStepMeta().getCopies(), blockSize, data.start, data.increment, data.parents);
+				blockSize = data.coordinator.getBlockSize();
+				data.blockRows = new Object[blockSize][];
+				data.blockMatches = new boolean[blockSize * nrSequences];
+				data.blockResets = new boolean[blockSize * nrSequences];
+				data.blockFailed = new boolean[blockSize];
+				data.blockValues = new long[blockSize * nrSequences];
 				return true;
-			} else {
-				logError(BaseMessages.getString(PKG, "AddSequence.Log.TransformationCountersHashtableNotAllocated"));
 			}
 
+			data.counters = new SequenceCounter[nrSequences];
+			SequenceAllocator allocator = null;
+			String allocatorName = Const.isEmpty(sequenceServer) ? sequenceStore : sequenceServer;
+			long storeBlockSize = Math.max(AddFilterSequenceMeta.MIN_STORE_BLOCK_SIZE,
+					Const.toLong(environmentSubstitute(meta.getStoreBlockSize()), 1000L));
+			for (int i = 0; i < nrSequences; i++) {
+				String fieldName = meta.getSequences().get(i).getFieldName();
+				if (Const.isEmpty(allocatorName) || data.parents[i] >= 0) {
+					data.counters[i] = SequenceCounterRegistry.acquire(getTrans(), data.lookups[i], data.start[i],
+							data.increment[i], countSequenceUsers(fieldName));
+					continue;
+				}
+
+				// top level sequences carry on where the last run or the other
+				// servers stopped, the server is asked ahead of time
+				try {
+					if (allocator == null) {
+						allocator = Const.isEmpty(sequenceServer) ? SequenceStore.open(new File(sequenceStore))
+								: SequenceClient.forAddress(sequenceServer);
+					}
+					data.counters[i] = SequenceCounterRegistry.acquireStored(getTrans(), data.lookups[i], allocator,
+							fieldName, data.start[i], data.increment[i], storeBlockSize,
+							!Const.isEmpty(sequenceServer));
+				} catch (IllegalArgumentException e) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CouldNotParseSequenceServer",
+							sequenceServer, e.getMessage()));
+					return false;
+				} catch (IOException e) {
+					logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CouldNotReserveValues", fieldName,
+							allocatorName, e.getMessage()));
+					return false;
+				}
+			}
+			data.hierarchy = new SequenceHierarchy(data.counters, data.parents);
+			data.rowValues = new long[nrSequences];
+
+			if (!Const.isEmpty(checkpointFile) && !initCheckpoint(new File(checkpointFile))) {
+				return false;
+			}
+
+			// Batches never take more than a quarter of the row sets, and
+			// batchSize() keeps them within the room left in the output
+			data.batchRows = new Object[Math.max(1, Math.min(BATCH_SIZE, getTransMeta().getSizeRowset() / 4))][];
+
 			return true;
 		}
 		return false;
 	}
 
 	/**
-	 * Create the row with a new field for the sequence
+	 * Sets up the checkpoints and carries on from the last one when there is
+	 * one
 	 * 
-	 * @param inputRowMeta
-	 * @param inputRowData
-	 * @param increment
-	 *            Increments the sequence counter if true
-	 * @return outputRowData The row data with the sequence counter
+	 * @param file
+	 * @return false when the checkpoint can't be used
+	 */
+	private boolean initCheckpoint(final File file) {
+		data.checkpointFile = file;
+		data.checkpointRows = Const.toLong(environmentSubstitute(meta.getCheckpointRows()), 0L);
+		data.checkpointNanos = Const.toLong(environmentSubstitute(meta.getCheckpointSeconds()), 0L) * 1000000000L;
+		data.lastCheckpointTime = System.nanoTime();
+
+		SequenceCheckpoint checkpoint;
+		try {
+			checkpoint = SequenceCheckpoint.read(file);
+		} catch (IOException e) {
+			logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CouldNotReadCheckpoint", file.getPath(),
+					e.getMessage()));
+			return false;
+		}
+		if (checkpoint != null) {
+			if (!Arrays.equals(checkpoint.getSequenceNames(), data.sequenceNames)) {
+				logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.CheckpointDoesNotMatch", file.getPath()));
+				return false;
+			}
+			long[] values = checkpoint.getValues();
+			for (int i = 0; i < data.nrSequences; i++) {
+				data.counters[i].restore(values[i]);
+			}
+			data.skipRows = checkpoint.getRowsConsumed();
+			data.line = checkpoint.getRowsConsumed();
+			data.rowsConsumed = checkpoint.getRowsConsumed();
+			data.lastCheckpointRows = checkpoint.getRowsConsumed();
+			data.resumedKeys = checkpoint.getKeys();
+			data.resumed = data.skipRows > 0;
+			logBasic(BaseMessages.getString(PKG, "AddFilterSequence.Log.ResumingFromCheckpoint", file.getPath(),
+					Long.toString(data.skipRows)));
+		}
+
+		// a run that went through has nothing to resume
+		getTrans().addTransListener(new TransAdapter() {
+			public void transFinished(Trans trans) {
+				if (trans.getErrors() == 0 && !FileReplacement.delete(file)) {
+					logDetailed(BaseMessages.getString(PKG, "AddFilterSequence.Log.CheckpointNotDeleted", file.getPath()));
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Writes a checkpoint when enough rows or time went by since the last one
+	 * 
+	 * @param now
+	 *            System.nanoTime()
+	 * @param force
+	 *            writes it anyway if true
 	 * @throws KettleException
 	 */
-	public Object[] addSequence(RowMetaInterface inputRowMeta, Object[] inputRowData, boolean doIncrement)
-			throws KettleException {
-		Object next = null;
+	private void checkpoint(long now, boolean force) throws KettleException {
+		if (data.checkpointFile == null) {
+			return;
+		}
+		if (!force && (data.checkpointRows <= 0 || data.rowsConsumed - data.lastCheckpointRows < data.checkpointRows)
+				&& (data.checkpointNanos <= 0 || now - data.lastCheckpointTime < data.checkpointNanos)) {
+			return;
+		}
+
+		long[] values = new long[data.nrSequences];
+		for (int i = 0; i < data.nrSequences; i++) {
+			values[i] = data.counters[i].getValue();
+		}
+		byte[] keys = null;
+		if (data.keyChanges != null) {
+			keys = SequenceCheckpoint.writeKeys(data.keyChanges.getKeyRowMeta(), data.keyChanges.getPrevious());
+		}
+		try {
+			new SequenceCheckpoint(data.sequenceNames, values, data.rowsConsumed, keys).write(data.checkpointFile);
+		} catch (IOException e) {
+			throw new KettleException(BaseMessages.getString(PKG, "AddFilterSequence.Exception.CouldNotWriteCheckpoint",
+					data.checkpointFile.getPath()), e);
+		}
+		data.lastCheckpointRows = data.rowsConsumed;
+		data.lastCheckpointTime = now;
+	}
 
-		synchronized (data.counter) {
-			long prev = data.counter.getCounter();
+	/**
+	 * Drops the rows at the start of the batch that were consumed before the
+	 * checkpoint
+	 * 
+	 * @param count
+	 *            the number of rows in the batch
+	 * @return the number of rows left
+	 */
+	private int skipCheckpointedRows(int count) throws KettleException {
+		int skip = (int) Math.min(data.skipRows, count);
+		// the rows after the checkpoint may look back at these
+		prepareLag(getInputRowMeta());
+		if (data.errorHandling && data.previousRows > 0) {
+			// rows that went to the error hop never made it into the lag, they
+			// fail again on the same conditions
+			if (data.predicates == null) {
+				compileConditions(getInputRowMeta());
+			}
+			long position = data.rowsConsumed - data.skipRows;
+			for (int i = 0; i < skip; i++) {
+				if (position + i == 0 || passes(data.batchRows[i])) {
+					data.lag.add(data.batchRows[i]);
+				}
+			}
+		} else {
+			for (int i = Math.max(0, skip - data.previousRows); i < skip; i++) {
+				data.lag.add(data.batchRows[i]);
+			}
+		}
+		System.arraycopy(data.batchRows, skip, data.batchRows, 0, count - skip);
+		for (int i = count - skip; i < count; i++) {
+			data.batchRows[i] = null;
+		}
+		data.skipRows -= skip;
+		return count - skip;
+	}
 
-			if (doIncrement) {
-				long nval = prev + data.counter.getIncrement();
-				data.counter.setCounter(nval);
+	/**
+	 * Counts the step copies in the transformation adding a sequence
+	 * 
+	 * @param fieldName
+	 *            the name of the sequence field
+	 * @return the number of step copies sharing the counter
+	 */
+	private int countSequenceUsers(String fieldName) {
+		int users = 0;
+		for (StepMeta stepMeta : getTransMeta().getSteps()) {
+			if (stepMeta.getStepMetaInterface() instanceof AddFilterSequenceMeta) {
+				AddFilterSequenceMeta other = (AddFilterSequenceMeta) stepMeta.getStepMetaInterface();
+				for (SequenceDefinition sequence : other.getSequences()) {
+					if (Const.NVL(fieldName, "").equals(Const.NVL(sequence.getFieldName(), ""))) {
+						users += stepMeta.getCopies();
+					}
+				}
 			}
+		}
+		return Math.max(users, 1);
+	}
+
+	/**
+	 * @return the name of the coordinator shared by the copies of this step
+	 */
+	private String getCoordinatorLookup() {
+		return "@@copies:" + getStepname();
+	}
+
+	/**
+	 * Create the row with the new fields for the sequences
+	 * 
+	 * @param inputRowMeta
+	 * @param inputRowData
+	 * @param doIncrement
+	 *            Increments the sequence counter of each sequence if true,
+	 *            child sequences of a sequence that moves on are reset
+	 * @param doReset
+	 *            Resets the sequence counter of each sequence if true
+	 * @param resetAll
+	 *            Resets all sequences to their start value if true
+	 * @return outputRowData The row data with the sequence counters
+	 * @throws KettleException
+	 */
+	public Object[] addSequence(RowMetaInterface inputRowMeta, Object[] inputRowData, boolean[] doIncrement,
+			boolean[] doReset, boolean resetAll) throws KettleException {
+		// Rows usually come with room to spare, the values then go straight
+		// into their slots
+		Object[] outputRowData = RowDataUtil.resizeArray(inputRowData, data.outputSize);
+
+		data.hierarchy.advance(doIncrement, doReset, 0, data.rowValues, 0, resetAll);
+		for (int i = 0; i < data.nrSequences; i++) {
+			outputRowData[data.valueIndex + i] = box(i, data.rowValues[i]);
+		}
+		return outputRowData;
+	}
 
-			next = data.counter.getCounter();
+	/**
+	 * Stores the sequence values worked out by the copy coordinator in the row
+	 * 
+	 * @param row
+	 * @param values
+	 * @param offset
+	 *            position of the first value of the row
+	 * @return the row, or a larger copy when it had no room left
+	 */
+	private Object[] setSequenceValues(Object[] row, long[] values, int offset) {
+		Object[] outputRowData = RowDataUtil.resizeArray(row, data.outputSize);
+		for (int i = 0; i < data.nrSequences; i++) {
+			outputRowData[data.valueIndex + i] = box(i, values[offset + i]);
 		}
+		return outputRowData;
+	}
 
-		if (next != null) {
-			Object[] outputRowData = RowDataUtil.addValueData(inputRowData, data.outputRowMeta.size() - 1, next);
-			return outputRowData;
-		} else { // Never happens
-			throw new KettleStepException(
-					BaseMessages.getString(PKG, "AddSequence.Exception.CouldNotFindNextValueForSequence")
-							+ meta.getFieldName());
+	/**
+	 * Runs of rows with the same sequence value share one Long
+	 * 
+	 * @param sequence
+	 * @param value
+	 * @return
+	 */
+	private Long box(int sequence, long value) {
+		Long boxed = data.boxedValues[sequence];
+		if (boxed == null || boxed.longValue() != value) {
+			boxed = Long.valueOf(value);
+			data.boxedValues[sequence] = boxed;
 		}
+		return boxed;
 	}
 
 	/**
-	 * Evaluates the conditions against this row and returns true when met
+	 * Evaluates the increment and reset conditions of all sequences against
+	 * this row in one pass
 	 * 
 	 * @param rowMeta
 	 * @param row
-	 * @return
+	 * @param matches
+	 *            receives true for each sequence whose condition is met
+	 * @param resets
+	 *            receives true for each sequence whose reset condition is met
+	 * @param offset
+	 *            position of the outcomes of the first sequence
+	 * @return false when the row went to the error hop, its outcomes are then
+	 *         all false
 	 * @throws KettleException
+	 *             when the conditions fail and there is no error hop
 	 */
-	private synchronized boolean evaluateRow(RowMetaInterface rowMeta, Object[] row) throws KettleException {
+	private boolean evaluateRow(RowMetaInterface rowMeta, Object[] row, boolean[] matches, boolean[] resets,
+			int offset) throws KettleException {
+		// only a sample of the rows is timed, unless a flight recording wants
+		// the slow ones
+		boolean sampled = data.metrics.sample();
+		boolean timed = sampled || data.timeRows;
+		long start = timed ? System.nanoTime() : 0L;
+		int matched = 0;
 		try {
-			return meta.getCondition().evaluate(rowMeta, row);
+			for (int i = 0; i < data.nrSequences; i++) {
+				matches[offset + i] = data.predicates[i].evaluate(row);
+				resets[offset + i] = data.resetPredicates[i] != null && data.resetPredicates[i].evaluate(row);
+				if (matches[offset + i]) {
+					matched++;
+				}
+			}
 		} catch (Exception e) {
+			if (data.errorHandling) {
+				for (int i = 0; i < data.nrSequences; i++) {
+					matches[offset + i] = false;
+					resets[offset + i] = false;
+				}
+				putEvaluationError(rowMeta, row, e);
+				return false;
+			}
 			String message = BaseMessages.getString(PKG,
 					"AddFilterSequence.Exception.UnexpectedErrorFoundInEvaluationFunction");
 			logError(message);
@@ -198,6 +598,132 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 			logError(Const.getStackTracker(e));
 			throw new KettleException(message, e);
 		}
+		if (timed) {
+			long nanos = System.nanoTime() - start;
+			if (sampled) {
+				data.metrics.addEvaluationTime(nanos);
+			}
+			if (data.timeRows && nanos >= data.slowRowNanos) {
+				data.events.slowRow(nanos, rowMeta.getString(row));
+			}
+		}
+		data.metrics.addRowsMatched(matched);
+		return true;
+	}
+
+	/**
+	 * Evaluates the conditions against a row passed over on resume, without
+	 * counting it or sending it to the error hop a second time
+	 * 
+	 * @param row
+	 * @return false when the conditions fail on the row
+	 */
+	private boolean passes(Object[] row) {
+		try {
+			for (int i = 0; i < data.nrSequences; i++) {
+				data.predicates[i].evaluate(row);
+				if (data.resetPredicates[i] != null) {
+					data.resetPredicates[i].evaluate(row);
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Sends a row the conditions failed on to the error hop. Each error is
+	 * logged in full the first time, after that it is only counted.
+	 * 
+	 * @param rowMeta
+	 * @param row
+	 * @param e
+	 *            what went wrong
+	 * @throws KettleException
+	 */
+	private void putEvaluationError(RowMetaInterface rowMeta, Object[] row, Exception e) throws KettleException {
+		String error = Const.NVL(e.getMessage(), e.getClass().getName()).trim();
+		if (data.errors.add(error)) {
+			logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.RowToErrorHop", error));
+			if (isDetailed()) {
+				logDetailed(BaseMessages.getString(PKG, "AddFilterSequence.Log.ErrorOccurredForRow")
+						+ rowMeta.getString(row));
+				logDetailed(Const.getStackTracker(e));
+			}
+		}
+		putError(rowMeta, row, 1, error, null, EVALUATION_ERROR_CODE);
+	}
+
+	/**
+	 * Logs how often the errors repeated when it is time to
+	 * 
+	 * @param now
+	 *            System.nanoTime()
+	 * @param force
+	 *            logs them anyway if true
+	 */
+	private void logErrorSummary(long now, boolean force) {
+		for (Map.Entry<String, Long> repeated : data.errors.summary(now, force).entrySet()) {
+			logError(BaseMessages.getString(PKG, "AddFilterSequence.Log.RepeatedErrors",
+					repeated.getValue().toString(), repeated.getKey()));
+		}
+	}
+
+	/**
+	 * Publishes the metrics when it is time to, together with the flight
+	 * recorder statistics
+	 * 
+	 * @see AddFilterSequenceMetrics#publish(long[], int, long, boolean)
+	 */
+	private void publishMetrics(long[] values, int offset, long now, boolean force) {
+		logErrorSummary(now, force);
+		if (data.metrics.publish(values, offset, now, force)) {
+			data.events.statistics(now, data.metrics.getRowsEvaluated(), data.metrics.getRowsMatched());
+			data.timeRows = data.events.isSlowRowEnabled();
+		}
+	}
+
+	/**
+	 * Compiles the conditions for the layout of the input rows
+	 * 
+	 * @param rowMeta
+	 * @throws KettleException
+	 *             when an increment expression does not compile
+	 */
+	private void compileConditions(RowMetaInterface rowMeta) throws KettleException {
+		ConditionCompiler compiler = new ConditionCompiler(rowMeta);
+		prepareLag(rowMeta);
+		data.predicates = new RowPredicate[data.nrSequences];
+		data.resetPredicates = new RowPredicate[data.nrSequences];
+		for (int i = 0; i < data.nrSequences; i++) {
+			if (data.expressions[i] != null) {
+				data.predicates[i] = ExpressionCompiler.compile(data.expressions[i], rowMeta, data.lag);
+			} else {
+				data.predicates[i] = compiler.compile(data.conditions[i]);
+			}
+			if (data.resetConditions[i] != null) {
+				data.resetPredicates[i] = compiler.compile(data.resetConditions[i]);
+			}
+		}
+
+		if (isDetailed()) {
+			logDetailed(BaseMessages.getString(PKG, "AddFilterSequence.Log.ConditionCompiled",
+					Integer.toString(compiler.getCompiledCount()), Integer.toString(compiler.getInterpretedCount())));
+		}
+	}
+
+	/**
+	 * Sets up the buffer of the previous rows' values the expressions refer
+	 * to, unless that was done already
+	 * 
+	 * @param rowMeta
+	 * @throws KettleException
+	 */
+	private void prepareLag(RowMetaInterface rowMeta) throws KettleException {
+		if (data.lag == null) {
+			data.lag = new LagBuffer(data.expressions, rowMeta, data.previousRows);
+		}
 	}
 
 	/**
@@ -206,7 +732,7 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 	 * @throws KettleException
 	 */
 	protected void checkNonExistingFields() throws KettleException {
-		List<String> orphanFields = meta.getOrphanFields(meta.getCondition(), getInputRowMeta());
+		List<String> orphanFields = meta.getOrphanFields(getInputRowMeta());
 		if (orphanFields != null && orphanFields.size() > 0) {
 			String fields = "";
 			boolean first = true;
@@ -224,6 +750,341 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 
 	}
 
+	/**
+	 * Sets up the output layout and the compiled condition on the first row
+	 * 
+	 * @throws KettleException
+	 */
+	private void prepareOutput() throws KettleException {
+		data.outputRowMeta = (RowMetaInterface) getInputRowMeta().clone();
+		meta.getFields(data.outputRowMeta, getStepname(), null, null, this, null, null);//repository, metaStore
+		data.valueIndex = getInputRowMeta().size();
+		data.outputSize = data.outputRowMeta.size();
+
+		// if filter refers to non-existing fields, throw exception
+		checkNonExistingFields();
+
+		// a resumed run may have compiled them to pass over the rows before
+		// the checkpoint
+		if (data.predicates == null) {
+			compileConditions(getInputRowMeta());
+		}
+
+		if (meta.getKeyFields().length > 0) {
+			data.keyChanges = new KeyChangeDetector(getInputRowMeta(), meta.getKeyFields());
+		}
+
+		if (data.summaryChain != null) {
+			prepareSummary();
+		}
+	}
+
+	/**
+	 * Finds the row set of the summary rows and keeps the other rows out of
+	 * it
+	 * 
+	 * @throws KettleException
+	 */
+	private void prepareSummary() throws KettleException {
+		String summaryStepName = meta.getSummaryStepName();
+		data.summaryRowSet = findOutputRowSet(summaryStepName);
+		if (data.summaryRowSet == null) {
+			throw new KettleException(BaseMessages.getString(PKG, "AddFilterSequence.Exception.SummaryStepNotFound",
+					summaryStepName));
+		}
+		data.mainRowSets = new ArrayList<RowSet>(getOutputRowSets());
+		data.mainRowSets.remove(data.summaryRowSet);
+
+		data.summaryRowMeta = meta.getSummaryRowMeta(getInputRowMeta(), getStepname());
+		String[] summaryFields = meta.getSummaryFields();
+		data.summaryFieldIndexes = new int[summaryFields.length];
+		for (int i = 0; i < summaryFields.length; i++) {
+			data.summaryFieldIndexes[i] = getInputRowMeta().indexOfValue(summaryFields[i]);
+		}
+		data.summaryValues = new long[data.summaryChain.length];
+		data.summaryFirst = new Object[summaryFields.length];
+		data.summaryLast = new Object[summaryFields.length];
+	}
+
+	/**
+	 * Adds a numbered row to the summary of its sequence value. When the value
+	 * changed, the summary of the last one is passed on first.
+	 * 
+	 * @param row
+	 * @throws KettleStepException
+	 */
+	private void summarize(Object[] row) throws KettleStepException {
+		if (data.summaryRowSet == null) {
+			return;
+		}
+		boolean same = data.summaryOpen;
+		for (int k = 0; k < data.summaryChain.length && same; k++) {
+			same = data.summaryValues[k] == data.rowValues[data.summaryChain[k]];
+		}
+		if (!same) {
+			if (data.summaryOpen) {
+				putSummary();
+			}
+			for (int k = 0; k < data.summaryChain.length; k++) {
+				data.summaryValues[k] = data.rowValues[data.summaryChain[k]];
+			}
+			for (int i = 0; i < data.summaryFieldIndexes.length; i++) {
+				data.summaryFirst[i] = row[data.summaryFieldIndexes[i]];
+			}
+			data.summaryFirstLine = data.line;
+			data.summaryCount = 0;
+			data.summaryOpen = true;
+		}
+		for (int i = 0; i < data.summaryFieldIndexes.length; i++) {
+			data.summaryLast[i] = row[data.summaryFieldIndexes[i]];
+		}
+		data.summaryLastLine = data.line;
+		data.summaryCount++;
+	}
+
+	/**
+	 * Passes on the summary of the current sequence value
+	 * 
+	 * @throws KettleStepException
+	 */
+	private void putSummary() throws KettleStepException {
+		Object[] summary = RowDataUtil.allocateRowData(data.summaryRowMeta.size());
+		int index = 0;
+		for (int k = data.summaryChain.length - 1; k >= 0; k--) {
+			summary[index++] = Long.valueOf(data.summaryValues[k]);
+		}
+		summary[index++] = Long.valueOf(data.summaryFirstLine);
+		summary[index++] = Long.valueOf(data.summaryLastLine);
+		summary[index++] = Long.valueOf(data.summaryCount);
+		System.arraycopy(data.summaryFirst, 0, summary, index, data.summaryFirst.length);
+		index += data.summaryFirst.length;
+		System.arraycopy(data.summaryLast, 0, summary, index, data.summaryLast.length);
+		putRowTo(data.summaryRowMeta, summary, data.summaryRowSet);
+		data.summaryOpen = false;
+	}
+
+	/**
+	 * Reads the next rows. The first one is read with getRow(), which waits for
+	 * input and detects the end of it. When there is a single plain input row
+	 * set, the rows already waiting in it are drained without going through
+	 * getRow() for each of them.
+	 * 
+	 * @param buffer
+	 *            receives the rows
+	 * @param offset
+	 *            the first position to fill
+	 * @param max
+	 *            the maximum number of rows to read
+	 * @return the number of rows read, 0 at the end of the input
+	 * @throws KettleException
+	 */
+	private int readRows(Object[][] buffer, int offset, int max) throws KettleException {
+		Object[] r = getRow(); // Get next usable row from input rowset(s)!
+		if (r == null) { // no more input to be expected...
+			return 0;
+		}
+		buffer[offset] = r;
+		int count = 1;
+
+		if (max > 1 && getInputRowSets().size() == 1 && getRowListeners().isEmpty()
+				&& !getTrans().isSafeModeEnabled()) {
+			RowSet rowSet = getInputRowSets().get(0);
+			while (count < max) {
+				r = rowSet.getRowImmediate();
+				if (r == null) {
+					break;
+				}
+				buffer[offset + count++] = r;
+			}
+			if (count > 1) {
+				setLinesRead(getLinesRead() + count - 1);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * A batch takes no more rows than the fullest output row set can still
+	 * hold, so writing it does not wait on the next step while the rows read
+	 * later could have gone through already.
+	 * 
+	 * @return the number of rows to read for the next batch, at least 1
+	 */
+	private int batchSize() {
+		int max = data.batchRows.length;
+		int sizeRowset = getTransMeta().getSizeRowset();
+		List<RowSet> rowSets = getOutputRowSets();
+		for (int i = 0; i < rowSets.size(); i++) {
+			max = Math.min(max, sizeRowset - rowSets.get(i).size());
+		}
+		return Math.max(1, max);
+	}
+
+	/**
+	 * Passes the rows on. With a single output row set they are put there
+	 * directly instead of through putRow() for each of them.
+	 * 
+	 * @param rows
+	 * @param count
+	 * @throws KettleException
+	 */
+	private void writeRows(Object[][] rows, int count) throws KettleException {
+		if (data.mainRowSets != null) {
+			writeMainRows(rows, count);
+		} else if (count > 1 && getOutputRowSets().size() == 1 && getRowListeners().isEmpty()
+				&& !getTrans().isSafeModeEnabled()) {
+			RowSet rowSet = getOutputRowSets().get(0);
+			int written = 0;
+			for (int i = 0; i < count; i++) {
+				// Wait until there is room in the target row set
+				boolean put = rowSet.putRow(data.outputRowMeta, rows[i]);
+				while (!put && !isStopped()) {
+					put = rowSet.putRow(data.outputRowMeta, rows[i]);
+				}
+				if (!put) {
+					break;
+				}
+				rows[i] = null;
+				written++;
+			}
+			setLinesWritten(getLinesWritten() + written);
+		} else {
+			for (int i = 0; i < count; i++) {
+				putRow(data.outputRowMeta, rows[i]);
+				rows[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Passes the rows on to the row sets other than the one of the summary
+	 * rows, the way putRow() would to all of them
+	 * 
+	 * @param rows
+	 * @param count
+	 * @throws KettleException
+	 */
+	private void writeMainRows(Object[][] rows, int count) throws KettleException {
+		int nrRowSets = data.mainRowSets.size();
+		for (int i = 0; i < count; i++) {
+			if (nrRowSets == 0) {
+				// only the summary rows are wanted
+			} else if (nrRowSets == 1 || getStepMeta().isDistributes()) {
+				putRowTo(data.outputRowMeta, rows[i], data.mainRowSets.get(data.nextMainRowSet));
+				data.nextMainRowSet = (data.nextMainRowSet + 1) % nrRowSets;
+			} else {
+				for (int r = 0; r < nrRowSets; r++) {
+					Object[] row = r == 0 ? rows[i] : data.outputRowMeta.cloneRow(rows[i]);
+					putRowTo(data.outputRowMeta, row, data.mainRowSets.get(r));
+				}
+			}
+			rows[i] = null;
+		}
+	}
+
+	/**
+	 * Logs progress when a multiple of the feedback size was passed
+	 * 
+	 * @param before
+	 *            the number of lines read before the last batch
+	 */
+	private void logProgress(long before) {
+		long lines = getLinesRead();
+		int feedbackSize = getTransMeta().getFeedbackSize();
+		if (getTransMeta().isFeedbackShown() && feedbackSize > 0 && lines / feedbackSize > before / feedbackSize) {
+			logBasic("Linenr " + lines); // Some basic logging
+		}
+	}
+
+	/**
+	 * Reads and evaluates a block of rows, then numbers it together with the
+	 * other step copies
+	 * 
+	 * @return true to indicate that the function should be called again, false
+	 *         if the step is done
+	 * @throws KettleException
+	 */
+	private boolean processBlock() throws KettleException {
+		long linesBefore = getLinesRead();
+		int count = 0;
+		try {
+			while (count < data.blockRows.length) {
+				long readStart = System.nanoTime();
+				int read = readRows(data.blockRows, count, data.blockRows.length - count);
+				data.metrics.addInputWait(System.nanoTime() - readStart);
+				if (read == 0) {
+					break;
+				}
+				if (first) {
+					first = false;
+					prepareOutput();
+				}
+				for (int i = count; i < count + read; i++) {
+					// failed rows stay in the block, the other copies count on it
+					data.blockFailed[i] = !evaluateRow(getInputRowMeta(), data.blockRows[i], data.blockMatches,
+							data.blockResets, i * data.nrSequences);
+				}
+				count += read;
+			}
+			data.metrics.addRowsEvaluated(count);
+		} catch (KettleException e) {
+			logError(BaseMessages.getString(PKG, "AddSequenceCriteria.Log.ErrorInStep") + e.getMessage());
+			setErrors(1);
+			stopAll();
+			setOutputDone(); // signal end to receiver(s)
+			return false;
+		}
+
+		boolean numbered;
+		long publishStart = System.nanoTime();
+		try {
+			numbered = data.coordinator.publish(getCopy(), data.blockMatches, data.blockResets, data.blockFailed,
+					count, data.blockValues, this);
+		} catch (InterruptedException e) {
+			numbered = false;
+		}
+		long writeStart = System.nanoTime();
+		data.metrics.addCoordinationWait(writeStart - publishStart);
+		if (!numbered) { // stopped while waiting for the other copies
+			publishMetrics(null, 0, writeStart, true);
+			setOutputDone();
+			return false;
+		}
+
+		// failed rows get no values from the coordinator
+		int written = 0;
+		int last = -1;
+		for (int i = 0; i < count; i++) {
+			if (!data.blockFailed[i]) {
+				data.blockRows[written++] = setSequenceValues(data.blockRows[i], data.blockValues,
+						i * data.nrSequences);
+				last = i;
+			}
+		}
+		for (int i = written; i < count; i++) {
+			data.blockRows[i] = null;
+		}
+		writeRows(data.blockRows, written);
+		long writeEnd = System.nanoTime();
+		data.metrics.addOutputWait(writeEnd - writeStart);
+		boolean lastBlock = count < data.blockRows.length;
+		if (last >= 0) {
+			publishMetrics(data.blockValues, last * data.nrSequences, writeEnd, lastBlock);
+		} else {
+			publishMetrics(null, 0, writeEnd, lastBlock);
+		}
+
+		// log progress if it is time to to so
+		logProgress(linesBefore);
+
+		// a short block is the last one
+		if (count < data.blockRows.length) {
+			setOutputDone();
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * @param smi
 	 *            the step meta interface containing the step settings
@@ -237,44 +1098,93 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 		meta = (AddFilterSequenceMeta) smi;
 		data = (AddFilterSequenceData) sdi;
 
-		boolean doIncrement;
+		if (data.coordinator != null) {
+			return processBlock();
+		}
 
-		Object[] r = getRow(); // Get next usable row from input rowset(s)!
-		if (r == null) { // no more input to be expected...
+		long linesBefore = getLinesRead();
+		long readStart = System.nanoTime();
+		int count = readRows(data.batchRows, 0, batchSize());
+		long readEnd = System.nanoTime();
+		data.metrics.addInputWait(readEnd - readStart);
+		if (count == 0) { // no more input to be expected...
+			if (data.summaryOpen) {
+				putSummary();
+			}
+			publishMetrics(null, 0, readEnd, true);
+			checkpoint(readEnd, true);
 			setOutputDone();
 			return false;
 		}
-
+		if (data.skipRows > 0) {
+			count = skipCheckpointedRows(count);
+			if (count == 0) {
+				return true;
+			}
+		}
+		int i = 0;
 		if (first) {
 			first = false;
 
-			data.outputRowMeta = (RowMetaInterface) getInputRowMeta().clone();
-			meta.getFields(data.outputRowMeta, getStepname(), null, null, this, null, null);//repository, metaStore
+			prepareOutput();
 
-			// if filter refers to non-existing fields, throw exception
-			checkNonExistingFields();
+			if (data.resumed) {
+				// carry on after the last row before the checkpoint
+				if (data.keyChanges != null) {
+					data.keyChanges.setPrevious(
+							SequenceCheckpoint.readKeys(data.keyChanges.getKeyRowMeta(), data.resumedKeys));
+				}
+			} else {
+				// First row will never increment
+				if (data.keyChanges != null) {
+					data.keyChanges.changed(data.batchRows[0]);
+				}
+				data.batchRows[0] = addSequence(getInputRowMeta(), data.batchRows[0], data.noMatches, data.noMatches,
+						false);
+				data.lag.add(data.batchRows[0]);
+				data.line++;
+				summarize(data.batchRows[0]);
+				i++;
+			}
+		}
+		// the first row takes the start values without being evaluated
+		data.metrics.addRowsEvaluated(count - i);
 
-			// First row will never increment
-			Object[] outputRow = addSequence(getInputRowMeta(), r, false);
-			putRow(data.outputRowMeta, outputRow);
-		} else {
-			try {
-				doIncrement = evaluateRow(getInputRowMeta(), r);
-				Object[] outputRow = addSequence(getInputRowMeta(), r, doIncrement);
-				putRow(data.outputRowMeta, outputRow);
-			} catch (KettleException e) {
-				logError(BaseMessages.getString(PKG, "AddSequenceCriteria.Log.ErrorInStep") + e.getMessage());
-				setErrors(1);
-				stopAll();
-				setOutputDone(); // signal end to receiver(s)
-				return false;
+		// rows that went to the error hop leave a gap, the others move up
+		int written = i;
+		try {
+			for (; i < count; i++) {
+				Object[] row = data.batchRows[i];
+				data.line++;
+				if (!evaluateRow(getInputRowMeta(), row, data.matches, data.resets, 0)) {
+					continue;
+				}
+				data.lag.add(row);
+				boolean keyChanged = data.keyChanges != null && data.keyChanges.changed(row);
+				row = addSequence(getInputRowMeta(), row, data.matches, data.resets, keyChanged);
+				summarize(row);
+				data.batchRows[written++] = row;
 			}
+		} catch (KettleException e) {
+			logError(BaseMessages.getString(PKG, "AddSequenceCriteria.Log.ErrorInStep") + e.getMessage());
+			setErrors(1);
+			stopAll();
+			setOutputDone(); // signal end to receiver(s)
+			return false;
+		}
+		for (i = written; i < count; i++) {
+			data.batchRows[i] = null;
 		}
+		long writeStart = System.nanoTime();
+		writeRows(data.batchRows, written);
+		long writeEnd = System.nanoTime();
+		data.metrics.addOutputWait(writeEnd - writeStart);
+		publishMetrics(data.rowValues, 0, writeEnd, false);
+		data.rowsConsumed += count;
+		checkpoint(writeEnd, false);
 
 		// log progress if it is time to to so
-		if (checkFeedback(getLinesRead())) {
-			logBasic("Linenr " + getLinesRead()); // Some basic logging
-		}
+		logProgress(linesBefore);
 
 		return true;
 	}
@@ -286,10 +1196,39 @@ public class AddFilterSequence extends BaseStep implements StepInterface {
 		meta = (AddFilterSequenceMeta) smi;
 		data = (AddFilterSequenceData) sdi;
 
-		if (data.getLookup() != null) {
-			getTrans().getCounters().remove(data.getLookup());
+		if (data.counters != null) {
+			for (int i = 0; i < data.counters.length; i++) {
+				if (data.counters[i] != null) {
+					SequenceCounterRegistry.release(getTrans(), data.lookups[i]);
+				}
+			}
+		}
+		data.counters = null;
+		data.hierarchy = null;
+		if (data.coordinator != null) {
+			SequenceCounterRegistry.release(getTrans(), getCoordinatorLookup());
+		}
+		data.coordinator = null;
+		data.blockRows = null;
+		data.batchRows = null;
+		data.boxedValues = null;
+		data.conditions = null;
+		data.expressions = null;
+		data.lag = null;
+		data.predicates = null;
+		data.resetConditions = null;
+		data.resetPredicates = null;
+		data.keyChanges = null;
+		if (data.metricsName != null) {
+			try {
+				AddFilterSequenceMetrics.unregister(data.metricsName);
+			} catch (JMException e) {
+				logDetailed(BaseMessages.getString(PKG, "AddFilterSequence.Log.MetricsNotUnregistered", e.getMessage()));
+			}
 		}
-		data.counter = null;
+		data.metricsName = null;
+		data.metrics = null;
+		data.events = null;
 
 		super.dispose(smi, sdi);
 	}
@@ -22,7 +22,13 @@
 
 package plugin.step;
 
-import org.pentaho.di.core.Counter;
+import java.io.File;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -33,29 +39,76 @@ import org.pentaho.di.trans.step.StepDataInterface;
  *
  */
 public class AddFilterSequenceData extends BaseStepData implements StepDataInterface {
-	private String lookup;
 	public RowMetaInterface outputRowMeta;
-	public Counter counter;
-	
-	public long start;
-	public long increment;
+	public int valueIndex;
+	public int outputSize;
 
-	public AddFilterSequenceData() {
-		super();
-	}
+	public int nrSequences;
+	public String[] lookups;
+	public long[] start;
+	public long[] increment;
+	public int[] parents;
+	public SequenceCounter[] counters;
+	public SequenceHierarchy hierarchy;
+	public long[] rowValues;
+	public Condition[] conditions;
+	public String[] expressions;
+	public int previousRows;
+	public LagBuffer lag;
+	public RowPredicate[] predicates;
+	public Condition[] resetConditions;
+	public RowPredicate[] resetPredicates;
+	public boolean[] matches;
+	public boolean[] resets;
+	public boolean[] noMatches;
+	public KeyChangeDetector keyChanges;
+	public Long[] boxedValues;
 
-	/**
-	 * @return Returns the lookup string usually "@@"+the name of the sequence.
-	 */
-	public String getLookup() {
-		return lookup;
-	}
+	public Object[][] batchRows;
+
+	public CopyCoordinator coordinator;
+	public Object[][] blockRows;
+	public boolean[] blockMatches;
+	public boolean[] blockResets;
+	public boolean[] blockFailed;
+	public long[] blockValues;
 
-	/**
-	 * @param lookup
-	 *            the lookup string usually "@@"+the name of the sequence.
-	 */
-	public void setLookup(String lookup) {
-		this.lookup = lookup;
+	public AddFilterSequenceMetrics metrics;
+	public ObjectName metricsName;
+	public FlightRecorderEvents events;
+	public boolean timeRows;
+	public long slowRowNanos;
+
+	public long line;
+	public int[] summaryChain;
+	public RowSet summaryRowSet;
+	public List<RowSet> mainRowSets;
+	public int nextMainRowSet;
+	public RowMetaInterface summaryRowMeta;
+	public int[] summaryFieldIndexes;
+	public boolean summaryOpen;
+	public long[] summaryValues;
+	public long summaryFirstLine;
+	public long summaryLastLine;
+	public long summaryCount;
+	public Object[] summaryFirst;
+	public Object[] summaryLast;
+
+	public boolean errorHandling;
+	public ErrorLogSummary errors;
+
+	public String[] sequenceNames;
+	public File checkpointFile;
+	public long checkpointRows;
+	public long checkpointNanos;
+	public long rowsConsumed;
+	public long lastCheckpointRows;
+	public long lastCheckpointTime;
+	public long skipRows;
+	public byte[] resumedKeys;
+	public boolean resumed;
+
+	public AddFilterSequenceData() {
+		super();
 	}
 }
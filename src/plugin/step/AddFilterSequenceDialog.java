@@ -25,6 +25,9 @@
 
 package plugin.step;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
@@ -36,11 +39,13 @@ import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
 import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
 import org.pentaho.di.core.Condition;
@@ -52,7 +57,9 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
 import org.pentaho.di.ui.core.widget.ConditionEditor;
+import org.pentaho.di.ui.core.widget.TableView;
 import org.pentaho.di.ui.core.widget.TextVar;
 import org.pentaho.di.ui.core.dialog.ErrorDialog;
 import org.pentaho.di.ui.trans.step.BaseStepDialog;
@@ -78,6 +85,12 @@ import plugin.step.AddFilterSequenceMeta;
 public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialogInterface {
 	private static Class<?> PKG = AddFilterSequenceMeta.class; // for i18n purposes, needed by Translator2!!
 
+	// Sequences of the step
+	private Label wlSequences;
+	private org.eclipse.swt.widgets.List wSequences;
+	private Button wAddSequence;
+	private Button wRemoveSequence;
+
 	// Name of new field
 	private Label wlFieldName;
 	private Text wFieldName;
@@ -92,12 +105,72 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 	private Label wlIncrBy;
 	private TextVar wIncrBy;
 
+	private Label wlParent;
+	private Combo wParent;
+
+	private Label wlDeterministic;
+	private Button wDeterministic;
+
+	private Label wlExpression;
+	private Text wExpression;
+	private Button wCheckExpression;
+
+	private Label wlPreviousRows;
+	private TextVar wPreviousRows;
+
+	// Group for checkpoints
+	private Group gCheckpoint;
+
+	private Label wlCheckpointFile;
+	private TextVar wCheckpointFile;
+
+	private Label wlCheckpointRows;
+	private TextVar wCheckpointRows;
+
+	private Label wlCheckpointSeconds;
+	private TextVar wCheckpointSeconds;
+
+	// Group for the sequence store
+	private Group gStore;
+
+	private Label wlSequenceStore;
+	private TextVar wSequenceStore;
+
+	private Label wlSequenceServer;
+	private TextVar wSequenceServer;
+
+	private Label wlStoreBlockSize;
+	private TextVar wStoreBlockSize;
+
+	// Summary rows
+	private Group gSummary;
+
+	private Label wlSummaryStep;
+	private Combo wSummaryStep;
+
+	private Label wlSummarySequence;
+	private Combo wSummarySequence;
+
+	private Label wlKeys;
+	private TableView wKeys;
+
+	private Label wlSummaryFields;
+	private TableView wSummaryFields;
+
 	private Label wlCondition;
 	private ConditionEditor wCondition;
 	private FormData fdlCondition, fdCondition;
 
-	private Condition condition;
-	private Condition backupCondition;
+	private Label wlResetCondition;
+	private ConditionEditor wResetCondition;
+	private FormData fdResetCondition;
+
+	private RowMetaInterface inputfields;
+	private ModifyListener lsMod;
+
+	// Working copies of the sequences, only handed to the meta on OK
+	private List<SequenceDefinition> sequences;
+	private int current = -1;
 
 	private AddFilterSequenceMeta input;
 
@@ -112,7 +185,10 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		super(parent, (BaseStepMeta) in, transMeta, sname);
 		input = (AddFilterSequenceMeta) in;
 
-		condition = (Condition) input.getCondition().clone();
+		sequences = new ArrayList<SequenceDefinition>();
+		for (SequenceDefinition sequence : input.getSequences()) {
+			sequences.add((SequenceDefinition) sequence.clone());
+		}
 	}
 
 	/**
@@ -126,14 +202,13 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		props.setLook(shell);
 		setShellImage(shell, input);
 
-		ModifyListener lsMod = new ModifyListener() {
+		lsMod = new ModifyListener() {
 			public void modifyText(ModifyEvent e) {
 				input.setChanged();
 			}
 		};
 
 		changed = input.hasChanged();
-		backupCondition = (Condition) condition.clone();
 
 		FormLayout formLayout = new FormLayout();
 		formLayout.marginWidth = Const.FORM_MARGIN;
@@ -164,13 +239,60 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		fdStepname.right = new FormAttachment(100, 0);
 		wStepname.setLayoutData(fdStepname);
 
+		// Sequences line
+		wlSequences = new Label(shell, SWT.RIGHT);
+		wlSequences.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Sequences.Label"));
+		props.setLook(wlSequences);
+		FormData fdlSequences = new FormData();
+		fdlSequences.left = new FormAttachment(0, 0);
+		fdlSequences.top = new FormAttachment(wStepname, margin);
+		fdlSequences.right = new FormAttachment(middle, -margin);
+		wlSequences.setLayoutData(fdlSequences);
+		wAddSequence = new Button(shell, SWT.PUSH);
+		wAddSequence.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.AddSequence.Button"));
+		FormData fdAddSequence = new FormData();
+		fdAddSequence.top = new FormAttachment(wStepname, margin);
+		fdAddSequence.right = new FormAttachment(100, 0);
+		wAddSequence.setLayoutData(fdAddSequence);
+		wRemoveSequence = new Button(shell, SWT.PUSH);
+		wRemoveSequence.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.RemoveSequence.Button"));
+		FormData fdRemoveSequence = new FormData();
+		fdRemoveSequence.top = new FormAttachment(wAddSequence, margin);
+		fdRemoveSequence.left = new FormAttachment(wAddSequence, 0, SWT.LEFT);
+		fdRemoveSequence.right = new FormAttachment(100, 0);
+		wRemoveSequence.setLayoutData(fdRemoveSequence);
+		wSequences = new org.eclipse.swt.widgets.List(shell, SWT.SINGLE | SWT.V_SCROLL | SWT.BORDER);
+		props.setLook(wSequences);
+		FormData fdSequences = new FormData();
+		fdSequences.left = new FormAttachment(middle, 0);
+		fdSequences.top = new FormAttachment(wStepname, margin);
+		fdSequences.right = new FormAttachment(wAddSequence, -margin);
+		fdSequences.bottom = new FormAttachment(wRemoveSequence, 0, SWT.BOTTOM);
+		wSequences.setLayoutData(fdSequences);
+
+		wSequences.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				showSequence(wSequences.getSelectionIndex());
+			}
+		});
+		wAddSequence.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				addSequence();
+			}
+		});
+		wRemoveSequence.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				removeSequence();
+			}
+		});
+
 		// fieldname line
 		wlFieldName = new Label(shell, SWT.RIGHT);
 		wlFieldName.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.FieldName.Label"));
 		props.setLook(wlFieldName);
 		FormData fdlfieldname = new FormData();
 		fdlfieldname.left = new FormAttachment(0, 0);
-		fdlfieldname.top = new FormAttachment(wStepname, margin);
+		fdlfieldname.top = new FormAttachment(wSequences, margin);
 		fdlfieldname.right = new FormAttachment(middle, -margin);
 		wlFieldName.setLayoutData(fdlfieldname);
 		wFieldName = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
@@ -179,7 +301,7 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		wFieldName.addModifyListener(lsMod);
 		FormData fdfieldname = new FormData();
 		fdfieldname.left = new FormAttachment(middle, 0);
-		fdfieldname.top = new FormAttachment(wStepname, margin);
+		fdfieldname.top = new FormAttachment(wSequences, margin);
 		fdfieldname.right = new FormAttachment(100, 0);
 		wFieldName.setLayoutData(fdfieldname);
 
@@ -235,16 +357,97 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		fdIncrBy.right = new FormAttachment(100, 0);
 		wIncrBy.setLayoutData(fdIncrBy);
 
-		// Condition editor
-		wlCondition = new Label(shell, SWT.NONE);
-		wlCondition.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Condition.Label"));
-		props.setLook(wlCondition);
-		fdlCondition = new FormData();
-		fdlCondition.left = new FormAttachment(0, 0);
-		fdlCondition.top = new FormAttachment(gOption, margin);
-		wlCondition.setLayoutData(fdlCondition);
+		// Parent line
+		wlParent = new Label(gOption, SWT.RIGHT);
+		wlParent.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Parent.Label"));
+		props.setLook(wlParent);
+		FormData fdlParent = new FormData();
+		fdlParent.left = new FormAttachment(0, 0);
+		fdlParent.right = new FormAttachment(middle, -margin);
+		fdlParent.top = new FormAttachment(wIncrBy, margin);
+		wlParent.setLayoutData(fdlParent);
+		wParent = new Combo(gOption, SWT.SINGLE | SWT.READ_ONLY | SWT.BORDER);
+		wParent.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Parent.Tooltip"));
+		props.setLook(wParent);
+		wParent.addModifyListener(lsMod);
+		FormData fdParent = new FormData();
+		fdParent.left = new FormAttachment(middle, 0);
+		fdParent.top = new FormAttachment(wIncrBy, margin);
+		fdParent.right = new FormAttachment(100, 0);
+		wParent.setLayoutData(fdParent);
+
+		// Deterministic line
+		wlDeterministic = new Label(gOption, SWT.RIGHT);
+		wlDeterministic.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Deterministic.Label"));
+		props.setLook(wlDeterministic);
+		FormData fdlDeterministic = new FormData();
+		fdlDeterministic.left = new FormAttachment(0, 0);
+		fdlDeterministic.right = new FormAttachment(middle, -margin);
+		fdlDeterministic.top = new FormAttachment(wParent, margin);
+		wlDeterministic.setLayoutData(fdlDeterministic);
+		wDeterministic = new Button(gOption, SWT.CHECK);
+		wDeterministic.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Deterministic.Tooltip"));
+		props.setLook(wDeterministic);
+		FormData fdDeterministic = new FormData();
+		fdDeterministic.left = new FormAttachment(middle, 0);
+		fdDeterministic.top = new FormAttachment(wParent, margin);
+		fdDeterministic.right = new FormAttachment(100, 0);
+		wDeterministic.setLayoutData(fdDeterministic);
+		wDeterministic.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				input.setChanged();
+			}
+		});
+
+		// Expression line
+		wlExpression = new Label(gOption, SWT.RIGHT);
+		wlExpression.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Expression.Label"));
+		props.setLook(wlExpression);
+		FormData fdlExpression = new FormData();
+		fdlExpression.left = new FormAttachment(0, 0);
+		fdlExpression.right = new FormAttachment(middle, -margin);
+		fdlExpression.top = new FormAttachment(wDeterministic, margin);
+		wlExpression.setLayoutData(fdlExpression);
+		wCheckExpression = new Button(gOption, SWT.PUSH);
+		wCheckExpression.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckExpression.Button"));
+		FormData fdCheckExpression = new FormData();
+		fdCheckExpression.top = new FormAttachment(wDeterministic, margin);
+		fdCheckExpression.right = new FormAttachment(100, 0);
+		wCheckExpression.setLayoutData(fdCheckExpression);
+		wExpression = new Text(gOption, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wExpression.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Expression.Tooltip"));
+		props.setLook(wExpression);
+		wExpression.addModifyListener(lsMod);
+		FormData fdExpression = new FormData();
+		fdExpression.left = new FormAttachment(middle, 0);
+		fdExpression.top = new FormAttachment(wDeterministic, margin);
+		fdExpression.right = new FormAttachment(wCheckExpression, -margin);
+		wExpression.setLayoutData(fdExpression);
+		wCheckExpression.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				checkExpression();
+			}
+		});
+
+		// PreviousRows line
+		wlPreviousRows = new Label(gOption, SWT.RIGHT);
+		wlPreviousRows.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.PreviousRows.Label"));
+		props.setLook(wlPreviousRows);
+		FormData fdlPreviousRows = new FormData();
+		fdlPreviousRows.left = new FormAttachment(0, 0);
+		fdlPreviousRows.right = new FormAttachment(middle, -margin);
+		fdlPreviousRows.top = new FormAttachment(wExpression, margin);
+		wlPreviousRows.setLayoutData(fdlPreviousRows);
+		wPreviousRows = new TextVar(transMeta, gOption, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wPreviousRows.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.PreviousRows.Tooltip"));
+		props.setLook(wPreviousRows);
+		wPreviousRows.addModifyListener(lsMod);
+		FormData fdPreviousRows = new FormData();
+		fdPreviousRows.left = new FormAttachment(middle, 0);
+		fdPreviousRows.top = new FormAttachment(wExpression, margin);
+		fdPreviousRows.right = new FormAttachment(100, 0);
+		wPreviousRows.setLayoutData(fdPreviousRows);
 
-		RowMetaInterface inputfields = null;
 		try {
 			inputfields = transMeta.getPrevStepFields(stepname);
 		} catch (KettleException ke) {
@@ -253,6 +456,258 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 					BaseMessages.getString(PKG, "AddFilterSequenceDialog.FailedToGetFields.DialogMessage"), ke);
 		}
 
+		// Group for checkpoints, shared by all sequences
+		gCheckpoint = new Group(shell, SWT.NONE);
+		gCheckpoint.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckpointGroup.Label"));
+		FormLayout checkpointLayout = new FormLayout();
+		checkpointLayout.marginHeight = margin;
+		checkpointLayout.marginWidth = margin;
+		gCheckpoint.setLayout(checkpointLayout);
+		props.setLook(gCheckpoint);
+		FormData fdCheckpoint = new FormData();
+		fdCheckpoint.left = new FormAttachment(0, 0);
+		fdCheckpoint.right = new FormAttachment(100, 0);
+		fdCheckpoint.top = new FormAttachment(gOption, margin);
+		gCheckpoint.setLayoutData(fdCheckpoint);
+
+		// CheckpointFile line
+		wlCheckpointFile = new Label(gCheckpoint, SWT.RIGHT);
+		wlCheckpointFile.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckpointFile.Label"));
+		props.setLook(wlCheckpointFile);
+		FormData fdlCheckpointFile = new FormData();
+		fdlCheckpointFile.left = new FormAttachment(0, 0);
+		fdlCheckpointFile.right = new FormAttachment(middle, -margin);
+		fdlCheckpointFile.top = new FormAttachment(0, margin);
+		wlCheckpointFile.setLayoutData(fdlCheckpointFile);
+		wCheckpointFile = new TextVar(transMeta, gCheckpoint, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wCheckpointFile.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckpointFile.Tooltip"));
+		props.setLook(wCheckpointFile);
+		wCheckpointFile.addModifyListener(lsMod);
+		FormData fdCheckpointFile = new FormData();
+		fdCheckpointFile.left = new FormAttachment(middle, 0);
+		fdCheckpointFile.top = new FormAttachment(0, margin);
+		fdCheckpointFile.right = new FormAttachment(100, 0);
+		wCheckpointFile.setLayoutData(fdCheckpointFile);
+
+		// CheckpointRows line
+		wlCheckpointRows = new Label(gCheckpoint, SWT.RIGHT);
+		wlCheckpointRows.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckpointRows.Label"));
+		props.setLook(wlCheckpointRows);
+		FormData fdlCheckpointRows = new FormData();
+		fdlCheckpointRows.left = new FormAttachment(0, 0);
+		fdlCheckpointRows.right = new FormAttachment(middle, -margin);
+		fdlCheckpointRows.top = new FormAttachment(wCheckpointFile, margin);
+		wlCheckpointRows.setLayoutData(fdlCheckpointRows);
+		wCheckpointRows = new TextVar(transMeta, gCheckpoint, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		props.setLook(wCheckpointRows);
+		wCheckpointRows.addModifyListener(lsMod);
+		FormData fdCheckpointRows = new FormData();
+		fdCheckpointRows.left = new FormAttachment(middle, 0);
+		fdCheckpointRows.top = new FormAttachment(wCheckpointFile, margin);
+		fdCheckpointRows.right = new FormAttachment(100, 0);
+		wCheckpointRows.setLayoutData(fdCheckpointRows);
+
+		// CheckpointSeconds line
+		wlCheckpointSeconds = new Label(gCheckpoint, SWT.RIGHT);
+		wlCheckpointSeconds.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckpointSeconds.Label"));
+		props.setLook(wlCheckpointSeconds);
+		FormData fdlCheckpointSeconds = new FormData();
+		fdlCheckpointSeconds.left = new FormAttachment(0, 0);
+		fdlCheckpointSeconds.right = new FormAttachment(middle, -margin);
+		fdlCheckpointSeconds.top = new FormAttachment(wCheckpointRows, margin);
+		wlCheckpointSeconds.setLayoutData(fdlCheckpointSeconds);
+		wCheckpointSeconds = new TextVar(transMeta, gCheckpoint, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		props.setLook(wCheckpointSeconds);
+		wCheckpointSeconds.addModifyListener(lsMod);
+		FormData fdCheckpointSeconds = new FormData();
+		fdCheckpointSeconds.left = new FormAttachment(middle, 0);
+		fdCheckpointSeconds.top = new FormAttachment(wCheckpointRows, margin);
+		fdCheckpointSeconds.right = new FormAttachment(100, 0);
+		wCheckpointSeconds.setLayoutData(fdCheckpointSeconds);
+
+		// Group for the sequence store
+		gStore = new Group(shell, SWT.NONE);
+		gStore.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.StoreGroup.Label"));
+		FormLayout storeLayout = new FormLayout();
+		storeLayout.marginHeight = margin;
+		storeLayout.marginWidth = margin;
+		gStore.setLayout(storeLayout);
+		props.setLook(gStore);
+		FormData fdStore = new FormData();
+		fdStore.left = new FormAttachment(0, 0);
+		fdStore.right = new FormAttachment(100, 0);
+		fdStore.top = new FormAttachment(gCheckpoint, margin);
+		gStore.setLayoutData(fdStore);
+
+		// SequenceStore line
+		wlSequenceStore = new Label(gStore, SWT.RIGHT);
+		wlSequenceStore.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SequenceStore.Label"));
+		props.setLook(wlSequenceStore);
+		FormData fdlSequenceStore = new FormData();
+		fdlSequenceStore.left = new FormAttachment(0, 0);
+		fdlSequenceStore.right = new FormAttachment(middle, -margin);
+		fdlSequenceStore.top = new FormAttachment(0, margin);
+		wlSequenceStore.setLayoutData(fdlSequenceStore);
+		wSequenceStore = new TextVar(transMeta, gStore, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wSequenceStore.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SequenceStore.Tooltip"));
+		props.setLook(wSequenceStore);
+		wSequenceStore.addModifyListener(lsMod);
+		FormData fdSequenceStore = new FormData();
+		fdSequenceStore.left = new FormAttachment(middle, 0);
+		fdSequenceStore.top = new FormAttachment(0, margin);
+		fdSequenceStore.right = new FormAttachment(100, 0);
+		wSequenceStore.setLayoutData(fdSequenceStore);
+
+		// SequenceServer line
+		wlSequenceServer = new Label(gStore, SWT.RIGHT);
+		wlSequenceServer.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SequenceServer.Label"));
+		props.setLook(wlSequenceServer);
+		FormData fdlSequenceServer = new FormData();
+		fdlSequenceServer.left = new FormAttachment(0, 0);
+		fdlSequenceServer.right = new FormAttachment(middle, -margin);
+		fdlSequenceServer.top = new FormAttachment(wSequenceStore, margin);
+		wlSequenceServer.setLayoutData(fdlSequenceServer);
+		wSequenceServer = new TextVar(transMeta, gStore, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wSequenceServer.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SequenceServer.Tooltip"));
+		props.setLook(wSequenceServer);
+		wSequenceServer.addModifyListener(lsMod);
+		FormData fdSequenceServer = new FormData();
+		fdSequenceServer.left = new FormAttachment(middle, 0);
+		fdSequenceServer.top = new FormAttachment(wSequenceStore, margin);
+		fdSequenceServer.right = new FormAttachment(100, 0);
+		wSequenceServer.setLayoutData(fdSequenceServer);
+
+		// StoreBlockSize line
+		wlStoreBlockSize = new Label(gStore, SWT.RIGHT);
+		wlStoreBlockSize.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.StoreBlockSize.Label"));
+		props.setLook(wlStoreBlockSize);
+		FormData fdlStoreBlockSize = new FormData();
+		fdlStoreBlockSize.left = new FormAttachment(0, 0);
+		fdlStoreBlockSize.right = new FormAttachment(middle, -margin);
+		fdlStoreBlockSize.top = new FormAttachment(wSequenceServer, margin);
+		wlStoreBlockSize.setLayoutData(fdlStoreBlockSize);
+		wStoreBlockSize = new TextVar(transMeta, gStore, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wStoreBlockSize.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.StoreBlockSize.Tooltip"));
+		props.setLook(wStoreBlockSize);
+		wStoreBlockSize.addModifyListener(lsMod);
+		FormData fdStoreBlockSize = new FormData();
+		fdStoreBlockSize.left = new FormAttachment(middle, 0);
+		fdStoreBlockSize.top = new FormAttachment(wSequenceServer, margin);
+		fdStoreBlockSize.right = new FormAttachment(100, 0);
+		wStoreBlockSize.setLayoutData(fdStoreBlockSize);
+
+		// Group for the summary rows
+		gSummary = new Group(shell, SWT.NONE);
+		gSummary.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummaryGroup.Label"));
+		FormLayout summaryLayout = new FormLayout();
+		summaryLayout.marginHeight = margin;
+		summaryLayout.marginWidth = margin;
+		gSummary.setLayout(summaryLayout);
+		props.setLook(gSummary);
+		FormData fdSummary = new FormData();
+		fdSummary.left = new FormAttachment(0, 0);
+		fdSummary.right = new FormAttachment(100, 0);
+		fdSummary.top = new FormAttachment(gStore, margin);
+		gSummary.setLayoutData(fdSummary);
+
+		// SummaryStep line
+		wlSummaryStep = new Label(gSummary, SWT.RIGHT);
+		wlSummaryStep.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummaryStep.Label"));
+		props.setLook(wlSummaryStep);
+		FormData fdlSummaryStep = new FormData();
+		fdlSummaryStep.left = new FormAttachment(0, 0);
+		fdlSummaryStep.right = new FormAttachment(middle, -margin);
+		fdlSummaryStep.top = new FormAttachment(0, margin);
+		wlSummaryStep.setLayoutData(fdlSummaryStep);
+		wSummaryStep = new Combo(gSummary, SWT.SINGLE | SWT.BORDER);
+		wSummaryStep.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummaryStep.Tooltip"));
+		props.setLook(wSummaryStep);
+		wSummaryStep.addModifyListener(lsMod);
+		FormData fdSummaryStep = new FormData();
+		fdSummaryStep.left = new FormAttachment(middle, 0);
+		fdSummaryStep.top = new FormAttachment(0, margin);
+		fdSummaryStep.right = new FormAttachment(100, 0);
+		wSummaryStep.setLayoutData(fdSummaryStep);
+
+		// SummarySequence line
+		wlSummarySequence = new Label(gSummary, SWT.RIGHT);
+		wlSummarySequence.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummarySequence.Label"));
+		props.setLook(wlSummarySequence);
+		FormData fdlSummarySequence = new FormData();
+		fdlSummarySequence.left = new FormAttachment(0, 0);
+		fdlSummarySequence.right = new FormAttachment(middle, -margin);
+		fdlSummarySequence.top = new FormAttachment(wSummaryStep, margin);
+		wlSummarySequence.setLayoutData(fdlSummarySequence);
+		wSummarySequence = new Combo(gSummary, SWT.SINGLE | SWT.BORDER);
+		wSummarySequence.setToolTipText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummarySequence.Tooltip"));
+		props.setLook(wSummarySequence);
+		wSummarySequence.addModifyListener(lsMod);
+		FormData fdSummarySequence = new FormData();
+		fdSummarySequence.left = new FormAttachment(middle, 0);
+		fdSummarySequence.top = new FormAttachment(wSummaryStep, margin);
+		fdSummarySequence.right = new FormAttachment(100, 0);
+		wSummarySequence.setLayoutData(fdSummarySequence);
+
+		// Key fields
+		wlKeys = new Label(shell, SWT.NONE);
+		wlKeys.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.KeyFields.Label"));
+		props.setLook(wlKeys);
+		FormData fdlKeys = new FormData();
+		fdlKeys.left = new FormAttachment(0, 0);
+		fdlKeys.top = new FormAttachment(gSummary, margin);
+		wlKeys.setLayoutData(fdlKeys);
+
+		ColumnInfo[] keyColumns = new ColumnInfo[] { new ColumnInfo(
+				BaseMessages.getString(PKG, "AddFilterSequenceDialog.ColumnInfo.KeyField"),
+				ColumnInfo.COLUMN_TYPE_CCOMBO, inputfields.getFieldNames(), false) };
+		wKeys = new TableView(transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI | SWT.V_SCROLL
+				| SWT.H_SCROLL, keyColumns, input.getKeyFields().length, lsMod, props);
+		FormData fdKeys = new FormData();
+		fdKeys.left = new FormAttachment(0, 0);
+		fdKeys.top = new FormAttachment(wlKeys, margin);
+		fdKeys.right = new FormAttachment(50, -margin);
+		fdKeys.height = 80;
+		wKeys.setLayoutData(fdKeys);
+
+		// Summary fields, next to the key fields
+		wlSummaryFields = new Label(shell, SWT.NONE);
+		wlSummaryFields.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.SummaryFields.Label"));
+		props.setLook(wlSummaryFields);
+		FormData fdlSummaryFields = new FormData();
+		fdlSummaryFields.left = new FormAttachment(50, margin);
+		fdlSummaryFields.top = new FormAttachment(gSummary, margin);
+		wlSummaryFields.setLayoutData(fdlSummaryFields);
+
+		ColumnInfo[] summaryColumns = new ColumnInfo[] { new ColumnInfo(
+				BaseMessages.getString(PKG, "AddFilterSequenceDialog.ColumnInfo.SummaryField"),
+				ColumnInfo.COLUMN_TYPE_CCOMBO, inputfields.getFieldNames(), false) };
+		wSummaryFields = new TableView(transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI | SWT.V_SCROLL
+				| SWT.H_SCROLL, summaryColumns, input.getSummaryFields().length, lsMod, props);
+		FormData fdSummaryFields = new FormData();
+		fdSummaryFields.left = new FormAttachment(50, margin);
+		fdSummaryFields.top = new FormAttachment(wlSummaryFields, margin);
+		fdSummaryFields.right = new FormAttachment(100, 0);
+		fdSummaryFields.height = 80;
+		wSummaryFields.setLayoutData(fdSummaryFields);
+
+		// Condition editor
+		wlCondition = new Label(shell, SWT.NONE);
+		wlCondition.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Condition.Label"));
+		props.setLook(wlCondition);
+		fdlCondition = new FormData();
+		fdlCondition.left = new FormAttachment(0, 0);
+		fdlCondition.top = new FormAttachment(wKeys, margin);
+		wlCondition.setLayoutData(fdlCondition);
+
+		// Reset condition editor, next to the condition editor
+		wlResetCondition = new Label(shell, SWT.NONE);
+		wlResetCondition.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.ResetCondition.Label"));
+		props.setLook(wlResetCondition);
+		FormData fdlResetCondition = new FormData();
+		fdlResetCondition.left = new FormAttachment(50, margin);
+		fdlResetCondition.top = new FormAttachment(wKeys, margin);
+		wlResetCondition.setLayoutData(fdlResetCondition);
+
 		// Some buttons
 		wOK = new Button(shell, SWT.PUSH);
 		wOK.setText(BaseMessages.getString(PKG, "System.Button.OK"));
@@ -261,15 +716,17 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 
 		setButtonPositions(new Button[] { wOK, wCancel }, margin, null);
 
-		wCondition = new ConditionEditor(shell, SWT.BORDER, condition, inputfields);
-
 		fdCondition = new FormData();
 		fdCondition.left = new FormAttachment(0, 0);
 		fdCondition.top = new FormAttachment(wlCondition, margin);
-		fdCondition.right = new FormAttachment(100, 0);
+		fdCondition.right = new FormAttachment(50, -margin);
 		fdCondition.bottom = new FormAttachment(wOK, -2 * margin);
-		wCondition.setLayoutData(fdCondition);
-		wCondition.addModifyListener(lsMod);
+
+		fdResetCondition = new FormData();
+		fdResetCondition.left = new FormAttachment(50, margin);
+		fdResetCondition.top = new FormAttachment(wlResetCondition, margin);
+		fdResetCondition.right = new FormAttachment(100, 0);
+		fdResetCondition.bottom = new FormAttachment(wOK, -2 * margin);
 
 		// Add listeners
 		lsOK = new Listener() {
@@ -332,12 +789,41 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 	public void getData() {
 		logDebug(BaseMessages.getString(PKG, "AddFilterSequenceDialog.Log.GettingKeyInfo"));
 
-		if (input.getFieldName() != null) {
-			wFieldName.setText(input.getFieldName());
+		for (SequenceDefinition sequence : sequences) {
+			wSequences.add(Const.NVL(sequence.getFieldName(), ""));
+		}
+		showSequence(0);
+		wDeterministic.setSelection(input.isDeterministic());
+		wPreviousRows.setText(Const.NVL(input.getPreviousRows(), ""));
+		wCheckpointFile.setText(Const.NVL(input.getCheckpointFile(), ""));
+		wCheckpointRows.setText(Const.NVL(input.getCheckpointRows(), ""));
+		wCheckpointSeconds.setText(Const.NVL(input.getCheckpointSeconds(), ""));
+		wSequenceStore.setText(Const.NVL(input.getSequenceStore(), ""));
+		wSequenceServer.setText(Const.NVL(input.getSequenceServer(), ""));
+		wStoreBlockSize.setText(Const.NVL(input.getStoreBlockSize(), ""));
+
+		String[] keyFields = input.getKeyFields();
+		for (int i = 0; i < keyFields.length; i++) {
+			wKeys.table.getItem(i).setText(1, Const.NVL(keyFields[i], ""));
 		}
+		wKeys.setRowNums();
+		wKeys.optWidth(true);
 
-		wStartAt.setText(Const.NVL(input.getStartAt(), "1"));
-		wIncrBy.setText(Const.NVL(input.getIncrementBy(), "1"));
+		String[] nextSteps = transMeta.getNextStepNames(stepMeta);
+		if (nextSteps != null) {
+			wSummaryStep.setItems(nextSteps);
+		}
+		wSummaryStep.setText(Const.NVL(input.getSummaryStepName(), ""));
+		for (SequenceDefinition sequence : sequences) {
+			wSummarySequence.add(Const.NVL(sequence.getFieldName(), ""));
+		}
+		wSummarySequence.setText(Const.NVL(input.getSummarySequence(), ""));
+		String[] summaryFields = input.getSummaryFields();
+		for (int i = 0; i < summaryFields.length; i++) {
+			wSummaryFields.table.getItem(i).setText(1, Const.NVL(summaryFields[i], ""));
+		}
+		wSummaryFields.setRowNums();
+		wSummaryFields.optWidth(true);
 
 		enableFields();
 
@@ -345,11 +831,140 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 		wStepname.setFocus();
 	}
 
+	/**
+	 * Shows the given sequence in the field name, counter and condition widgets,
+	 * storing the one shown before
+	 * 
+	 * @param index
+	 */
+	private void showSequence(int index) {
+		if (index < 0 || index == current) {
+			return;
+		}
+		storeSequence();
+		current = index;
+
+		SequenceDefinition sequence = sequences.get(index);
+		wFieldName.setText(Const.NVL(sequence.getFieldName(), ""));
+		wStartAt.setText(Const.NVL(sequence.getStartAt(), "1"));
+		wIncrBy.setText(Const.NVL(sequence.getIncrementBy(), "1"));
+		wExpression.setText(Const.NVL(sequence.getExpression(), ""));
+		wSequences.select(index);
+
+		// Any other sequence can be the parent
+		List<String> parents = new ArrayList<String>();
+		parents.add("");
+		for (int i = 0; i < sequences.size(); i++) {
+			if (i != index) {
+				parents.add(Const.NVL(sequences.get(i).getFieldName(), ""));
+			}
+		}
+		wParent.setItems(parents.toArray(new String[parents.size()]));
+		wParent.select(Math.max(0, parents.indexOf(Const.NVL(sequence.getParentName(), ""))));
+
+		// The editors work on the condition they are given, so new ones are needed per sequence
+		if (wCondition != null && !wCondition.isDisposed()) {
+			wCondition.dispose();
+		}
+		wCondition = new ConditionEditor(shell, SWT.BORDER, sequence.getCondition(), inputfields);
+		wCondition.setLayoutData(fdCondition);
+		wCondition.addModifyListener(lsMod);
+
+		if (sequence.getResetCondition() == null) {
+			sequence.setResetCondition(new Condition());
+		}
+		if (wResetCondition != null && !wResetCondition.isDisposed()) {
+			wResetCondition.dispose();
+		}
+		wResetCondition = new ConditionEditor(shell, SWT.BORDER, sequence.getResetCondition(), inputfields);
+		wResetCondition.setLayoutData(fdResetCondition);
+		wResetCondition.addModifyListener(lsMod);
+		shell.layout(true);
+
+		wRemoveSequence.setEnabled(sequences.size() > 1);
+	}
+
+	/**
+	 * Copies the field name and counter widgets back to the sequence shown
+	 */
+	private void storeSequence() {
+		if (current < 0) {
+			return;
+		}
+		SequenceDefinition sequence = sequences.get(current);
+		if (!Const.isEmpty(wFieldName.getText())) {
+			// Children follow their parent when it is renamed
+			String oldName = sequence.getFieldName();
+			for (SequenceDefinition other : sequences) {
+				if (other != sequence && oldName != null && oldName.equals(other.getParentName())) {
+					other.setParentName(wFieldName.getText());
+				}
+			}
+			sequence.setFieldName(wFieldName.getText());
+			wSequences.setItem(current, wFieldName.getText());
+		}
+		sequence.setParentName(Const.isEmpty(wParent.getText()) ? null : wParent.getText());
+		if (!Const.isEmpty(wStartAt.getText())) {
+			sequence.setStartAt(wStartAt.getText());
+		}
+		if (!Const.isEmpty(wIncrBy.getText())) {
+			sequence.setIncrementBy(wIncrBy.getText());
+		}
+		sequence.setExpression(wExpression.getText());
+	}
+
+	/**
+	 * Compiles the expression shown against the input fields and tells how
+	 * that went
+	 */
+	private void checkExpression() {
+		if (Const.isEmpty(wExpression.getText().trim())) {
+			return;
+		}
+		try {
+			String expression = wExpression.getText();
+			ExpressionCompiler.compile(expression, inputfields, new LagBuffer(new String[] { expression },
+					inputfields, Const.toInt(transMeta.environmentSubstitute(wPreviousRows.getText()), 1)));
+			MessageBox mb = new MessageBox(shell, SWT.OK | SWT.ICON_INFORMATION);
+			mb.setText(BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckExpression.Title"));
+			mb.setMessage(BaseMessages.getString(PKG, "AddFilterSequenceDialog.ExpressionCompiled.Message"));
+			mb.open();
+		} catch (KettleException ke) {
+			new ErrorDialog(shell, BaseMessages.getString(PKG, "AddFilterSequenceDialog.CheckExpression.Title"),
+					BaseMessages.getString(PKG, "AddFilterSequenceDialog.ExpressionNotCompiled.Message"), ke);
+		}
+	}
+
+	private void addSequence() {
+		SequenceDefinition sequence = new SequenceDefinition();
+		sequence.setFieldName(sequence.getFieldName() + (sequences.size() + 1));
+		sequences.add(sequence);
+		wSequences.add(sequence.getFieldName());
+		input.setChanged();
+		showSequence(sequences.size() - 1);
+	}
+
+	private void removeSequence() {
+		if (current < 0 || sequences.size() < 2) {
+			return;
+		}
+		int index = current;
+		SequenceDefinition removed = sequences.remove(index);
+		for (SequenceDefinition other : sequences) {
+			if (removed.getFieldName() != null && removed.getFieldName().equals(other.getParentName())) {
+				other.setParentName(null);
+			}
+		}
+		wSequences.remove(index);
+		// Nothing left to store for the removed sequence
+		current = -1;
+		input.setChanged();
+		showSequence(Math.min(index, sequences.size() - 1));
+	}
+
 	private void cancel() {
 		stepname = null;
 		input.setChanged(changed);
-		// Also change the condition back to what it was...
-		input.setCondition(backupCondition);
 		dispose();
 	}
 
@@ -360,20 +975,38 @@ public class AddFilterSequenceDialog extends BaseStepDialog implements StepDialo
 
 		if (wCondition.getLevel() > 0) {
 			wCondition.goUp();
+		} else if (wResetCondition.getLevel() > 0) {
+			wResetCondition.goUp();
 		} else {
 			stepname = wStepname.getText();
 
-			if (!Const.isEmpty(wFieldName.getText())) {
-				input.setFieldName(wFieldName.getText());
-			}
-			if (!Const.isEmpty(wStartAt.getText())) {
-				input.setStartAt(wStartAt.getText());
+			storeSequence();
+			input.setSequences(sequences);
+			input.setDeterministic(wDeterministic.getSelection());
+			input.setPreviousRows(wPreviousRows.getText());
+			input.setCheckpointFile(wCheckpointFile.getText());
+			input.setCheckpointRows(wCheckpointRows.getText());
+			input.setCheckpointSeconds(wCheckpointSeconds.getText());
+			input.setSequenceStore(wSequenceStore.getText());
+			input.setSequenceServer(wSequenceServer.getText());
+			input.setStoreBlockSize(wStoreBlockSize.getText());
+
+			int nrkeys = wKeys.nrNonEmpty();
+			String[] keyFields = new String[nrkeys];
+			for (int i = 0; i < nrkeys; i++) {
+				keyFields[i] = wKeys.getNonEmpty(i).getText(1);
 			}
-			if (!Const.isEmpty(wIncrBy.getText())) {
-				input.setIncrementBy(wIncrBy.getText());
+			input.setKeyFields(keyFields);
+
+			input.setSummaryStepName(Const.isEmpty(wSummaryStep.getText()) ? null : wSummaryStep.getText());
+			input.getStepIOMeta().getTargetStreams().get(0).setStepMeta(transMeta.findStep(wSummaryStep.getText()));
+			input.setSummarySequence(wSummarySequence.getText());
+			int nrSummaryFields = wSummaryFields.nrNonEmpty();
+			String[] summaryFields = new String[nrSummaryFields];
+			for (int i = 0; i < nrSummaryFields; i++) {
+				summaryFields[i] = wSummaryFields.getNonEmpty(i).getText(1);
 			}
-
-			input.setCondition(condition);
+			input.setSummaryFields(summaryFields);
 
 			dispose();
 		}
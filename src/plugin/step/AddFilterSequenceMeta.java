@@ -38,6 +38,7 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaAndData;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -52,9 +53,15 @@ import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepIOMeta;
+import org.pentaho.di.trans.step.StepIOMetaInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.step.errorhandling.Stream;
+import org.pentaho.di.trans.step.errorhandling.StreamIcon;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface.StreamType;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
@@ -77,52 +84,129 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	private static Class<?> PKG = AddFilterSequenceMeta.class; // for i18n purposes
 
 	/**
-	 * Name of the new field
+	 * Fields of the summary rows besides the sequences and the summary fields
 	 */
-	private String fieldName;
+	public static final String SUMMARY_FIRST_LINE = "first_line";
+	public static final String SUMMARY_LAST_LINE = "last_line";
+	public static final String SUMMARY_ROW_COUNT = "row_count";
+	public static final String SUMMARY_FIRST_SUFFIX = "_first";
+	public static final String SUMMARY_LAST_SUFFIX = "_last";
 
 	/**
-	 * Starting number for the sequence
+	 * Smallest block of values reserved in a sequence store or server, so the
+	 * next block can be reserved while the current one is used
 	 */
-	private String startAt;
+	public static final long MIN_STORE_BLOCK_SIZE = 10L;
 
 	/**
-	 * The number to increment by
+	 * The sequences added by the step
 	 */
-	private String incrementBy;
+	private List<SequenceDefinition> sequences;
 
 	/**
-	 * This is the main condition for the complete filter.
+	 * Number rows as a single copy would when the step runs in several copies
 	 */
-	private Condition condition;
+	private boolean deterministic;
 
 	/**
-	 * Returns the fieldName
+	 * Rows kept for prev(field, k) in the increment expressions
+	 */
+	private String previousRows;
+
+	/**
+	 * Fields that start all sequences over when their value changes
+	 */
+	private String[] keyFields;
+
+	/**
+	 * Sequence whose values are summarized, empty for the first one
+	 */
+	private String summarySequence;
+
+	/**
+	 * Fields whose first and last value are in the summary rows
+	 */
+	private String[] summaryFields;
+
+	/**
+	 * Main output and the summary rows as a target stream
+	 */
+	private StepIOMetaInterface summaryIOMeta;
+
+	/**
+	 * File the state of the step is saved to, empty for no checkpoints
+	 */
+	private String checkpointFile;
+
+	/**
+	 * Rows between two checkpoints
+	 */
+	private String checkpointRows;
+
+	/**
+	 * Seconds between two checkpoints
+	 */
+	private String checkpointSeconds;
+
+	/**
+	 * File keeping the top level sequences going from one run to the next,
+	 * empty to start them over on every run
+	 */
+	private String sequenceStore;
+
+	/**
+	 * host:port of the sequence server shared by the steps on several
+	 * servers, empty for none
+	 */
+	private String sequenceServer;
+
+	/**
+	 * Values reserved in the sequence store or server at once
+	 */
+	private String storeBlockSize;
+
+	/**
+	 * @return Returns the sequences added by the step.
+	 */
+	public List<SequenceDefinition> getSequences() {
+		return sequences;
+	}
+
+	/**
+	 * @param sequences
+	 *            The sequences to set.
+	 */
+	public void setSequences(List<SequenceDefinition> sequences) {
+		this.sequences = sequences;
+	}
+
+	/**
+	 * Returns the fieldName of the first sequence
 	 * 
 	 * @return
 	 */
 	public String getFieldName() {
-		return fieldName;
+		return sequences.get(0).getFieldName();
 	}
 
 	/**
 	 * @param fieldName
-	 *            The fieldName to set.
+	 *            The fieldName of the first sequence to set.
 	 */
 	public void setFieldName(String fieldName) {
-		this.fieldName = fieldName;
+		sequences.get(0).setFieldName(fieldName);
 	}
 
 	/**
-	 * @return Returns the start of the sequence.
+	 * @return Returns the start of the first sequence.
 	 */
 	public String getStartAt() {
-		return startAt;
+		return sequences.get(0).getStartAt();
 	}
 
 	/**
 	 * @param startAt
-	 *            The starting point of the sequence to set.
+	 *            The starting point of the first sequence to set.
 	 */
 	public void setStartAt(long startAt) {
 		setStartAt(Long.toString(startAt));
@@ -130,40 +214,396 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 
 	/**
 	 * @param startAt
-	 *            The starting point of the sequence to set.
+	 *            The starting point of the first sequence to set.
 	 */
 	public void setStartAt(String startAt) {
-		this.startAt = startAt;
+		sequences.get(0).setStartAt(startAt);
 	}
 
 	/**
-	 * @return Returns the incrementBy.
+	 * @return Returns the incrementBy of the first sequence.
 	 */
 	public String getIncrementBy() {
-		return incrementBy;
+		return sequences.get(0).getIncrementBy();
 	}
 
 	/**
 	 * @param incrementBy
-	 *            The incrementBy to set.
+	 *            The incrementBy of the first sequence to set.
 	 */
 	public void setIncrementBy(String incrementBy) {
-		this.incrementBy = incrementBy;
+		sequences.get(0).setIncrementBy(incrementBy);
 	}
 
 	/**
-	 * @return Returns the condition.
+	 * @return Returns the condition of the first sequence.
 	 */
 	public Condition getCondition() {
-		return condition;
+		return sequences.get(0).getCondition();
 	}
 
 	/**
 	 * @param condition
-	 *            The condition to set.
+	 *            The condition of the first sequence to set.
 	 */
 	public void setCondition(Condition condition) {
-		this.condition = condition;
+		sequences.get(0).setCondition(condition);
+	}
+
+	/**
+	 * @return true if multiple step copies number the rows as a single copy
+	 *         would
+	 */
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	/**
+	 * @param deterministic
+	 *            true to number the rows of multiple step copies as a single
+	 *            copy would
+	 */
+	public void setDeterministic(boolean deterministic) {
+		this.deterministic = deterministic;
+	}
+
+	/**
+	 * @return Returns the number of rows kept for prev(field, k).
+	 */
+	public String getPreviousRows() {
+		return previousRows;
+	}
+
+	/**
+	 * @param previousRows
+	 *            The number of rows kept for prev(field, k) to set.
+	 */
+	public void setPreviousRows(String previousRows) {
+		this.previousRows = previousRows;
+	}
+
+	/**
+	 * @return true when an increment expression refers to previous rows
+	 */
+	public boolean usesPreviousRows() {
+		for (SequenceDefinition sequence : sequences) {
+			if (sequence.hasExpression() && LagBuffer.isUsedBy(sequence.getExpression())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Returns the fields resetting the sequences when they change.
+	 */
+	public String[] getKeyFields() {
+		return keyFields;
+	}
+
+	/**
+	 * @param keyFields
+	 *            The fields resetting the sequences when they change to set.
+	 */
+	public void setKeyFields(String[] keyFields) {
+		this.keyFields = keyFields;
+	}
+
+	/**
+	 * @return Returns the sequence whose values are summarized, empty for the
+	 *         first one.
+	 */
+	public String getSummarySequence() {
+		return summarySequence;
+	}
+
+	/**
+	 * @param summarySequence
+	 *            The sequence whose values are summarized to set.
+	 */
+	public void setSummarySequence(String summarySequence) {
+		this.summarySequence = summarySequence;
+	}
+
+	/**
+	 * @return Returns the fields whose first and last value are in the
+	 *         summary rows.
+	 */
+	public String[] getSummaryFields() {
+		return summaryFields;
+	}
+
+	/**
+	 * @param summaryFields
+	 *            The fields whose first and last value are in the summary rows
+	 *            to set.
+	 */
+	public void setSummaryFields(String[] summaryFields) {
+		this.summaryFields = summaryFields;
+	}
+
+	/**
+	 * @return Returns the name of the step receiving the summary rows, null
+	 *         when there is none.
+	 */
+	public String getSummaryStepName() {
+		StreamInterface stream = getSummaryStream();
+		if (stream.getStepMeta() != null) {
+			return stream.getStepMeta().getName();
+		}
+		String name = (String) stream.getSubject();
+		return Const.isEmpty(name) ? null : name;
+	}
+
+	/**
+	 * @param summaryStepName
+	 *            The name of the step receiving the summary rows to set, null
+	 *            for none.
+	 */
+	public void setSummaryStepName(String summaryStepName) {
+		StreamInterface stream = getSummaryStream();
+		stream.setSubject(summaryStepName);
+		stream.setStepMeta(null);
+	}
+
+	private StreamInterface getSummaryStream() {
+		return getStepIOMeta().getTargetStreams().get(0);
+	}
+
+	/**
+	 * The summary rows go to a target stream, the other rows to the main
+	 * output
+	 */
+	public StepIOMetaInterface getStepIOMeta() {
+		if (summaryIOMeta == null) {
+			summaryIOMeta = new StepIOMeta(true, true, false, false, false, false);
+			summaryIOMeta.addStream(new Stream(StreamType.TARGET, null, BaseMessages.getString(PKG,
+					"AddFilterSequenceMeta.TargetStream.Summary.Description"), StreamIcon.TARGET, null));
+		}
+		return summaryIOMeta;
+	}
+
+	public void searchInfoAndTargetSteps(List<StepMeta> steps) {
+		StreamInterface stream = getSummaryStream();
+		if (stream.getSubject() != null) {
+			stream.setStepMeta(StepMeta.findStep(steps, (String) stream.getSubject()));
+		}
+	}
+
+	public void handleStreamSelection(StreamInterface stream) {
+		// a new hop picked as the summary output
+		if (stream.getStreamType() == StreamType.TARGET && stream.getStepMeta() != null) {
+			setSummaryStepName(stream.getStepMeta().getName());
+			getSummaryStream().setStepMeta(stream.getStepMeta());
+		}
+	}
+
+	public void resetStepIoMeta() {
+		// the target stream keeps the summary step
+	}
+
+	/**
+	 * @return the indexes of the summarized sequence and its ancestors, the
+	 *         summarized one first
+	 * @throws KettleStepException
+	 *             when the sequence does not exist or the parents are wrong
+	 */
+	public int[] getSummaryChain() throws KettleStepException {
+		int index = 0;
+		if (!Const.isEmpty(summarySequence)) {
+			index = -1;
+			for (int i = 0; i < sequences.size(); i++) {
+				if (summarySequence.equalsIgnoreCase(sequences.get(i).getFieldName())) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				throw new KettleStepException(BaseMessages.getString(PKG,
+						"AddFilterSequenceMeta.Exception.UnknownSummarySequence", summarySequence));
+			}
+		}
+
+		int[] parents = getParentIndexes();
+		int length = 0;
+		for (int i = index; i >= 0; i = parents[i]) {
+			length++;
+		}
+		int[] chain = new int[length];
+		length = 0;
+		for (int i = index; i >= 0; i = parents[i]) {
+			chain[length++] = i;
+		}
+		return chain;
+	}
+
+	/**
+	 * Layout of the summary rows: the summarized sequence and its ancestors
+	 * from the top level down, the first and last line and the number of rows
+	 * with the value, then the first and the last value of each summary field
+	 * 
+	 * @param inputRowMeta
+	 * @param origin
+	 * @return the layout
+	 * @throws KettleStepException
+	 */
+	public RowMetaInterface getSummaryRowMeta(RowMetaInterface inputRowMeta, String origin)
+			throws KettleStepException {
+		RowMetaInterface summaryRowMeta = new RowMeta();
+		int[] chain = getSummaryChain();
+		for (int i = chain.length - 1; i >= 0; i--) {
+			summaryRowMeta.addValueMeta(createIntegerMeta(sequences.get(chain[i]).getFieldName(), origin));
+		}
+		summaryRowMeta.addValueMeta(createIntegerMeta(SUMMARY_FIRST_LINE, origin));
+		summaryRowMeta.addValueMeta(createIntegerMeta(SUMMARY_LAST_LINE, origin));
+		summaryRowMeta.addValueMeta(createIntegerMeta(SUMMARY_ROW_COUNT, origin));
+		for (String suffix : new String[] { SUMMARY_FIRST_SUFFIX, SUMMARY_LAST_SUFFIX }) {
+			for (String field : summaryFields) {
+				ValueMetaInterface input = inputRowMeta.searchValueMeta(field);
+				if (input == null) {
+					throw new KettleStepException(BaseMessages.getString(PKG,
+							"AddFilterSequenceMeta.Exception.UnknownSummaryField", field));
+				}
+				ValueMetaInterface v = input.clone();
+				v.setName(field + suffix);
+				v.setOrigin(origin);
+				summaryRowMeta.addValueMeta(v);
+			}
+		}
+		return summaryRowMeta;
+	}
+
+	private ValueMetaInterface createIntegerMeta(String name, String origin) throws KettleStepException {
+		try {
+			ValueMetaInterface v = ValueMetaFactory.createValueMeta(name, ValueMetaInterface.TYPE_INTEGER);
+			v.setOrigin(origin);
+			return v;
+		} catch (KettlePluginException e) {
+			throw new KettleStepException(e);
+		}
+	}
+
+	/**
+	 * @return Returns the checkpoint file, empty when there are no
+	 *         checkpoints.
+	 */
+	public String getCheckpointFile() {
+		return checkpointFile;
+	}
+
+	/**
+	 * @param checkpointFile
+	 *            The checkpoint file to set.
+	 */
+	public void setCheckpointFile(String checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * @return Returns the number of rows between two checkpoints.
+	 */
+	public String getCheckpointRows() {
+		return checkpointRows;
+	}
+
+	/**
+	 * @param checkpointRows
+	 *            The number of rows between two checkpoints to set.
+	 */
+	public void setCheckpointRows(String checkpointRows) {
+		this.checkpointRows = checkpointRows;
+	}
+
+	/**
+	 * @return Returns the number of seconds between two checkpoints.
+	 */
+	public String getCheckpointSeconds() {
+		return checkpointSeconds;
+	}
+
+	/**
+	 * @param checkpointSeconds
+	 *            The number of seconds between two checkpoints to set.
+	 */
+	public void setCheckpointSeconds(String checkpointSeconds) {
+		this.checkpointSeconds = checkpointSeconds;
+	}
+
+	/**
+	 * @return Returns the sequence store file, empty when the sequences start
+	 *         over on every run.
+	 */
+	public String getSequenceStore() {
+		return sequenceStore;
+	}
+
+	/**
+	 * @param sequenceStore
+	 *            The sequence store file to set.
+	 */
+	public void setSequenceStore(String sequenceStore) {
+		this.sequenceStore = sequenceStore;
+	}
+
+	/**
+	 * @return Returns host:port of the sequence server, empty when there is
+	 *         none.
+	 */
+	public String getSequenceServer() {
+		return sequenceServer;
+	}
+
+	/**
+	 * @param sequenceServer
+	 *            The host:port of the sequence server to set.
+	 */
+	public void setSequenceServer(String sequenceServer) {
+		this.sequenceServer = sequenceServer;
+	}
+
+	/**
+	 * @return Returns the number of values reserved in the sequence store or
+	 *         server at once.
+	 */
+	public String getStoreBlockSize() {
+		return storeBlockSize;
+	}
+
+	/**
+	 * @param storeBlockSize
+	 *            The number of values reserved in the sequence store at once to
+	 *            set.
+	 */
+	public void setStoreBlockSize(String storeBlockSize) {
+		this.storeBlockSize = storeBlockSize;
+	}
+
+	/**
+	 * @return true when the top level sequences come from a sequence store or
+	 *         server
+	 */
+	public boolean hasSequenceAllocator() {
+		return !Const.isEmpty(sequenceStore) || !Const.isEmpty(sequenceServer);
+	}
+
+	/**
+	 * Top level sequences taken from the sequence store or server can't start
+	 * over, they would hand out values again
+	 * 
+	 * @return true when key fields or a reset condition start a top level
+	 *         sequence over
+	 */
+	public boolean isStoredSequenceRestarted() {
+		if (keyFields.length > 0) {
+			return true;
+		}
+		for (SequenceDefinition sequence : sequences) {
+			Condition resetCondition = sequence.getResetCondition();
+			if (Const.isEmpty(sequence.getParentName()) && resetCondition != null && !resetCondition.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -223,16 +663,34 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 		return new AddFilterSequenceData();
 	}
 
+	/**
+	 * Rows the conditions can't be evaluated on go to the error hop when
+	 * there is one
+	 */
+	public boolean supportsErrorHandling() {
+		return true;
+	}
+
 	/**
 	 * This method is called every time a new step is created and should
 	 * allocate/set the step configuration to sensible defaults. The values set
 	 * here will be used by Spoon when a new step is created.
 	 */
 	public void setDefault() {
-		fieldName = "fieldName";
-		condition = new Condition();
-		startAt = "1";
-		incrementBy = "1";
+		sequences = new ArrayList<SequenceDefinition>();
+		sequences.add(new SequenceDefinition());
+		deterministic = false;
+		previousRows = "1";
+		keyFields = new String[0];
+		summarySequence = "";
+		summaryFields = new String[0];
+		setSummaryStepName(null);
+		checkpointFile = "";
+		checkpointRows = "100000";
+		checkpointSeconds = "60";
+		sequenceStore = "";
+		sequenceServer = "";
+		storeBlockSize = "1000";
 	}
 
 	/**
@@ -241,11 +699,16 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	public Object clone() {
 		AddFilterSequenceMeta retval = (AddFilterSequenceMeta) super.clone();
 
-		if (condition != null) {
-			retval.condition = (Condition) condition.clone();
-		} else {
-			retval.condition = null;
+		retval.sequences = new ArrayList<SequenceDefinition>(sequences.size());
+		for (SequenceDefinition sequence : sequences) {
+			retval.sequences.add((SequenceDefinition) sequence.clone());
 		}
+		retval.keyFields = keyFields.clone();
+		retval.summaryFields = summaryFields.clone();
+		// the copy gets its own target stream
+		String summaryStepName = getSummaryStepName();
+		retval.summaryIOMeta = null;
+		retval.setSummaryStepName(summaryStepName);
 
 		return retval;
 	}
@@ -264,62 +727,130 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	 */
 	private void readData(Node stepnode) throws KettleXMLException {
 		try {
-			fieldName = XMLHandler.getTagValue(stepnode, "fieldName");
-			startAt = XMLHandler.getTagValue(stepnode, "start_at");
-			incrementBy = XMLHandler.getTagValue(stepnode, "increment_by");
-
-			Node compare = XMLHandler.getSubNode(stepnode, "compare");
-			Node condnode = XMLHandler.getSubNode(compare, "condition");
+			deterministic = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "deterministic"));
+			previousRows = Const.NVL(XMLHandler.getTagValue(stepnode, "previous_rows"), "1");
 
-			// The new situation...
-			if (condnode != null) {
-				condition = new Condition(condnode);
+			sequences = new ArrayList<SequenceDefinition>();
+			Node sequencesnode = XMLHandler.getSubNode(stepnode, "sequences");
+			if (sequencesnode != null) {
+				int nrsequences = XMLHandler.countNodes(sequencesnode, "sequence");
+				for (int i = 0; i < nrsequences; i++) {
+					sequences.add(readSequence(XMLHandler.getSubNodeByNr(sequencesnode, "sequence", i)));
+				}
 			} else {
-				// Old style condition: Line1 OR Line2 OR Line3: @deprecated!
-				condition = new Condition();
+				// Single sequence from before multiple sequences were supported
+				sequences.add(readSequence(stepnode));
+			}
+
+			Node keysnode = XMLHandler.getSubNode(stepnode, "keys");
+			int nrkeys = XMLHandler.countNodes(keysnode, "key");
+			keyFields = new String[nrkeys];
+			for (int i = 0; i < nrkeys; i++) {
+				keyFields[i] = XMLHandler.getTagValue(XMLHandler.getSubNodeByNr(keysnode, "key", i), "name");
+			}
+
+			setSummaryStepName(XMLHandler.getTagValue(stepnode, "summary_step"));
+			summarySequence = Const.NVL(XMLHandler.getTagValue(stepnode, "summary_sequence"), "");
+			Node summarynode = XMLHandler.getSubNode(stepnode, "summary_fields");
+			int nrsummary = XMLHandler.countNodes(summarynode, "field");
+			summaryFields = new String[nrsummary];
+			for (int i = 0; i < nrsummary; i++) {
+				summaryFields[i] = XMLHandler.getTagValue(XMLHandler.getSubNodeByNr(summarynode, "field", i), "name");
+			}
+
+			checkpointFile = Const.NVL(XMLHandler.getTagValue(stepnode, "checkpoint_file"), "");
+			checkpointRows = Const.NVL(XMLHandler.getTagValue(stepnode, "checkpoint_rows"), "100000");
+			checkpointSeconds = Const.NVL(XMLHandler.getTagValue(stepnode, "checkpoint_seconds"), "60");
+			sequenceStore = Const.NVL(XMLHandler.getTagValue(stepnode, "sequence_store"), "");
+			sequenceServer = Const.NVL(XMLHandler.getTagValue(stepnode, "sequence_server"), "");
+			storeBlockSize = Const.NVL(XMLHandler.getTagValue(stepnode, "store_block_size"), "1000");
+		} catch (Exception e) {
+			throw new KettleXMLException(
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.Exception..UnableToLoadStepInfoFromXML"), e);
+		}
+	}
+
+	/**
+	 * Read one sequence
+	 * 
+	 * @param sequencenode
+	 * @return
+	 * @throws KettleXMLException
+	 */
+	private SequenceDefinition readSequence(Node sequencenode) throws KettleXMLException {
+		SequenceDefinition sequence = new SequenceDefinition();
+		sequence.setFieldName(XMLHandler.getTagValue(sequencenode, "fieldName"));
+		sequence.setStartAt(XMLHandler.getTagValue(sequencenode, "start_at"));
+		sequence.setIncrementBy(XMLHandler.getTagValue(sequencenode, "increment_by"));
+		sequence.setParentName(XMLHandler.getTagValue(sequencenode, "parent"));
+		sequence.setExpression(Const.NVL(XMLHandler.getTagValue(sequencenode, "expression"), ""));
+		sequence.setCondition(readCondition(XMLHandler.getSubNode(sequencenode, "compare")));
+
+		Node resetnode = XMLHandler.getSubNode(XMLHandler.getSubNode(sequencenode, "reset"), "condition");
+		if (resetnode != null) {
+			sequence.setResetCondition(new Condition(resetnode));
+		}
+		return sequence;
+	}
+
+	/**
+	 * Read a condition
+	 * 
+	 * @param compare
+	 *            the compare node holding the condition
+	 * @return
+	 * @throws KettleXMLException
+	 */
+	private Condition readCondition(Node compare) throws KettleXMLException {
+		Condition condition;
+		Node condnode = XMLHandler.getSubNode(compare, "condition");
+
+		// The new situation...
+		if (condnode != null) {
+			condition = new Condition(condnode);
+		} else {
+			// Old style condition: Line1 OR Line2 OR Line3: @deprecated!
+			condition = new Condition();
+
+			int nrkeys = XMLHandler.countNodes(compare, "key");
+			if (nrkeys == 1) {
+				Node knode = XMLHandler.getSubNodeByNr(compare, "key", 0);
+
+				String key = XMLHandler.getTagValue(knode, "name");
+				String value = XMLHandler.getTagValue(knode, "value");
+				String field = XMLHandler.getTagValue(knode, "field");
+				String comparator = XMLHandler.getTagValue(knode, "condition");
 
-				int nrkeys = XMLHandler.countNodes(compare, "key");
-				if (nrkeys == 1) {
-					Node knode = XMLHandler.getSubNodeByNr(compare, "key", 0);
+				condition.setOperator(Condition.OPERATOR_NONE);
+				condition.setLeftValuename(key);
+				condition.setFunction(Condition.getFunction(comparator));
+				condition.setRightValuename(field);
+				condition.setRightExact(new ValueMetaAndData("value", value));
+			} else {
+				for (int i = 0; i < nrkeys; i++) {
+					Node knode = XMLHandler.getSubNodeByNr(compare, "key", i);
 
 					String key = XMLHandler.getTagValue(knode, "name");
 					String value = XMLHandler.getTagValue(knode, "value");
 					String field = XMLHandler.getTagValue(knode, "field");
 					String comparator = XMLHandler.getTagValue(knode, "condition");
 
-					condition.setOperator(Condition.OPERATOR_NONE);
-					condition.setLeftValuename(key);
-					condition.setFunction(Condition.getFunction(comparator));
-					condition.setRightValuename(field);
-					condition.setRightExact(new ValueMetaAndData("value", value));
-				} else {
-					for (int i = 0; i < nrkeys; i++) {
-						Node knode = XMLHandler.getSubNodeByNr(compare, "key", i);
-
-						String key = XMLHandler.getTagValue(knode, "name");
-						String value = XMLHandler.getTagValue(knode, "value");
-						String field = XMLHandler.getTagValue(knode, "field");
-						String comparator = XMLHandler.getTagValue(knode, "condition");
-
-						Condition subc = new Condition();
-						if (i > 0) {
-							subc.setOperator(Condition.OPERATOR_OR);
-						} else {
-							subc.setOperator(Condition.OPERATOR_NONE);
-						}
-						subc.setLeftValuename(key);
-						subc.setFunction(Condition.getFunction(comparator));
-						subc.setRightValuename(field);
-						subc.setRightExact(new ValueMetaAndData("value", value));
-
-						condition.addCondition(subc);
+					Condition subc = new Condition();
+					if (i > 0) {
+						subc.setOperator(Condition.OPERATOR_OR);
+					} else {
+						subc.setOperator(Condition.OPERATOR_NONE);
 					}
+					subc.setLeftValuename(key);
+					subc.setFunction(Condition.getFunction(comparator));
+					subc.setRightValuename(field);
+					subc.setRightExact(new ValueMetaAndData("value", value));
+
+					condition.addCondition(subc);
 				}
 			}
-		} catch (Exception e) {
-			throw new KettleXMLException(
-					BaseMessages.getString(PKG, "AddFilterSequenceMeta.Exception..UnableToLoadStepInfoFromXML"), e);
 		}
+		return condition;
 	}
 
 	/**
@@ -328,16 +859,55 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	public String getXML() throws KettleException {
 		StringBuilder retval = new StringBuilder(200);
 
-		retval.append("      ").append(XMLHandler.addTagValue("fieldName", fieldName));
-		retval.append("      ").append(XMLHandler.addTagValue("start_at", startAt));
-		retval.append("      ").append(XMLHandler.addTagValue("increment_by", incrementBy));
-		retval.append("    <compare>").append(Const.CR);
+		retval.append("      ").append(XMLHandler.addTagValue("deterministic", deterministic));
+		retval.append("      ").append(XMLHandler.addTagValue("previous_rows", previousRows));
+		retval.append("    <sequences>").append(Const.CR);
+		for (SequenceDefinition sequence : sequences) {
+			retval.append("      <sequence>").append(Const.CR);
+			retval.append("        ").append(XMLHandler.addTagValue("fieldName", sequence.getFieldName()));
+			retval.append("        ").append(XMLHandler.addTagValue("start_at", sequence.getStartAt()));
+			retval.append("        ").append(XMLHandler.addTagValue("increment_by", sequence.getIncrementBy()));
+			retval.append("        ").append(XMLHandler.addTagValue("parent", sequence.getParentName()));
+			retval.append("        ").append(XMLHandler.addTagValue("expression", sequence.getExpression()));
+			retval.append("        <compare>").append(Const.CR);
 
-		if (condition != null) {
-			retval.append(condition.getXML());
-		}
+			if (sequence.getCondition() != null) {
+				retval.append(sequence.getCondition().getXML());
+			}
+
+			retval.append("        </compare>").append(Const.CR);
+			retval.append("        <reset>").append(Const.CR);
+
+			if (sequence.getResetCondition() != null) {
+				retval.append(sequence.getResetCondition().getXML());
+			}
 
-		retval.append("    </compare>").append(Const.CR);
+			retval.append("        </reset>").append(Const.CR);
+			retval.append("      </sequence>").append(Const.CR);
+		}
+		retval.append("    </sequences>").append(Const.CR);
+		retval.append("    <keys>").append(Const.CR);
+		for (String keyField : keyFields) {
+			retval.append("      <key>").append(Const.CR);
+			retval.append("        ").append(XMLHandler.addTagValue("name", keyField));
+			retval.append("      </key>").append(Const.CR);
+		}
+		retval.append("    </keys>").append(Const.CR);
+		retval.append("    ").append(XMLHandler.addTagValue("summary_step", getSummaryStepName()));
+		retval.append("    ").append(XMLHandler.addTagValue("summary_sequence", summarySequence));
+		retval.append("    <summary_fields>").append(Const.CR);
+		for (String summaryField : summaryFields) {
+			retval.append("      <field>").append(Const.CR);
+			retval.append("        ").append(XMLHandler.addTagValue("name", summaryField));
+			retval.append("      </field>").append(Const.CR);
+		}
+		retval.append("    </summary_fields>").append(Const.CR);
+		retval.append("    ").append(XMLHandler.addTagValue("checkpoint_file", checkpointFile));
+		retval.append("    ").append(XMLHandler.addTagValue("checkpoint_rows", checkpointRows));
+		retval.append("    ").append(XMLHandler.addTagValue("checkpoint_seconds", checkpointSeconds));
+		retval.append("    ").append(XMLHandler.addTagValue("sequence_store", sequenceStore));
+		retval.append("    ").append(XMLHandler.addTagValue("sequence_server", sequenceServer));
+		retval.append("    ").append(XMLHandler.addTagValue("store_block_size", storeBlockSize));
 
 		return retval.toString();
 	}
@@ -348,40 +918,123 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	public void readRep(Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases)
 			throws KettleException {
 		try {
-			fieldName = rep.getStepAttributeString(id_step, "fieldName");
-			startAt = rep.getStepAttributeString(id_step, "start_at");
-			incrementBy = rep.getStepAttributeString(id_step, "increment_by");
+			deterministic = rep.getStepAttributeBoolean(id_step, "deterministic");
+			previousRows = Const.NVL(rep.getStepAttributeString(id_step, "previous_rows"), "1");
+
+			// A single sequence from before multiple sequences were supported
+			// reads as sequence 0
+			int nrsequences = Math.max(1, rep.countNrStepAttributes(id_step, "fieldName"));
+			sequences = new ArrayList<SequenceDefinition>(nrsequences);
+			for (int i = 0; i < nrsequences; i++) {
+				SequenceDefinition sequence = new SequenceDefinition();
+				sequence.setFieldName(rep.getStepAttributeString(id_step, i, "fieldName"));
+				String startAt = rep.getStepAttributeString(id_step, i, "start_at");
+				String incrementBy = rep.getStepAttributeString(id_step, i, "increment_by");
+
+				// Fix for backwards compatibility, only to be used from previous
+				// versions (TO DO Sven Boden: remove in later
+				// versions)
+				if (startAt == null) {
+					long start = rep.getStepAttributeInteger(id_step, i, "start_at");
+					startAt = Long.toString(start);
+				}
 
-			// Fix for backwards compatibility, only to be used from previous
-			// versions (TO DO Sven Boden: remove in later
-			// versions)
-			if (startAt == null) {
-				long start = rep.getStepAttributeInteger(id_step, "start_at");
-				startAt = Long.toString(start);
+				if (incrementBy == null) {
+					long increment = rep.getStepAttributeInteger(id_step, i, "increment_by");
+					incrementBy = Long.toString(increment);
+				}
+
+				sequence.setStartAt(startAt);
+				sequence.setIncrementBy(incrementBy);
+				sequence.setParentName(rep.getStepAttributeString(id_step, i, "parent"));
+				sequence.setExpression(Const.NVL(rep.getStepAttributeString(id_step, i, "expression"), ""));
+				sequence.setCondition(rep.loadConditionFromStepAttribute(id_step, getConditionCode(i)));
+				Condition resetCondition = rep.loadConditionFromStepAttribute(id_step, getResetConditionCode(i));
+				if (resetCondition != null) {
+					sequence.setResetCondition(resetCondition);
+				}
+				sequences.add(sequence);
 			}
 
-			if (incrementBy == null) {
-				long increment = rep.getStepAttributeInteger(id_step, "increment_by");
-				incrementBy = Long.toString(increment);
+			int nrkeys = rep.countNrStepAttributes(id_step, "key_name");
+			keyFields = new String[nrkeys];
+			for (int i = 0; i < nrkeys; i++) {
+				keyFields[i] = rep.getStepAttributeString(id_step, i, "key_name");
 			}
-			
-			condition = rep.loadConditionFromStepAttribute( id_step, "id_condition" );
+
+			setSummaryStepName(rep.getStepAttributeString(id_step, "summary_step"));
+			summarySequence = Const.NVL(rep.getStepAttributeString(id_step, "summary_sequence"), "");
+			int nrsummary = rep.countNrStepAttributes(id_step, "summary_field_name");
+			summaryFields = new String[nrsummary];
+			for (int i = 0; i < nrsummary; i++) {
+				summaryFields[i] = rep.getStepAttributeString(id_step, i, "summary_field_name");
+			}
+
+			checkpointFile = Const.NVL(rep.getStepAttributeString(id_step, "checkpoint_file"), "");
+			checkpointRows = Const.NVL(rep.getStepAttributeString(id_step, "checkpoint_rows"), "100000");
+			checkpointSeconds = Const.NVL(rep.getStepAttributeString(id_step, "checkpoint_seconds"), "60");
+			sequenceStore = Const.NVL(rep.getStepAttributeString(id_step, "sequence_store"), "");
+			sequenceServer = Const.NVL(rep.getStepAttributeString(id_step, "sequence_server"), "");
+			storeBlockSize = Const.NVL(rep.getStepAttributeString(id_step, "store_block_size"), "1000");
 		} catch (Exception e) {
 			throw new KettleException(
 					BaseMessages.getString(PKG, "AddSequenceMeta.Exception.UnableToReadStepInfo") + id_step, e);
 		}
 	}
 
+	/**
+	 * @param nr
+	 *            the sequence number
+	 * @return the repository attribute holding the condition of a sequence
+	 */
+	private static String getConditionCode(int nr) {
+		return nr == 0 ? "id_condition" : "id_condition_" + nr;
+	}
+
+	/**
+	 * @param nr
+	 *            the sequence number
+	 * @return the repository attribute holding the reset condition of a
+	 *         sequence
+	 */
+	private static String getResetConditionCode(int nr) {
+		return "id_reset_condition_" + nr;
+	}
+
 	/**
 	 * Save to repository
 	 */
 	public void saveRep(Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step)
 			throws KettleException {
 		try {
-			rep.saveStepAttribute(id_transformation, id_step, "fieldName", fieldName);
-			rep.saveStepAttribute(id_transformation, id_step, "start_at", startAt);
-			rep.saveStepAttribute(id_transformation, id_step, "increment_by", incrementBy);
-			rep.saveConditionStepAttribute( id_transformation, id_step, "id_condition", condition );
+			rep.saveStepAttribute(id_transformation, id_step, "deterministic", deterministic);
+			rep.saveStepAttribute(id_transformation, id_step, "previous_rows", previousRows);
+			for (int i = 0; i < sequences.size(); i++) {
+				SequenceDefinition sequence = sequences.get(i);
+				rep.saveStepAttribute(id_transformation, id_step, i, "fieldName", sequence.getFieldName());
+				rep.saveStepAttribute(id_transformation, id_step, i, "start_at", sequence.getStartAt());
+				rep.saveStepAttribute(id_transformation, id_step, i, "increment_by", sequence.getIncrementBy());
+				rep.saveStepAttribute(id_transformation, id_step, i, "parent", sequence.getParentName());
+				rep.saveStepAttribute(id_transformation, id_step, i, "expression", sequence.getExpression());
+				rep.saveConditionStepAttribute(id_transformation, id_step, getConditionCode(i),
+						sequence.getCondition());
+				rep.saveConditionStepAttribute(id_transformation, id_step, getResetConditionCode(i),
+						sequence.getResetCondition());
+			}
+			for (int i = 0; i < keyFields.length; i++) {
+				rep.saveStepAttribute(id_transformation, id_step, i, "key_name", keyFields[i]);
+			}
+			rep.saveStepAttribute(id_transformation, id_step, "summary_step", getSummaryStepName());
+			rep.saveStepAttribute(id_transformation, id_step, "summary_sequence", summarySequence);
+			for (int i = 0; i < summaryFields.length; i++) {
+				rep.saveStepAttribute(id_transformation, id_step, i, "summary_field_name", summaryFields[i]);
+			}
+			rep.saveStepAttribute(id_transformation, id_step, "checkpoint_file", checkpointFile);
+			rep.saveStepAttribute(id_transformation, id_step, "checkpoint_rows", checkpointRows);
+			rep.saveStepAttribute(id_transformation, id_step, "checkpoint_seconds", checkpointSeconds);
+			rep.saveStepAttribute(id_transformation, id_step, "sequence_store", sequenceStore);
+			rep.saveStepAttribute(id_transformation, id_step, "sequence_server", sequenceServer);
+			rep.saveStepAttribute(id_transformation, id_step, "store_block_size", storeBlockSize);
 
 		} catch (Exception e) {
 			throw new KettleException(
@@ -395,9 +1048,39 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 	@Override
 	public void getFields(RowMetaInterface rowMeta, String origin, RowMetaInterface[] info, StepMeta nextStep,
 			VariableSpace space, Repository repository, IMetaStore metaStore) throws KettleStepException {
+		if (nextStep != null && nextStep.getName().equalsIgnoreCase(getSummaryStepName())) {
+			RowMetaInterface summaryRowMeta = getSummaryRowMeta(rowMeta, origin);
+			rowMeta.clear();
+			rowMeta.addRowMeta(summaryRowMeta);
+			return;
+		}
+
 		// Clear the sortedDescending flag on fields used within the condition -
 		// otherwise the comparisons will be
 		// inverted!!
+		for (SequenceDefinition sequence : sequences) {
+			clearSortedDescending(rowMeta, sequence.getCondition());
+			clearSortedDescending(rowMeta, sequence.getResetCondition());
+		}
+
+		// All sequences are added at the end of the row, in order
+		for (SequenceDefinition sequence : sequences) {
+			ValueMetaInterface v;
+			try {
+				v = ValueMetaFactory.createValueMeta(sequence.getFieldName(), ValueMetaInterface.TYPE_INTEGER);
+				v.setName(sequence.getFieldName());
+				v.setOrigin(origin);
+				rowMeta.addValueMeta(v);
+			} catch (KettlePluginException e) {
+				logBasic("Could not create new field: " + e.getMessage());
+			}
+		}
+	}
+
+	private void clearSortedDescending(RowMetaInterface rowMeta, Condition condition) {
+		if (condition == null) {
+			return;
+		}
 		String[] conditionField = condition.getUsedFields();
 		for (int i = 0; i < conditionField.length; i++) {
 			int idx = rowMeta.indexOfValue(conditionField[i]);
@@ -406,16 +1089,6 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 				valueMeta.setSortedDescending(false);
 			}
 		}
-
-		ValueMetaInterface v;
-		try {
-			v = ValueMetaFactory.createValueMeta(fieldName, ValueMetaInterface.TYPE_INTEGER);
-			v.setName(fieldName);
-			v.setOrigin(origin);
-			rowMeta.addValueMeta(v);
-		} catch (KettlePluginException e) {
-			logBasic("Could not create new field: " + e.getMessage());
-		}
 	}
 
 	/**
@@ -427,14 +1100,34 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 		CheckResult cr;
 		String error_message = "";
 
-		if (condition.isEmpty()) {
-			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
-					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.NoConditionSpecified"), stepMeta);
-		} else {
-			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_OK,
-					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.ConditionSpecified"), stepMeta);
+		for (SequenceDefinition sequence : sequences) {
+			if (sequence.hasExpression()) {
+				if (prev != null && prev.size() > 0) {
+					try {
+						String expression = sequence.getExpression();
+						ExpressionCompiler.compile(expression, prev, new LagBuffer(new String[] { expression }, prev,
+								Const.toInt(transMeta.environmentSubstitute(previousRows), 1)));
+						cr = new CheckResult(CheckResultInterface.TYPE_RESULT_OK, BaseMessages.getString(PKG,
+								"AddFilterSequenceMeta.CheckResult.ExpressionCompiled", sequence.getFieldName()),
+								stepMeta);
+					} catch (KettleException e) {
+						cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, e.getMessage(), stepMeta);
+					}
+					remarks.add(cr);
+				}
+				continue;
+			}
+			if (sequence.getCondition().isEmpty()) {
+				cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(PKG,
+						"AddFilterSequenceMeta.CheckResult.NoConditionSpecified") + " " + sequence.getFieldName(),
+						stepMeta);
+			} else {
+				cr = new CheckResult(CheckResultInterface.TYPE_RESULT_OK, BaseMessages.getString(PKG,
+						"AddFilterSequenceMeta.CheckResult.ConditionSpecified") + " " + sequence.getFieldName(),
+						stepMeta);
+			}
+			remarks.add(cr);
 		}
-		remarks.add(cr);
 
 		// Look up fields in the input stream <prev>
 		if (prev != null && prev.size() > 0) {
@@ -442,7 +1135,7 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 					"AddFilterSequenceMeta.CheckResult.StepReceivingFields", prev.size() + ""), stepMeta);
 			remarks.add(cr);
 
-			List<String> orphanFields = getOrphanFields(condition, prev);
+			List<String> orphanFields = getOrphanFields(prev);
 			if (orphanFields.size() > 0) {
 				error_message = BaseMessages.getString(PKG,
 						"AddFilterSequenceMeta.CheckResult.FieldsNotFoundFromPreviousStep") + Const.CR;
@@ -463,6 +1156,89 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 			remarks.add(cr);
 		}
 
+		try {
+			getParentIndexes();
+		} catch (KettleStepException e) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, e.getMessage(), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (deterministic && stepMeta.getCopies() > 1 && !isRoundRobinInput(transMeta, stepMeta)) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.DeterministicNeedsRoundRobin"),
+					stepMeta);
+			remarks.add(cr);
+		}
+
+		if (deterministic && stepMeta.getCopies() > 1) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_COMMENT,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.DeterministicRowOrder"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (deterministic && stepMeta.getCopies() > 1 && keyFields.length > 0) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.DeterministicWithKeyFields"),
+					stepMeta);
+			remarks.add(cr);
+		}
+
+		if (!Const.isEmpty(checkpointFile) && stepMeta.getCopies() > 1) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.CheckpointSingleCopy"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (usesPreviousRows() && stepMeta.getCopies() > 1) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.PreviousRowsSingleCopy"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (!Const.isEmpty(sequenceStore) && !Const.isEmpty(sequenceServer)) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.StoreAndServer"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (hasSequenceAllocator()
+				&& Const.toLong(transMeta.environmentSubstitute(storeBlockSize), 1000L) < MIN_STORE_BLOCK_SIZE) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(PKG,
+					"AddFilterSequenceMeta.CheckResult.StoreBlockTooSmall", Long.toString(MIN_STORE_BLOCK_SIZE)),
+					stepMeta);
+			remarks.add(cr);
+		}
+
+		if (getSummaryStepName() != null) {
+			if (stepMeta.getCopies() > 1) {
+				cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+						BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.SummarySingleCopy"), stepMeta);
+				remarks.add(cr);
+			}
+			try {
+				if (prev != null && prev.size() > 0) {
+					getSummaryRowMeta(prev, stepMeta.getName());
+				} else {
+					getSummaryChain();
+				}
+			} catch (KettleStepException e) {
+				cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, e.getMessage(), stepMeta);
+				remarks.add(cr);
+			}
+		}
+
+		if (hasSequenceAllocator() && isStoredSequenceRestarted()) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.StoredSequenceRestarted"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (hasSequenceAllocator() && deterministic && stepMeta.getCopies() > 1) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "AddFilterSequenceMeta.CheckResult.DeterministicWithStore"), stepMeta);
+			remarks.add(cr);
+		}
+
 		// See if we have input streams leading to this step!
 		if (input.length > 0) {
 			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_OK,
@@ -477,6 +1253,103 @@ public class AddFilterSequenceMeta extends BaseStepMeta implements StepMetaInter
 		}
 	}
 
+	/**
+	 * Looks up the parent of each sequence
+	 * 
+	 * @return the index of the parent of each sequence, -1 for top level
+	 *         sequences
+	 * @throws KettleStepException
+	 *             when a parent does not exist or a sequence is its own
+	 *             ancestor
+	 */
+	public int[] getParentIndexes() throws KettleStepException {
+		int[] parents = new int[sequences.size()];
+		for (int i = 0; i < parents.length; i++) {
+			String parentName = sequences.get(i).getParentName();
+			parents[i] = -1;
+			if (Const.isEmpty(parentName)) {
+				continue;
+			}
+			for (int j = 0; j < parents.length; j++) {
+				if (parentName.equalsIgnoreCase(sequences.get(j).getFieldName())) {
+					parents[i] = j;
+					break;
+				}
+			}
+			if (parents[i] < 0) {
+				throw new KettleStepException(BaseMessages.getString(PKG,
+						"AddFilterSequenceMeta.Exception.UnknownParentSequence", sequences.get(i).getFieldName(),
+						parentName));
+			}
+		}
+
+		// Following the parents from any sequence has to end at the top level
+		for (int i = 0; i < parents.length; i++) {
+			int steps = 0;
+			for (int p = parents[i]; p >= 0; p = parents[p]) {
+				if (++steps > parents.length) {
+					throw new KettleStepException(BaseMessages.getString(PKG,
+							"AddFilterSequenceMeta.Exception.CyclicParentSequence", sequences.get(i).getFieldName()));
+				}
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * Checks whether the copies of the step get their rows round robin from a
+	 * single copy of a single previous step that sends them nowhere else, so
+	 * the original row order can be reconstructed. A custom row distribution
+	 * or a second next step would take rows out of the turns
+	 * 
+	 * @param transMeta
+	 * @param stepMeta
+	 * @return
+	 */
+	public static boolean isRoundRobinInput(TransMeta transMeta, StepMeta stepMeta) {
+		StepMeta[] prevSteps = transMeta.getPrevSteps(stepMeta);
+		if (prevSteps == null || prevSteps.length != 1) {
+			return false;
+		}
+		StepMeta prevStep = prevSteps[0];
+		return prevStep.getCopies() == 1 && prevStep.isDistributes() && prevStep.getRowDistribution() == null
+				&& transMeta.findNextSteps(prevStep).size() == 1;
+	}
+
+	/**
+	 * Get non-existing input fields referenced by any of the sequences or keys
+	 * 
+	 * @param prev
+	 * @return
+	 */
+	public List<String> getOrphanFields(RowMetaInterface prev) {
+		List<String> orphans = new ArrayList<String>();
+		for (SequenceDefinition sequence : sequences) {
+			// expressions that use a missing field don't compile
+			if (!sequence.hasExpression()) {
+				for (String field : getOrphanFields(sequence.getCondition(), prev)) {
+					if (!orphans.contains(field)) {
+						orphans.add(field);
+					}
+				}
+			}
+			for (String field : getOrphanFields(sequence.getResetCondition(), prev)) {
+				if (!orphans.contains(field)) {
+					orphans.add(field);
+				}
+			}
+		}
+		if (prev != null) {
+			for (String keyField : keyFields) {
+				if (!Const.isEmpty(keyField) && prev.searchValueMeta(keyField) == null
+						&& !orphans.contains(keyField)) {
+					orphans.add(keyField);
+				}
+			}
+		}
+		return orphans;
+	}
+
 	/**
 	 * Get non-existing referenced input fields
 	 * 
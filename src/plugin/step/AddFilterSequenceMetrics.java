@@ -0,0 +1,250 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author David Law
+ *
+ *         Collects the metrics of one step copy. The step thread records into
+ *         plain fields and publishes an immutable snapshot for the JMX clients
+ *         at most once per {@link #PUBLISH_INTERVAL}, so recording costs no
+ *         more than a few additions per batch of rows. Only one row in
+ *         {@link #SAMPLE_INTERVAL} has its evaluation timed.
+ */
+public class AddFilterSequenceMetrics implements AddFilterSequenceMetricsMBean {
+
+	/**
+	 * Rows per timed evaluation
+	 */
+	static final int SAMPLE_INTERVAL = 1024;
+
+	/**
+	 * Nanoseconds between two snapshots
+	 */
+	static final long PUBLISH_INTERVAL = 1000000000L;
+
+	private static final int BUCKETS = 40;
+
+	private final String[] sequenceNames;
+
+	// Only touched by the step thread
+	private long rowsEvaluated;
+	private long rowsMatched;
+	private long samples;
+	private final long[] histogram = new long[BUCKETS];
+	private long inputWait;
+	private long outputWait;
+	private long coordinationWait;
+	private int countdown = SAMPLE_INTERVAL;
+	private long lastPublish;
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @param sequenceNames
+	 *            the names of the sequence fields
+	 */
+	public AddFilterSequenceMetrics(String[] sequenceNames) {
+		this.sequenceNames = sequenceNames;
+		this.snapshot = new Snapshot(this, new long[sequenceNames.length], 0);
+	}
+
+	/**
+	 * @param count
+	 *            the number of rows evaluated
+	 */
+	public void addRowsEvaluated(int count) {
+		rowsEvaluated += count;
+	}
+
+	/**
+	 * @param count
+	 *            the number of conditions that matched
+	 */
+	public void addRowsMatched(int count) {
+		rowsMatched += count;
+	}
+
+	/**
+	 * @return true when the evaluation of this row is to be timed
+	 */
+	public boolean sample() {
+		if (--countdown > 0) {
+			return false;
+		}
+		countdown = SAMPLE_INTERVAL;
+		return true;
+	}
+
+	/**
+	 * @param nanos
+	 *            the time a sampled evaluation took
+	 */
+	public void addEvaluationTime(long nanos) {
+		samples++;
+		histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)))]++;
+	}
+
+	public void addInputWait(long nanos) {
+		inputWait += nanos;
+	}
+
+	public void addOutputWait(long nanos) {
+		outputWait += nanos;
+	}
+
+	public void addCoordinationWait(long nanos) {
+		coordinationWait += nanos;
+	}
+
+	/**
+	 * Makes the metrics recorded so far visible when the last snapshot is
+	 * older than the publish interval
+	 * 
+	 * @param values
+	 *            holds the current sequence values, null to keep the last
+	 *            ones
+	 * @param offset
+	 *            the position of the first value
+	 * @param now
+	 *            System.nanoTime()
+	 * @param force
+	 *            publish anyway, e.g. at the end of the input
+	 * @return true when a snapshot was published
+	 */
+	public boolean publish(long[] values, int offset, long now, boolean force) {
+		if (!force && now - lastPublish < PUBLISH_INTERVAL) {
+			return false;
+		}
+		lastPublish = now;
+		snapshot = values != null ? new Snapshot(this, values, offset) : new Snapshot(this, snapshot.values, 0);
+		return true;
+	}
+
+	public long getRowsEvaluated() {
+		return snapshot.rowsEvaluated;
+	}
+
+	public long getRowsMatched() {
+		return snapshot.rowsMatched;
+	}
+
+	public String[] getSequenceNames() {
+		return sequenceNames.clone();
+	}
+
+	public long[] getCurrentValues() {
+		return snapshot.values.clone();
+	}
+
+	public long getEvaluationSamples() {
+		return snapshot.samples;
+	}
+
+	public long[] getEvaluationTimeHistogram() {
+		return snapshot.histogram.clone();
+	}
+
+	public long getInputWaitMillis() {
+		return snapshot.inputWait / 1000000L;
+	}
+
+	public long getOutputWaitMillis() {
+		return snapshot.outputWait / 1000000L;
+	}
+
+	public long getCoordinationWaitMillis() {
+		return snapshot.coordinationWait / 1000000L;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server
+	 * 
+	 * @param transName
+	 * @param transId
+	 *            tells runs of the same transformation apart, may be null
+	 * @param stepName
+	 * @param copy
+	 * @return the name the metrics were registered under
+	 * @throws JMException
+	 */
+	public ObjectName register(String transName, String transId, String stepName, int copy) throws JMException {
+		StringBuilder name = new StringBuilder("plugin.step:type=AddFilterSequence");
+		name.append(",transformation=").append(ObjectName.quote(String.valueOf(transName)));
+		if (transId != null) {
+			name.append(",id=").append(ObjectName.quote(transId));
+		}
+		name.append(",step=").append(ObjectName.quote(String.valueOf(stepName)));
+		name.append(",copy=").append(copy);
+		ObjectName objectName = new ObjectName(name.toString());
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * @param objectName
+	 *            the name returned by register()
+	 * @throws JMException
+	 */
+	public static void unregister(ObjectName objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * The metrics at one point in time
+	 */
+	private static final class Snapshot {
+		final long rowsEvaluated;
+		final long rowsMatched;
+		final long[] values;
+		final long samples;
+		final long[] histogram;
+		final long inputWait;
+		final long outputWait;
+		final long coordinationWait;
+
+		Snapshot(AddFilterSequenceMetrics metrics, long[] values, int offset) {
+			this.rowsEvaluated = metrics.rowsEvaluated;
+			this.rowsMatched = metrics.rowsMatched;
+			this.values = new long[metrics.sequenceNames.length];
+			System.arraycopy(values, offset, this.values, 0, this.values.length);
+			this.samples = metrics.samples;
+			this.histogram = metrics.histogram.clone();
+			this.inputWait = metrics.inputWait;
+			this.outputWait = metrics.outputWait;
+			this.coordinationWait = metrics.coordinationWait;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+/**
+ * @author David Law
+ *
+ *         Runtime metrics of one copy of the add filter sequence step, as seen
+ *         through JMX. The values are published by the step about once a
+ *         second.
+ */
+public interface AddFilterSequenceMetricsMBean {
+
+	/**
+	 * @return the number of rows the conditions were evaluated on
+	 */
+	long getRowsEvaluated();
+
+	/**
+	 * @return the number of condition matches, summed over the sequences
+	 */
+	long getRowsMatched();
+
+	/**
+	 * @return the names of the sequence fields
+	 */
+	String[] getSequenceNames();
+
+	/**
+	 * @return the value of each sequence in the last row passed on
+	 */
+	long[] getCurrentValues();
+
+	/**
+	 * @return the number of rows whose evaluation was timed
+	 */
+	long getEvaluationSamples();
+
+	/**
+	 * @return the number of timed evaluations per bucket, bucket i holding
+	 *         those that took less than 2^i ns (and at least 2^(i-1) ns)
+	 */
+	long[] getEvaluationTimeHistogram();
+
+	/**
+	 * @return the time spent getting rows from the input row sets
+	 */
+	long getInputWaitMillis();
+
+	/**
+	 * @return the time spent putting rows into the output row sets
+	 */
+	long getOutputWaitMillis();
+
+	/**
+	 * @return the time spent waiting for the other copies in deterministic
+	 *         mode
+	 */
+	long getCoordinationWaitMillis();
+}
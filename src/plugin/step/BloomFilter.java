@@ -0,0 +1,87 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+/**
+ * @author David Law
+ *
+ *         Bloom filter over 64 bit hashes. A negative answer is certain, a
+ *         positive one has to be confirmed by the real set. Used in front of
+ *         large IN LIST sets, where most rows don't match and the bit array
+ *         stays in the cache better than the set itself.
+ */
+public class BloomFilter {
+
+	private static final int HASHES = 3;
+
+	private final long[] bits;
+
+	private final int mask;
+
+	/**
+	 * @param expected
+	 *            the expected number of values, about 16 bits are used per
+	 *            value
+	 */
+	public BloomFilter(int expected) {
+		int nrBits = 64;
+		while (nrBits < expected * 16) {
+			nrBits <<= 1;
+		}
+		bits = new long[nrBits >>> 6];
+		mask = nrBits - 1;
+	}
+
+	/**
+	 * @param hash
+	 *            a well mixed 64 bit hash of the value
+	 */
+	public void add(long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * @param hash
+	 *            a well mixed 64 bit hash of the value
+	 * @return false when the value was certainly never added
+	 */
+	public boolean mightContain(long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
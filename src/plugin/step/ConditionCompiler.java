@@ -0,0 +1,1352 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaAndData;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * @author David Law
+ *
+ *         Turns a Kettle Condition into a tree of {@link RowPredicate}s for one
+ *         row layout. Field indexes, constant conversions, patterns and lists
+ *         are resolved once here instead of on every Condition.evaluate call.
+ *
+ *         Anything that cannot be compiled with identical semantics is left to
+ *         Condition.evaluate on the original (sub) condition.
+ *
+ *         Predicates keep matchers between rows, so each step copy compiles
+ *         its own.
+ */
+public class ConditionCompiler {
+
+	/**
+	 * Smallest OR run of CONTAINS / STARTS WITH tests worth an automaton
+	 */
+	private static final int MIN_LITERAL_RUN = 3;
+
+	/**
+	 * IN LIST sets from this size on get a Bloom filter in front
+	 */
+	private static final int BLOOM_FILTER_SIZE = 4096;
+
+	/**
+	 * Integers whose string form has to be the plain Long.toString() one for
+	 * IN LIST to compare them as numbers
+	 */
+	private static final long[] CANONICAL_PROBES = { 0L, 7L, -7L, 1234567L, -1234567L, Long.MAX_VALUE,
+			Long.MIN_VALUE };
+
+	/**
+	 * Encodings where equal strings are equal bytes and a literal can only be
+	 * found in the bytes where it is in the decoded string
+	 */
+	private static final String[] BYTE_COMPARABLE_ENCODINGS = { "UTF-8", "ISO-8859-1", "US-ASCII" };
+
+	private RowMetaInterface rowMeta;
+
+	private int compiledCount;
+
+	private int interpretedCount;
+
+	/**
+	 * @param rowMeta
+	 *            the layout of the rows the predicate will be evaluated on
+	 */
+	public ConditionCompiler(RowMetaInterface rowMeta) {
+		this.rowMeta = rowMeta;
+	}
+
+	/**
+	 * @return the number of atomic conditions compiled into a specialized
+	 *         predicate
+	 */
+	public int getCompiledCount() {
+		return compiledCount;
+	}
+
+	/**
+	 * @return the number of (sub) conditions left to Condition.evaluate
+	 */
+	public int getInterpretedCount() {
+		return interpretedCount;
+	}
+
+	/**
+	 * Compiles the condition
+	 *
+	 * @param condition
+	 * @return the predicate, never null
+	 */
+	public RowPredicate compile(Condition condition) {
+		if (condition == null) {
+			return ConstantPredicate.FALSE;
+		}
+		if (condition.isAtomic()) {
+			return compileAtomic(condition);
+		}
+		return compileComposite(condition);
+	}
+
+	private RowPredicate compileComposite(Condition condition) {
+		int nr = condition.nrConditions();
+		RowPredicate[] children = new RowPredicate[nr];
+		int[] operators = new int[nr];
+		int count = 0;
+		int i = 0;
+		while (i < nr) {
+			Condition child = condition.getCondition(i);
+			int operator = child.getOperator();
+
+			// The chain is evaluated left to right, a run of ORs can only be
+			// taken together when it is OR'ed to what comes before
+			if (i == 0 || operator == Condition.OPERATOR_OR) {
+				int end = findLiteralRun(condition, i);
+				if (end - i >= MIN_LITERAL_RUN) {
+					children[count] = compileLiteralRun(condition, i, end);
+					operators[count++] = operator;
+					i = end;
+					continue;
+				}
+			}
+
+			children[count] = compile(child);
+			operators[count++] = operator;
+			i++;
+		}
+
+		if (count == 1 && !condition.isNegated()) {
+			return children[0];
+		}
+		if (count < nr) {
+			children = Arrays.copyOf(children, count);
+			operators = Arrays.copyOf(operators, count);
+		}
+		return new CompositePredicate(children, operators, condition.isNegated());
+	}
+
+	/**
+	 * @param condition
+	 *            a composite condition
+	 * @param start
+	 *            the first child of the run
+	 * @return the end (exclusive) of the OR'ed CONTAINS / STARTS WITH tests on
+	 *         the same field starting at start
+	 */
+	private int findLiteralRun(Condition condition, int start) {
+		String field = getLiteralTestField(condition.getCondition(start));
+		if (field == null) {
+			return start;
+		}
+		int end = start + 1;
+		while (end < condition.nrConditions()) {
+			Condition child = condition.getCondition(end);
+			if (child.getOperator() != Condition.OPERATOR_OR || !field.equals(getLiteralTestField(child))) {
+				break;
+			}
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * @param condition
+	 * @return the field tested when the condition is a plain CONTAINS or
+	 *         STARTS WITH against a constant, null otherwise
+	 */
+	private String getLiteralTestField(Condition condition) {
+		if (!condition.isAtomic() || condition.isNegated()) {
+			return null;
+		}
+		if (condition.getFunction() != Condition.FUNC_CONTAINS
+				&& condition.getFunction() != Condition.FUNC_STARTS_WITH) {
+			return null;
+		}
+		String field = condition.getLeftValuename();
+		if (Const.isEmpty(field) || rowMeta.indexOfValue(field) < 0) {
+			return null;
+		}
+		return getLiteral(condition) != null ? field : null;
+	}
+
+	/**
+	 * @param condition
+	 * @return the constant a CONTAINS or STARTS WITH condition tests for,
+	 *         null when it has none or it does not convert
+	 */
+	private String getLiteral(Condition condition) {
+		ValueMetaAndData exact = condition.getRightExact();
+		if (exact == null || exact.getValueData() == null) {
+			return null;
+		}
+		try {
+			return exact.getValueMeta().getCompatibleString(exact.getValueData());
+		} catch (KettleValueException e) {
+			return null;
+		}
+	}
+
+	private RowPredicate compileLiteralRun(Condition condition, int start, int end) {
+		List<String> contains = new ArrayList<String>();
+		List<String> prefixes = new ArrayList<String>();
+		for (int i = start; i < end; i++) {
+			Condition child = condition.getCondition(i);
+			if (child.getFunction() == Condition.FUNC_CONTAINS) {
+				contains.add(getLiteral(child));
+			} else {
+				prefixes.add(getLiteral(child));
+			}
+		}
+		compiledCount += end - start;
+
+		int index = rowMeta.indexOfValue(condition.getCondition(start).getLeftValuename());
+		return new LiteralSetPredicate(index, rowMeta.getValueMeta(index), new MultiLiteralMatcher(
+				contains.toArray(new String[contains.size()]), prefixes.toArray(new String[prefixes.size()])));
+	}
+
+	private RowPredicate compileAtomic(Condition condition) {
+		int function = condition.getFunction();
+		boolean negate = condition.isNegated();
+
+		if (function == Condition.FUNC_TRUE) {
+			compiledCount++;
+			return negate ? ConstantPredicate.FALSE : ConstantPredicate.TRUE;
+		}
+
+		String leftName = condition.getLeftValuename();
+		if (Const.isEmpty(leftName)) {
+			return interpreted(condition);
+		}
+		int leftIndex = rowMeta.indexOfValue(leftName);
+		if (leftIndex < 0) {
+			// Condition.evaluate returns false before it looks at the negation
+			compiledCount++;
+			return ConstantPredicate.FALSE;
+		}
+		ValueMetaInterface leftMeta = rowMeta.getValueMeta(leftIndex);
+
+		// Same rules as Condition.evaluate: the exact value wins unless it is
+		// null and the right field exists
+		ValueMetaAndData exact = condition.getRightExact();
+		ValueMetaInterface rightMeta = exact != null ? exact.getValueMeta() : null;
+		Object rightData = exact != null ? exact.getValueData() : null;
+		int rightIndex = -1;
+		if (rightData == null && !Const.isEmpty(condition.getRightValuename())) {
+			rightIndex = rowMeta.indexOfValue(condition.getRightValuename());
+			if (rightIndex >= 0) {
+				rightMeta = rowMeta.getValueMeta(rightIndex);
+			}
+		}
+
+		RowPredicate predicate = null;
+		try {
+			switch (function) {
+			case Condition.FUNC_NULL:
+				predicate = new NullPredicate(leftIndex, leftMeta, false, negate);
+				break;
+			case Condition.FUNC_NOT_NULL:
+				predicate = new NullPredicate(leftIndex, leftMeta, true, negate);
+				break;
+			case Condition.FUNC_EQUAL:
+			case Condition.FUNC_NOT_EQUAL:
+			case Condition.FUNC_SMALLER:
+			case Condition.FUNC_SMALLER_EQUAL:
+			case Condition.FUNC_LARGER:
+			case Condition.FUNC_LARGER_EQUAL:
+				predicate = compileCompare(condition, leftIndex, leftMeta, rightIndex, rightMeta, rightData);
+				break;
+			case Condition.FUNC_REGEXP:
+			case Condition.FUNC_LIKE:
+			case Condition.FUNC_IN_LIST:
+			case Condition.FUNC_CONTAINS:
+			case Condition.FUNC_STARTS_WITH:
+			case Condition.FUNC_ENDS_WITH:
+				if (rightIndex < 0 && rightMeta != null) {
+					predicate = compileString(condition, leftIndex, leftMeta, rightMeta, rightData);
+				}
+				break;
+			default:
+				break;
+			}
+		} catch (KettleValueException e) {
+			// e.g. a constant that does not convert, let the interpreter report it
+			predicate = null;
+		} catch (PatternSyntaxException e) {
+			predicate = null;
+		}
+
+		if (predicate == null) {
+			return interpreted(condition);
+		}
+		compiledCount++;
+		return predicate;
+	}
+
+	private RowPredicate compileCompare(Condition condition, int leftIndex, ValueMetaInterface leftMeta,
+			int rightIndex, ValueMetaInterface rightMeta, Object rightData) throws KettleValueException {
+		int function = condition.getFunction();
+
+		if (rightIndex >= 0) {
+			return new FieldComparePredicate(condition, rowMeta, leftIndex, leftMeta, rightIndex, rightMeta);
+		}
+		if (rightMeta == null) {
+			return null;
+		}
+
+		// ValueMetaInterface.compare(data1, meta2, data2) converts data2 to the
+		// type and storage of the left field first. Do that once for the constant.
+		if (leftMeta.isStorageNormal() && !leftMeta.isSortedDescending()) {
+			Object value;
+			if (leftMeta.getType() == rightMeta.getType()) {
+				value = rightMeta.isStorageNormal() ? rightData : rightMeta.convertToNormalStorageType(rightData);
+			} else {
+				value = leftMeta.convertData(rightMeta, rightData);
+			}
+			if (value != null && !leftMeta.isNull(value)) {
+				switch (leftMeta.getType()) {
+				case ValueMetaInterface.TYPE_INTEGER:
+					if (value instanceof Long) {
+						return new LongComparePredicate(condition, rowMeta, leftIndex, ((Long) value).longValue());
+					}
+					break;
+				case ValueMetaInterface.TYPE_NUMBER:
+					if (value instanceof Double) {
+						return new DoubleComparePredicate(condition, rowMeta, leftIndex,
+								((Double) value).doubleValue());
+					}
+					break;
+				case ValueMetaInterface.TYPE_STRING:
+					if (value instanceof String && leftMeta.getTrimType() == ValueMetaInterface.TRIM_TYPE_NONE) {
+						if ((function == Condition.FUNC_EQUAL || function == Condition.FUNC_NOT_EQUAL)
+								&& !leftMeta.isCaseInsensitive()) {
+							return new StringEqualsPredicate(condition, rowMeta, leftIndex, (String) value);
+						}
+						return new StringComparePredicate(condition, rowMeta, leftIndex, (String) value,
+								leftMeta.isCaseInsensitive());
+					}
+					break;
+				default:
+					break;
+				}
+			}
+			return new ConstantComparePredicate(condition, rowMeta, leftIndex, leftMeta, value);
+		}
+		RowPredicate exactCompare = new ExactComparePredicate(condition, rowMeta, leftIndex, leftMeta, rightMeta,
+				rightData);
+		if (leftMeta.isStorageBinaryString()) {
+			RowPredicate binaryCompare = compileBinaryCompare(condition, leftIndex, leftMeta, rightMeta, rightData,
+					exactCompare);
+			if (binaryCompare != null) {
+				return binaryCompare;
+			}
+		}
+		return exactCompare;
+	}
+
+	/**
+	 * Lazy conversion fields still hold the bytes read from the file. Equality
+	 * with a string and comparison of plain integers against a number are
+	 * done on those bytes, so rows that only pass through are never
+	 * converted.
+	 * 
+	 * @return the predicate, null when the comparison needs the converted
+	 *         value
+	 */
+	private RowPredicate compileBinaryCompare(Condition condition, int index, ValueMetaInterface meta,
+			ValueMetaInterface rightMeta, Object rightData, RowPredicate fallback) throws KettleValueException {
+		Charset charset = getByteComparableCharset(meta);
+		if (charset == null || meta.isSortedDescending()) {
+			return null;
+		}
+		Object value;
+		if (meta.getType() == rightMeta.getType()) {
+			value = rightMeta.isStorageNormal() ? rightData : rightMeta.convertToNormalStorageType(rightData);
+		} else {
+			value = meta.convertData(rightMeta, rightData);
+		}
+
+		int function = condition.getFunction();
+		boolean negate = condition.isNegated();
+		switch (meta.getType()) {
+		case ValueMetaInterface.TYPE_STRING:
+			if (value instanceof String && !meta.isCaseInsensitive()
+					&& (function == Condition.FUNC_EQUAL || function == Condition.FUNC_NOT_EQUAL)) {
+				byte[] bytes = encode(charset, (String) value);
+				if (bytes != null && bytes.length > 0) {
+					return new BinaryEqualsPredicate(index, bytes, (function == Condition.FUNC_EQUAL) != negate,
+							fallback);
+				}
+			}
+			return null;
+		case ValueMetaInterface.TYPE_INTEGER:
+			if (value instanceof Long && isPlainNumberMask(meta.getConversionMask())) {
+				return new BinaryNumberComparePredicate(index, true, ((Long) value).longValue(), 0D, function,
+						negate, fallback);
+			}
+			return null;
+		case ValueMetaInterface.TYPE_NUMBER:
+			if (value instanceof Double && isPlainNumberMask(meta.getConversionMask())) {
+				return new BinaryNumberComparePredicate(index, false, 0L, ((Double) value).doubleValue(), function,
+						negate, fallback);
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @param meta
+	 * @return the encoding of a lazy conversion field when turning its bytes
+	 *         into the value is nothing more than decoding them, null
+	 *         otherwise
+	 */
+	private static Charset getByteComparableCharset(ValueMetaInterface meta) {
+		ValueMetaInterface storageMeta = meta.getStorageMetadata();
+		if (!meta.isStorageBinaryString() || storageMeta == null
+				|| meta.getTrimType() != ValueMetaInterface.TRIM_TYPE_NONE
+				|| storageMeta.getTrimType() != ValueMetaInterface.TRIM_TYPE_NONE || !Const.isEmpty(meta.getNullIf())
+				|| !Const.isEmpty(meta.getIfNull())) {
+			return null;
+		}
+		String encoding = storageMeta.getStringEncoding();
+		Charset charset;
+		try {
+			charset = Const.isEmpty(encoding) ? Charset.defaultCharset() : Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		for (String name : BYTE_COMPARABLE_ENCODINGS) {
+			if (name.equals(charset.name())) {
+				return charset;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the bytes of the constant, null when it has characters the
+	 *         encoding can't represent or that invalid input decodes to
+	 */
+	private static byte[] encode(Charset charset, String value) {
+		if (value.indexOf('\uFFFD') >= 0 || !charset.newEncoder().canEncode(value)) {
+			return null;
+		}
+		return value.getBytes(charset);
+	}
+
+	/**
+	 * @param mask
+	 * @return true when a string of digits, optionally with a minus sign,
+	 *         parses to the plain number with this mask (e.g. "#", "#,##0.00"
+	 *         or the default "####0;-####0")
+	 */
+	private static boolean isPlainNumberMask(String mask) {
+		if (Const.isEmpty(mask)) {
+			return true;
+		}
+		int separator = mask.indexOf(';');
+		if (separator < 0) {
+			return isPlainNumberPattern(mask);
+		}
+		return isPlainNumberPattern(mask.substring(0, separator)) && mask.length() > separator + 1
+				&& mask.charAt(separator + 1) == '-' && isPlainNumberPattern(mask.substring(separator + 2));
+	}
+
+	private static boolean isPlainNumberPattern(String pattern) {
+		if (pattern.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < pattern.length(); i++) {
+			if ("#0,.".indexOf(pattern.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private RowPredicate compileString(Condition condition, int leftIndex, ValueMetaInterface leftMeta,
+			ValueMetaInterface rightMeta, Object rightData) throws KettleValueException {
+		int function = condition.getFunction();
+		boolean negate = condition.isNegated();
+
+		switch (function) {
+		case Condition.FUNC_REGEXP:
+			if (rightData == null) {
+				return negate ? ConstantPredicate.TRUE : ConstantPredicate.FALSE;
+			}
+			return new PatternPredicate(leftIndex, leftMeta, Pattern.compile(rightMeta.getCompatibleString(rightData)),
+					negate);
+		case Condition.FUNC_LIKE:
+			if (rightData == null) {
+				return negate ? ConstantPredicate.TRUE : ConstantPredicate.FALSE;
+			}
+			String like = rightMeta.getCompatibleString(rightData);
+			RowPredicate literalLike = compileLikeLiteral(leftIndex, leftMeta, like, negate);
+			if (literalLike != null) {
+				return literalLike;
+			}
+			String regex = like.replace("%", ".*");
+			regex = regex.replace("?", ".");
+			return new PatternPredicate(leftIndex, leftMeta, Pattern.compile(regex), negate);
+		case Condition.FUNC_IN_LIST:
+			String list = rightMeta.getString(rightData);
+			if (list == null) {
+				return null;
+			}
+			String[] inList = Const.splitString(list, ';', true);
+			for (int i = 0; i < inList.length; i++) {
+				if (inList[i] == null) {
+					return null;
+				}
+				inList[i] = inList[i].replace("\\", "");
+			}
+			return compileInList(leftIndex, leftMeta, inList, negate);
+		case Condition.FUNC_CONTAINS:
+		case Condition.FUNC_STARTS_WITH:
+		case Condition.FUNC_ENDS_WITH:
+			String literal = rightMeta.getCompatibleString(rightData);
+			if (literal == null) {
+				return null;
+			}
+			RowPredicate literalPredicate = new LiteralPredicate(leftIndex, leftMeta, literal, function, negate);
+			Charset charset = getByteComparableCharset(leftMeta);
+			if (charset != null && leftMeta.getType() == ValueMetaInterface.TYPE_STRING) {
+				byte[] bytes = encode(charset, literal);
+				if (bytes != null && bytes.length > 0) {
+					return new BinaryLiteralPredicate(leftIndex, bytes, function, negate, literalPredicate);
+				}
+			}
+			return literalPredicate;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Condition.evaluate looks the string form of the field up in the sorted
+	 * list. Strings go into a hash set, integers that print as plain numbers
+	 * into a primitive one.
+	 */
+	private RowPredicate compileInList(int index, ValueMetaInterface meta, String[] inList, boolean negate)
+			throws KettleValueException {
+		BloomFilter bloomFilter = inList.length >= BLOOM_FILTER_SIZE ? new BloomFilter(inList.length) : null;
+
+		if (meta.getType() == ValueMetaInterface.TYPE_INTEGER && meta.isStorageNormal() && isCanonicalInteger(meta)) {
+			LongHashSet values = new LongHashSet(inList.length);
+			for (String entry : inList) {
+				// entries like "007" can never equal the string form of a number
+				long value;
+				try {
+					value = Long.parseLong(entry);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (Long.toString(value).equals(entry)) {
+					values.add(value);
+					if (bloomFilter != null) {
+						bloomFilter.add(LongHashSet.mix(value));
+					}
+				}
+			}
+			return new LongInListPredicate(index, values, bloomFilter, negate);
+		}
+
+		Set<String> values = new HashSet<String>(inList.length * 2);
+		for (String entry : inList) {
+			values.add(entry);
+			if (bloomFilter != null) {
+				bloomFilter.add(LongHashSet.mix(entry.hashCode()));
+			}
+		}
+		return new InListPredicate(index, meta, values, bloomFilter, negate);
+	}
+
+	/**
+	 * @param meta
+	 *            an Integer field
+	 * @return true when the field prints its values the way Long.toString()
+	 *         does, i.e. it has no grouping, padding or other mask
+	 */
+	private static boolean isCanonicalInteger(ValueMetaInterface meta) throws KettleValueException {
+		for (long probe : CANONICAL_PROBES) {
+			if (!Long.toString(probe).equals(meta.getCompatibleString(Long.valueOf(probe)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * LIKE patterns that are a plain literal with % at the start and/or end
+	 * don't need a regular expression
+	 * 
+	 * @return the predicate, null when the pattern needs a regular expression
+	 */
+	private RowPredicate compileLikeLiteral(int index, ValueMetaInterface meta, String like, boolean negate) {
+		boolean leading = like.startsWith("%");
+		boolean trailing = like.length() > (leading ? 1 : 0) && like.endsWith("%");
+		String literal = like.substring(leading ? 1 : 0, like.length() - (trailing ? 1 : 0));
+		for (int i = 0; i < literal.length(); i++) {
+			char c = literal.charAt(i);
+			if ("\\^$.|?*+()[]{}%".indexOf(c) >= 0 || isLineTerminator(c)) {
+				return null;
+			}
+		}
+
+		int function;
+		if (leading && trailing) {
+			function = Condition.FUNC_CONTAINS;
+		} else if (leading) {
+			function = Condition.FUNC_ENDS_WITH;
+		} else if (trailing) {
+			function = Condition.FUNC_STARTS_WITH;
+		} else {
+			function = Condition.FUNC_EQUAL;
+		}
+		return new LikeLiteralPredicate(index, meta, literal, function, negate);
+	}
+
+	/**
+	 * The characters "." does not match without Pattern.DOTALL
+	 */
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private RowPredicate interpreted(Condition condition) {
+		interpretedCount++;
+		return new InterpretedPredicate(condition, rowMeta);
+	}
+
+	/**
+	 * Maps the outcome of a compare() call onto one of the comparison functions
+	 */
+	static boolean compareResult(int function, int cmp) {
+		switch (function) {
+		case Condition.FUNC_EQUAL:
+			return cmp == 0;
+		case Condition.FUNC_NOT_EQUAL:
+			return cmp != 0;
+		case Condition.FUNC_SMALLER:
+			return cmp < 0;
+		case Condition.FUNC_SMALLER_EQUAL:
+			return cmp <= 0;
+		case Condition.FUNC_LARGER:
+			return cmp > 0;
+		case Condition.FUNC_LARGER_EQUAL:
+			return cmp >= 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Always the same answer
+	 */
+	static final class ConstantPredicate extends RowPredicate {
+		static final ConstantPredicate TRUE = new ConstantPredicate(true);
+		static final ConstantPredicate FALSE = new ConstantPredicate(false);
+
+		private final boolean value;
+
+		private ConstantPredicate(boolean value) {
+			this.value = value;
+		}
+
+		public boolean evaluate(Object[] row) {
+			return value;
+		}
+	}
+
+	/**
+	 * Falls back to Condition.evaluate for the original (sub) condition
+	 */
+	static final class InterpretedPredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+
+		InterpretedPredicate(Condition condition, RowMetaInterface rowMeta) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+		}
+
+		public boolean evaluate(Object[] row) {
+			return condition.evaluate(rowMeta, row);
+		}
+	}
+
+	/**
+	 * AND / OR / AND NOT / OR NOT / XOR chain, short-circuited the same way as
+	 * Condition.evaluate
+	 */
+	static final class CompositePredicate extends RowPredicate {
+		private final RowPredicate[] children;
+		private final int[] operators;
+		private final boolean negate;
+
+		CompositePredicate(RowPredicate[] children, int[] operators, boolean negate) {
+			this.children = children;
+			this.operators = operators;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			boolean retval = children[0].evaluate(row);
+			for (int i = 1; i < children.length; i++) {
+				switch (operators[i]) {
+				case Condition.OPERATOR_OR:
+					retval = retval || children[i].evaluate(row);
+					break;
+				case Condition.OPERATOR_AND:
+					retval = retval && children[i].evaluate(row);
+					break;
+				case Condition.OPERATOR_OR_NOT:
+					retval = retval || !children[i].evaluate(row);
+					break;
+				case Condition.OPERATOR_AND_NOT:
+					retval = retval && !children[i].evaluate(row);
+					break;
+				case Condition.OPERATOR_XOR:
+					retval = retval ^ children[i].evaluate(row);
+					break;
+				default:
+					break;
+				}
+			}
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * IS NULL / IS NOT NULL
+	 */
+	static final class NullPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final boolean expectNotNull;
+		private final boolean negate;
+
+		NullPredicate(int index, ValueMetaInterface meta, boolean expectNotNull, boolean negate) {
+			this.index = index;
+			this.meta = meta;
+			this.expectNotNull = expectNotNull;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			boolean retval = meta.isNull(row[index]) != expectNotNull;
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * Comparison of an Integer field with normal storage against a constant.
+	 * Nulls go through the interpreter, which knows the null ordering rules.
+	 */
+	static final class LongComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final long value;
+		private final int function;
+		private final boolean negate;
+
+		LongComparePredicate(Condition condition, RowMetaInterface rowMeta, int index, long value) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.value = value;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) {
+			Object field = row[index];
+			if (field == null) {
+				return condition.evaluate(rowMeta, row);
+			}
+			long v = ((Long) field).longValue();
+			boolean retval = compareResult(function, v < value ? -1 : (v == value ? 0 : 1));
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * Comparison of a Number field with normal storage against a constant
+	 */
+	static final class DoubleComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final double value;
+		private final int function;
+		private final boolean negate;
+
+		DoubleComparePredicate(Condition condition, RowMetaInterface rowMeta, int index, double value) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.value = value;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) {
+			Object field = row[index];
+			if (field == null) {
+				return condition.evaluate(rowMeta, row);
+			}
+			boolean retval = compareResult(function, Double.compare(((Double) field).doubleValue(), value));
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * (Not) equal test of a case sensitive, untrimmed String field against a
+	 * constant
+	 */
+	static final class StringEqualsPredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final String value;
+		private final boolean equal;
+
+		StringEqualsPredicate(Condition condition, RowMetaInterface rowMeta, int index, String value) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.value = value;
+			this.equal = (condition.getFunction() == Condition.FUNC_EQUAL) != condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) {
+			Object field = row[index];
+			// null and (depending on the Kettle settings) empty strings
+			if (field == null || ((String) field).length() == 0) {
+				return condition.evaluate(rowMeta, row);
+			}
+			return value.equals(field) == equal;
+		}
+	}
+
+	/**
+	 * Comparison of an untrimmed String field against a constant, case
+	 * insensitive fields are compared without upper casing copies
+	 */
+	static final class StringComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final String value;
+		private final boolean caseInsensitive;
+		private final int function;
+		private final boolean negate;
+
+		StringComparePredicate(Condition condition, RowMetaInterface rowMeta, int index, String value,
+				boolean caseInsensitive) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.value = value;
+			this.caseInsensitive = caseInsensitive;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) {
+			Object field = row[index];
+			// null and (depending on the Kettle settings) empty strings
+			if (field == null || ((String) field).length() == 0) {
+				return condition.evaluate(rowMeta, row);
+			}
+			String string = (String) field;
+			int cmp = caseInsensitive ? String.CASE_INSENSITIVE_ORDER.compare(string, value) : string.compareTo(value);
+			boolean retval = compareResult(function, cmp);
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * Comparison against a constant already converted to the field's type
+	 */
+	static final class ConstantComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final Object value;
+		private final int function;
+		private final boolean negate;
+
+		ConstantComparePredicate(Condition condition, RowMetaInterface rowMeta, int index, ValueMetaInterface meta,
+				Object value) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.meta = meta;
+			this.value = value;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			Object field = row[index];
+			if (field == null) {
+				return condition.evaluate(rowMeta, row);
+			}
+			boolean retval = compareResult(function, meta.compare(field, value));
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * Comparison against a constant that has to be converted on the fly, e.g.
+	 * for lazy conversion fields
+	 */
+	static final class ExactComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final ValueMetaInterface exactMeta;
+		private final Object exactData;
+		private final int function;
+		private final boolean negate;
+
+		ExactComparePredicate(Condition condition, RowMetaInterface rowMeta, int index, ValueMetaInterface meta,
+				ValueMetaInterface exactMeta, Object exactData) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.index = index;
+			this.meta = meta;
+			this.exactMeta = exactMeta;
+			this.exactData = exactData;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			Object field = row[index];
+			if (field == null) {
+				return condition.evaluate(rowMeta, row);
+			}
+			boolean retval = compareResult(function, meta.compare(field, exactMeta, exactData));
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * (Not) equal test of a lazy conversion String field against the encoded
+	 * constant
+	 */
+	static final class BinaryEqualsPredicate extends RowPredicate {
+		private final int index;
+		private final byte[] value;
+		private final boolean equal;
+		private final RowPredicate fallback;
+
+		BinaryEqualsPredicate(int index, byte[] value, boolean equal, RowPredicate fallback) {
+			this.index = index;
+			this.value = value;
+			this.equal = equal;
+			this.fallback = fallback;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			byte[] field = (byte[]) row[index];
+			// null and (depending on the Kettle settings) empty strings
+			if (field == null || field.length == 0) {
+				return fallback.evaluate(row);
+			}
+			return Arrays.equals(field, value) == equal;
+		}
+	}
+
+	/**
+	 * Comparison of a lazy conversion Integer or Number field against a
+	 * constant. Values that are a plain run of digits are parsed from the
+	 * bytes, anything else is converted.
+	 */
+	static final class BinaryNumberComparePredicate extends RowPredicate {
+		private final int index;
+		private final boolean integer;
+		private final long longValue;
+		private final double doubleValue;
+		private final int maxDigits;
+		private final int function;
+		private final boolean negate;
+		private final RowPredicate fallback;
+
+		BinaryNumberComparePredicate(int index, boolean integer, long longValue, double doubleValue, int function,
+				boolean negate, RowPredicate fallback) {
+			this.index = index;
+			this.integer = integer;
+			this.longValue = longValue;
+			this.doubleValue = doubleValue;
+			// no overflow, and exact as a double
+			this.maxDigits = integer ? 18 : 15;
+			this.function = function;
+			this.negate = negate;
+			this.fallback = fallback;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			byte[] field = (byte[]) row[index];
+			if (field == null) {
+				return fallback.evaluate(row);
+			}
+			int length = field.length;
+			int start = length > 0 && field[0] == '-' ? 1 : 0;
+			if (length == start || length - start > maxDigits) {
+				return fallback.evaluate(row);
+			}
+			long v = 0;
+			for (int i = start; i < length; i++) {
+				int digit = field[i] - '0';
+				if (digit < 0 || digit > 9) {
+					return fallback.evaluate(row);
+				}
+				v = v * 10 + digit;
+			}
+			if (start > 0) {
+				if (v == 0) {
+					// "-0" parses to a negative zero
+					return fallback.evaluate(row);
+				}
+				v = -v;
+			}
+			int cmp;
+			if (integer) {
+				cmp = v < longValue ? -1 : (v == longValue ? 0 : 1);
+			} else {
+				cmp = Double.compare(v, doubleValue);
+			}
+			boolean retval = compareResult(function, cmp);
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * Field to field comparison
+	 */
+	static final class FieldComparePredicate extends RowPredicate {
+		private final Condition condition;
+		private final RowMetaInterface rowMeta;
+		private final int leftIndex;
+		private final ValueMetaInterface leftMeta;
+		private final int rightIndex;
+		private final ValueMetaInterface rightMeta;
+		private final int function;
+		private final boolean negate;
+
+		FieldComparePredicate(Condition condition, RowMetaInterface rowMeta, int leftIndex,
+				ValueMetaInterface leftMeta, int rightIndex, ValueMetaInterface rightMeta) {
+			this.condition = condition;
+			this.rowMeta = rowMeta;
+			this.leftIndex = leftIndex;
+			this.leftMeta = leftMeta;
+			this.rightIndex = rightIndex;
+			this.rightMeta = rightMeta;
+			this.function = condition.getFunction();
+			this.negate = condition.isNegated();
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			Object field = row[leftIndex];
+			if (field == null) {
+				return condition.evaluate(rowMeta, row);
+			}
+			boolean retval = compareResult(function, leftMeta.compare(field, rightMeta, row[rightIndex]));
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * REGEXP and LIKE with the pattern compiled once and the matcher reused
+	 * for every row
+	 */
+	static final class PatternPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final Matcher matcher;
+		private final boolean negate;
+
+		PatternPredicate(int index, ValueMetaInterface meta, Pattern pattern, boolean negate) {
+			this.index = index;
+			this.meta = meta;
+			this.matcher = pattern.matcher("");
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			Object field = row[index];
+			boolean retval = false;
+			if (!meta.isNull(field)) {
+				retval = matcher.reset(meta.getCompatibleString(field)).matches();
+				// don't hold on to the row value
+				matcher.reset("");
+			}
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * LIKE with a plain literal: 'x', 'x%', '%x' or '%x%'. As with the regular
+	 * expression, the wildcards don't match line terminators.
+	 */
+	static final class LikeLiteralPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final String literal;
+		private final int length;
+		private final int function;
+		private final boolean negate;
+
+		LikeLiteralPredicate(int index, ValueMetaInterface meta, String literal, int function, boolean negate) {
+			this.index = index;
+			this.meta = meta;
+			this.literal = literal;
+			this.length = literal.length();
+			this.function = function;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			Object field = row[index];
+			boolean retval = false;
+			if (!meta.isNull(field)) {
+				String value = meta.getCompatibleString(field);
+				int valueLength = value.length();
+				switch (function) {
+				case Condition.FUNC_EQUAL:
+					retval = value.equals(literal);
+					break;
+				case Condition.FUNC_STARTS_WITH:
+					retval = value.regionMatches(0, literal, 0, length) && singleLine(value, length, valueLength);
+					break;
+				case Condition.FUNC_ENDS_WITH:
+					retval = valueLength >= length && value.regionMatches(valueLength - length, literal, 0, length)
+							&& singleLine(value, 0, valueLength - length);
+					break;
+				default:
+					retval = value.indexOf(literal) >= 0 && singleLine(value, 0, valueLength);
+					break;
+				}
+			}
+			return negate ? !retval : retval;
+		}
+
+		private static boolean singleLine(String value, int from, int to) {
+			for (int i = from; i < to; i++) {
+				if (isLineTerminator(value.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * IN LIST with the list split once into a hash set of strings
+	 */
+	static final class InListPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final Set<String> values;
+		private final BloomFilter bloomFilter;
+		private final boolean negate;
+
+		InListPredicate(int index, ValueMetaInterface meta, Set<String> values, BloomFilter bloomFilter,
+				boolean negate) {
+			this.index = index;
+			this.meta = meta;
+			this.values = values;
+			this.bloomFilter = bloomFilter;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			String value = meta.getCompatibleString(row[index]);
+			boolean retval = value != null
+					&& (bloomFilter == null || bloomFilter.mightContain(LongHashSet.mix(value.hashCode())))
+					&& values.contains(value);
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * IN LIST on an Integer field, looked up as a primitive long
+	 */
+	static final class LongInListPredicate extends RowPredicate {
+		private final int index;
+		private final LongHashSet values;
+		private final BloomFilter bloomFilter;
+		private final boolean negate;
+
+		LongInListPredicate(int index, LongHashSet values, BloomFilter bloomFilter, boolean negate) {
+			this.index = index;
+			this.values = values;
+			this.bloomFilter = bloomFilter;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) {
+			Object field = row[index];
+			boolean retval = false;
+			if (field != null) {
+				long value = ((Long) field).longValue();
+				retval = (bloomFilter == null || bloomFilter.mightContain(LongHashSet.mix(value)))
+						&& values.contains(value);
+			}
+			return negate ? !retval : retval;
+		}
+	}
+
+	/**
+	 * OR'ed CONTAINS and STARTS WITH tests on one field, scanning the value
+	 * once
+	 */
+	static final class LiteralSetPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final MultiLiteralMatcher matcher;
+
+		LiteralSetPredicate(int index, ValueMetaInterface meta, MultiLiteralMatcher matcher) {
+			this.index = index;
+			this.meta = meta;
+			this.matcher = matcher;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			String value = meta.getCompatibleString(row[index]);
+			return value != null && matcher.matches(value);
+		}
+	}
+
+	/**
+	 * CONTAINS, STARTS WITH and ENDS WITH of a lazy conversion String field,
+	 * searching the encoded constant in the bytes
+	 */
+	static final class BinaryLiteralPredicate extends RowPredicate {
+		private final int index;
+		private final byte[] literal;
+		private final int function;
+		private final boolean negate;
+		private final RowPredicate fallback;
+
+		BinaryLiteralPredicate(int index, byte[] literal, int function, boolean negate, RowPredicate fallback) {
+			this.index = index;
+			this.literal = literal;
+			this.function = function;
+			this.negate = negate;
+			this.fallback = fallback;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			byte[] field = (byte[]) row[index];
+			if (field == null || field.length == 0) {
+				return fallback.evaluate(row);
+			}
+			boolean retval;
+			switch (function) {
+			case Condition.FUNC_CONTAINS:
+				retval = false;
+				for (int i = 0; i <= field.length - literal.length && !retval; i++) {
+					retval = regionMatches(field, i);
+				}
+				break;
+			case Condition.FUNC_STARTS_WITH:
+				retval = field.length >= literal.length && regionMatches(field, 0);
+				break;
+			default:
+				retval = field.length >= literal.length && regionMatches(field, field.length - literal.length);
+				break;
+			}
+			return negate ? !retval : retval;
+		}
+
+		private boolean regionMatches(byte[] field, int offset) {
+			for (int i = 0; i < literal.length; i++) {
+				if (field[offset + i] != literal[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * CONTAINS, STARTS WITH and ENDS WITH against a constant
+	 */
+	static final class LiteralPredicate extends RowPredicate {
+		private final int index;
+		private final ValueMetaInterface meta;
+		private final String literal;
+		private final int function;
+		private final boolean negate;
+
+		LiteralPredicate(int index, ValueMetaInterface meta, String literal, int function, boolean negate) {
+			this.index = index;
+			this.meta = meta;
+			this.literal = literal;
+			this.function = function;
+			this.negate = negate;
+		}
+
+		public boolean evaluate(Object[] row) throws KettleValueException {
+			String value = meta.getCompatibleString(row[index]);
+			boolean retval;
+			switch (function) {
+			case Condition.FUNC_CONTAINS:
+				retval = value != null && value.indexOf(literal) >= 0;
+				break;
+			case Condition.FUNC_STARTS_WITH:
+				retval = value != null && value.startsWith(literal);
+				break;
+			default:
+				retval = !Const.isEmpty(value) && value.endsWith(literal);
+				break;
+			}
+			return negate ? !retval : retval;
+		}
+	}
+}
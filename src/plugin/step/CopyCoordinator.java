@@ -0,0 +1,222 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.trans.step.StepInterface;
+
+/**
+ * @author David Law
+ *
+ *         Numbers the rows of several step copies as if a single copy had seen
+ *         them in their original order.
+ *
+ *         The previous step distributes its rows round robin, so copy c gets
+ *         rows c, c + copies, c + 2 * copies, ... Every copy evaluates a block
+ *         of its own rows against the conditions of all sequences and
+ *         publishes the outcome. Once all copies have
+ *         published, the block is walked once in the original row order to
+ *         work out the sequence value of every row. Copies only synchronize
+ *         once per block.
+ */
+public class CopyCoordinator {
+
+	private static final long WAIT_MILLIS = 100L;
+
+	private final int copies;
+
+	private final int blockSize;
+
+	private final int width;
+
+	/**
+	 * Counters of the sequences, only touched while computing a block
+	 */
+	private final SequenceHierarchy hierarchy;
+
+	/**
+	 * The first row of the stream never increments, rows sent to the error
+	 * hop don't count
+	 */
+	private boolean started;
+
+	private final boolean[] noMatches;
+
+	private final boolean[][] matches;
+
+	private final boolean[][] resets;
+
+	private final boolean[][] failed;
+
+	private final long[][] values;
+
+	private final int[] counts;
+
+	private final boolean[] finished;
+
+	private int active;
+
+	private int published;
+
+	private int collected;
+
+	private boolean computed;
+
+	/**
+	 * @param copies
+	 *            the number of step copies
+	 * @param blockSize
+	 *            the maximum number of rows a copy publishes at once
+	 * @param start
+	 *            the start value of each sequence
+	 * @param increment
+	 *            the increment of each sequence
+	 * @param parents
+	 *            the index of the parent of each sequence, -1 for top level
+	 *            sequences
+	 */
+	public CopyCoordinator(int copies, int blockSize, long[] start, long[] increment, int[] parents) {
+		this.copies = copies;
+		this.blockSize = blockSize;
+		this.width = start.length;
+		SequenceCounter[] counters = new SequenceCounter[width];
+		for (int i = 0; i < width; i++) {
+			counters[i] = SequenceCounter.create(start[i], increment[i], 1);
+		}
+		this.hierarchy = new SequenceHierarchy(counters, parents);
+		this.noMatches = new boolean[width];
+		this.matches = new boolean[copies][blockSize * width];
+		this.resets = new boolean[copies][blockSize * width];
+		this.failed = new boolean[copies][blockSize];
+		this.values = new long[copies][blockSize * width];
+		this.counts = new int[copies];
+		this.finished = new boolean[copies];
+		this.active = copies;
+	}
+
+	/**
+	 * @return the maximum number of rows a copy publishes at once
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Publishes the evaluated block of a copy and waits for the others. A block
+	 * of less than blockSize rows is the last one of that copy.
+	 *
+	 * @param copy
+	 *            the step copy number
+	 * @param rowMatches
+	 *            the condition outcome for each row and sequence of the block
+	 * @param rowResets
+	 *            the reset condition outcome for each row and sequence of the
+	 *            block
+	 * @param rowFailed
+	 *            for each row of the block, whether it went to the error hop;
+	 *            these rows don't move the sequences and get no values
+	 * @param count
+	 *            the number of rows in the block
+	 * @param rowValues
+	 *            receives the value of each sequence for each row of the block
+	 * @param step
+	 *            the publishing step, waiting stops when it is stopped
+	 * @return false when the transformation was stopped while waiting
+	 * @throws InterruptedException
+	 * @throws KettleStepException
+	 *             when a sequence that never starts over has to
+	 */
+	public synchronized boolean publish(int copy, boolean[] rowMatches, boolean[] rowResets, boolean[] rowFailed,
+			int count, long[] rowValues, StepInterface step) throws InterruptedException, KettleStepException {
+		// the previous block has to be collected by everybody first
+		while (computed) {
+			if (step.isStopped()) {
+				return false;
+			}
+			wait(WAIT_MILLIS);
+		}
+
+		System.arraycopy(rowMatches, 0, matches[copy], 0, count * width);
+		System.arraycopy(rowResets, 0, resets[copy], 0, count * width);
+		System.arraycopy(rowFailed, 0, failed[copy], 0, count);
+		counts[copy] = count;
+		published++;
+
+		if (published == active) {
+			compute();
+			computed = true;
+			notifyAll();
+		} else {
+			while (!computed) {
+				if (step.isStopped()) {
+					return false;
+				}
+				wait(WAIT_MILLIS);
+			}
+		}
+
+		System.arraycopy(values[copy], 0, rowValues, 0, count * width);
+		collected++;
+
+		if (collected == active) {
+			nextBlock();
+			notifyAll();
+		}
+		return true;
+	}
+
+	/**
+	 * Walks the block in the original row order
+	 */
+	private void compute() throws KettleStepException {
+		for (int k = 0; k < blockSize; k++) {
+			for (int c = 0; c < copies; c++) {
+				if (k < counts[c] && !failed[c][k]) {
+					int offset = k * width;
+					if (started) {
+						hierarchy.advance(matches[c], resets[c], offset, values[c], offset, false);
+					} else {
+						hierarchy.advance(noMatches, noMatches, 0, values[c], offset, false);
+						started = true;
+					}
+				}
+			}
+		}
+	}
+
+	private void nextBlock() {
+		for (int c = 0; c < copies; c++) {
+			if (!finished[c] && counts[c] < blockSize) {
+				finished[c] = true;
+				active--;
+			}
+			counts[c] = 0;
+		}
+		published = 0;
+		collected = 0;
+		computed = false;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * @author David Law
+ *
+ *         Counts repeated errors, so that each one is logged in full once and
+ *         after that only as a number now and then. Dirty input then costs a
+ *         map lookup per bad row instead of a log line.
+ * 
+ *         Errors are told apart by their message with the values taken out,
+ *         so the same error on different rows is counted once; the first
+ *         message of each is kept as a sample.
+ */
+public class ErrorLogSummary {
+	/**
+	 * Errors told apart, the ones after that are counted together
+	 */
+	static final int MAX_ERRORS = 100;
+
+	static final String OTHER_ERRORS = "...";
+
+	/**
+	 * The parts of a message that usually are values: anything in brackets
+	 * or quotes, and numbers
+	 */
+	private static final Pattern VALUES = Pattern.compile("\\[[^\\]]*\\]|'[^']*'|\"[^\"]*\"|\\d+");
+
+	private final long intervalNanos;
+	private final Map<String, Repeated> counts = new LinkedHashMap<String, Repeated>();
+	private long lastSummary;
+	private long pending;
+
+	/**
+	 * @param intervalNanos
+	 *            the time between two summaries
+	 * @param now
+	 *            System.nanoTime()
+	 */
+	public ErrorLogSummary(long intervalNanos, long now) {
+		this.intervalNanos = intervalNanos;
+		this.lastSummary = now;
+	}
+
+	/**
+	 * Counts an error
+	 * 
+	 * @param error
+	 *            the description of the error
+	 * @return true the first time the error is seen, it should then be logged
+	 *         in full
+	 */
+	public boolean add(String error) {
+		String template = template(error);
+		Repeated repeated = counts.get(template);
+		if (repeated == null) {
+			if (counts.size() < MAX_ERRORS) {
+				counts.put(template, new Repeated(error));
+				return true;
+			}
+			repeated = counts.get(OTHER_ERRORS);
+			if (repeated == null) {
+				repeated = new Repeated(OTHER_ERRORS);
+				counts.put(OTHER_ERRORS, repeated);
+			}
+		}
+		repeated.count++;
+		pending++;
+		return false;
+	}
+
+	/**
+	 * @param error
+	 * @return the message with the values replaced by a question mark
+	 */
+	static String template(String error) {
+		return VALUES.matcher(error).replaceAll("?");
+	}
+
+	/**
+	 * Takes the number of times each error repeated since the last summary
+	 * 
+	 * @param now
+	 *            System.nanoTime()
+	 * @param force
+	 *            takes them even when the interval did not pass yet if true
+	 * @return how often each error repeated by its sample message, empty
+	 *         when it is not time for a summary
+	 */
+	public Map<String, Long> summary(long now, boolean force) {
+		Map<String, Long> summary = new LinkedHashMap<String, Long>();
+		if (pending == 0 || (!force && now - lastSummary < intervalNanos)) {
+			return summary;
+		}
+		for (Repeated repeated : counts.values()) {
+			if (repeated.count > 0) {
+				summary.put(repeated.sample, Long.valueOf(repeated.count));
+				repeated.count = 0;
+			}
+		}
+		pending = 0;
+		lastSummary = now;
+		return summary;
+	}
+
+	/**
+	 * An error and the times it repeated since the last summary
+	 */
+	private static class Repeated {
+		final String sample;
+		long count;
+
+		Repeated(String sample) {
+			this.sample = sample;
+		}
+	}
+}
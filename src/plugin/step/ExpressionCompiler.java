@@ -0,0 +1,326 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.janino.SimpleCompiler;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * @author David Law
+ *
+ *         Compiles an increment expression, a Java boolean expression over the
+ *         input fields, with Janino. The fields the expression uses are read by
+ *         their position, so the generated class runs like hand written code:
+ * 
+ *         <pre>
+ * line.length() &gt; 80 &amp;&amp; isNumeric(line.substring(0, 4))
+ * </pre>
+ * 
+ *         Fields have the Java type of their Kettle type: String, Long, Double,
+ *         BigDecimal, Date, Boolean or byte[]. <code>prev(field, k)</code> is
+ *         the value of a field k rows back, kept by a {@link LagBuffer}.
+ *         Fields become locals of their own, so their names can't clash with
+ *         Java; <code>field("unit price")</code> reads fields whose name is a
+ *         Java keyword, a java.lang class or no identifier at all.
+ */
+public class ExpressionCompiler {
+	private static Class<?> PKG = AddFilterSequence.class; // for i18n needed by Translator2!!
+
+	private static final String CLASS_NAME = "AddFilterSequenceExpression";
+
+	/**
+	 * prev(field, k), field("name") or an identifier, looked for outside the
+	 * string and character literals
+	 */
+	private static final Pattern TOKEN = Pattern.compile(LagBuffer.PREV.pattern()
+			+ "|\\bfield\\s*\\(\\s*(\"[^\"]*\")\\s*\\)|(?<![A-Za-z0-9_$])([A-Za-z_$][A-Za-z0-9_$]*)");
+
+	private static final int PREV_FIELD = 1;
+	private static final int PREV_ROWS = 2;
+	private static final int QUOTED_FIELD = 3;
+	private static final int IDENTIFIER = 4;
+
+	/**
+	 * Identifiers that are never taken for a field
+	 */
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("abstract", "assert", "boolean",
+			"break", "byte", "case", "catch", "char", "class", "const", "continue", "default", "do", "double", "else",
+			"enum", "extends", "final", "finally", "float", "for", "goto", "if", "implements", "import", "instanceof",
+			"int", "interface", "long", "native", "new", "package", "private", "protected", "public", "return",
+			"short", "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws", "transient",
+			"try", "void", "volatile", "while", "true", "false", "null"));
+
+	private ExpressionCompiler() {
+	}
+
+	/**
+	 * @param expression
+	 * @param rowMeta
+	 *            the layout of the rows the expression is evaluated on
+	 * @return the compiled expression
+	 * @throws KettleException
+	 *             when the expression does not compile
+	 */
+	public static RowPredicate compile(String expression, RowMetaInterface rowMeta) throws KettleException {
+		return compile(expression, rowMeta, new LagBuffer(new String[] { expression }, rowMeta, 0));
+	}
+
+	/**
+	 * @param expression
+	 * @param rowMeta
+	 *            the layout of the rows the expression is evaluated on
+	 * @param lag
+	 *            the values of the previous rows the expression refers to
+	 * @return the compiled expression
+	 * @throws KettleException
+	 *             when the expression does not compile
+	 */
+	public static RowPredicate compile(String expression, RowMetaInterface rowMeta, LagBuffer lag)
+			throws KettleException {
+		String source = generate(expression, rowMeta, lag);
+		try {
+			SimpleCompiler compiler = new SimpleCompiler();
+			compiler.setParentClassLoader(ExpressionPredicate.class.getClassLoader());
+			compiler.cook(source);
+			ExpressionPredicate predicate = (ExpressionPredicate) compiler.getClassLoader().loadClass(CLASS_NAME)
+					.getDeclaredConstructor().newInstance();
+			ValueMetaInterface[] valueMetas = new ValueMetaInterface[rowMeta.size()];
+			for (int i = 0; i < valueMetas.length; i++) {
+				valueMetas[i] = rowMeta.getValueMeta(i);
+			}
+			predicate.setValueMetas(valueMetas);
+			predicate.setLag(lag);
+			return predicate;
+		} catch (Exception e) {
+			// Janino moved its exceptions between versions
+			throw new KettleException(BaseMessages.getString(PKG, "AddFilterSequence.Exception.InvalidExpression",
+					expression, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * @param expression
+	 * @param rowMeta
+	 * @param lag
+	 * @return the source of a class evaluating the expression
+	 * @throws KettleException
+	 *             when field("name") names an unknown field
+	 */
+	static String generate(String expression, RowMetaInterface rowMeta, LagBuffer lag) throws KettleException {
+		Map<String, Integer> fields = new HashMap<String, Integer>();
+		for (int i = 0; i < rowMeta.size(); i++) {
+			String name = rowMeta.getValueMeta(i).getName();
+			if (!fields.containsKey(name)) {
+				fields.put(name, Integer.valueOf(i));
+			}
+		}
+
+		// the fields become locals f$<index>, prev(field, k) a typed lookup in
+		// the lag buffer
+		boolean[] used = new boolean[rowMeta.size()];
+		String code = mask(expression);
+		StringBuilder rewritten = new StringBuilder(expression.length() + 32);
+		int last = 0;
+		Matcher matcher = TOKEN.matcher(code);
+		while (matcher.find()) {
+			String replacement = null;
+			if (matcher.group(PREV_FIELD) != null) {
+				int slot = lag.getSlot(getName(expression, matcher, PREV_FIELD));
+				replacement = "((" + getJavaType(lag.getValueMeta(slot).getType()) + ") prev(" + slot + ", "
+						+ matcher.group(PREV_ROWS) + "))";
+			} else if (matcher.group(QUOTED_FIELD) != null) {
+				String name = getName(expression, matcher, QUOTED_FIELD);
+				int index = rowMeta.indexOfValue(name);
+				if (index < 0) {
+					throw new KettleException(BaseMessages.getString(PKG,
+							"AddFilterSequence.Exception.UnknownExpressionField", name));
+				}
+				used[index] = true;
+				replacement = getLocal(index);
+			} else {
+				String identifier = matcher.group(IDENTIFIER);
+				Integer index = fields.get(identifier);
+				if (index != null && !RESERVED.contains(identifier) && !isMember(code, matcher.start())
+						&& !isCall(code, matcher.end()) && !isStaticAccess(code, identifier, matcher.end())) {
+					used[index.intValue()] = true;
+					replacement = getLocal(index.intValue());
+				}
+			}
+			if (replacement != null) {
+				rewritten.append(expression, last, matcher.start()).append(replacement);
+				last = matcher.end();
+			}
+		}
+		rewritten.append(expression.substring(last));
+
+		StringBuilder source = new StringBuilder(256);
+		source.append("public class ").append(CLASS_NAME).append(" extends ")
+				.append(ExpressionPredicate.class.getName()).append(" {\n");
+		source.append("  public boolean evaluate(Object[] row) throws ")
+				.append("org.pentaho.di.core.exception.KettleValueException {\n");
+		for (int i = 0; i < rowMeta.size(); i++) {
+			if (!used[i]) {
+				continue;
+			}
+			ValueMetaInterface valueMeta = rowMeta.getValueMeta(i);
+			String type = getJavaType(valueMeta.getType());
+			source.append("    ").append(type).append(' ').append(getLocal(i)).append(" = (").append(type)
+					.append(") ");
+			if (valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+				source.append("row[").append(i).append("];\n");
+			} else {
+				source.append("valueMetas[").append(i).append("].convertToNormalStorageType(row[").append(i)
+						.append("]);\n");
+			}
+		}
+		source.append("    return ").append(rewritten).append(";\n");
+		source.append("  }\n");
+		source.append("}\n");
+		return source.toString();
+	}
+
+	/**
+	 * @param expression
+	 * @return the expression with the contents of its string and character
+	 *         literals blanked out, at the same positions
+	 */
+	static String mask(String expression) {
+		char[] chars = expression.toCharArray();
+		char quote = 0;
+		for (int i = 0; i < chars.length; i++) {
+			char c = chars[i];
+			if (quote == 0) {
+				if (c == '"' || c == '\'') {
+					quote = c;
+				}
+			} else if (c == quote) {
+				quote = 0;
+			} else {
+				chars[i] = ' ';
+				if (c == '\\' && i + 1 < chars.length) {
+					chars[++i] = ' ';
+				}
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @param expression
+	 * @param matcher
+	 *            matching the masked expression
+	 * @param group
+	 * @return the field name of the group, without the quotes if it had them
+	 */
+	static String getName(String expression, Matcher matcher, int group) {
+		String name = expression.substring(matcher.start(group), matcher.end(group));
+		if (name.length() >= 2 && name.charAt(0) == '"') {
+			return name.substring(1, name.length() - 1);
+		}
+		return name;
+	}
+
+	private static String getLocal(int index) {
+		return "f$" + index;
+	}
+
+	/**
+	 * @return true when the identifier at the position follows a dot, as in
+	 *         line.length()
+	 */
+	private static boolean isMember(String code, int position) {
+		int i = position - 1;
+		while (i >= 0 && Character.isWhitespace(code.charAt(i))) {
+			i--;
+		}
+		return i >= 0 && code.charAt(i) == '.';
+	}
+
+	/**
+	 * @return true when the identifier ending at the position is a java.lang
+	 *         class followed by a dot, as in String.valueOf(amount)
+	 */
+	private static boolean isStaticAccess(String code, String identifier, int position) {
+		int i = position;
+		while (i < code.length() && Character.isWhitespace(code.charAt(i))) {
+			i++;
+		}
+		if (i == code.length() || code.charAt(i) != '.' || !Character.isUpperCase(identifier.charAt(0))) {
+			return false;
+		}
+		try {
+			Class.forName("java.lang." + identifier);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true when the identifier ending at the position is called, as in
+	 *         isNumeric(line)
+	 */
+	private static boolean isCall(String code, int position) {
+		int i = position;
+		while (i < code.length() && Character.isWhitespace(code.charAt(i))) {
+			i++;
+		}
+		return i < code.length() && code.charAt(i) == '(';
+	}
+
+	private static String getJavaType(int type) {
+		switch (type) {
+		case ValueMetaInterface.TYPE_STRING:
+			return "java.lang.String";
+		case ValueMetaInterface.TYPE_INTEGER:
+			return "java.lang.Long";
+		case ValueMetaInterface.TYPE_NUMBER:
+			return "java.lang.Double";
+		case ValueMetaInterface.TYPE_BIGNUMBER:
+			return "java.math.BigDecimal";
+		case ValueMetaInterface.TYPE_DATE:
+		case ValueMetaInterface.TYPE_TIMESTAMP:
+			return "java.util.Date";
+		case ValueMetaInterface.TYPE_BOOLEAN:
+			return "java.lang.Boolean";
+		case ValueMetaInterface.TYPE_BINARY:
+			return "byte[]";
+		default:
+			return "java.lang.Object";
+		}
+	}
+}
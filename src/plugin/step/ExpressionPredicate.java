@@ -0,0 +1,91 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * @author David Law
+ *
+ *         Base of the classes the {@link ExpressionCompiler} generates for an
+ *         increment expression, with helpers the expression can call
+ */
+public abstract class ExpressionPredicate extends RowPredicate {
+	/**
+	 * Layout of the input fields, to convert lazily converted values
+	 */
+	protected ValueMetaInterface[] valueMetas;
+
+	/**
+	 * Values of the previous rows
+	 */
+	private LagBuffer lag;
+
+	void setValueMetas(ValueMetaInterface[] valueMetas) {
+		this.valueMetas = valueMetas;
+	}
+
+	void setLag(LagBuffer lag) {
+		this.lag = lag;
+	}
+
+	/**
+	 * What <code>prev(field, k)</code> in the expression is compiled to
+	 * 
+	 * @param slot
+	 *            the position of the field in the {@link LagBuffer}
+	 * @param k
+	 * @return the value of the field k rows back, null before there were k
+	 *         rows
+	 */
+	protected Object prev(int slot, int k) {
+		return lag.get(slot, k);
+	}
+
+	/**
+	 * @param value
+	 * @return true when the value is not empty and only has digits
+	 */
+	protected static boolean isNumeric(String value) {
+		if (value == null || value.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param value
+	 * @return true when the value is null or empty
+	 */
+	protected static boolean isEmpty(String value) {
+		return value == null || value.length() == 0;
+	}
+}
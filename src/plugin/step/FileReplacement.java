@@ -0,0 +1,112 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author David Law
+ *
+ *         Replaces a file with a new version written next to it. Where the
+ *         rename does not go over an existing file (Windows), the old version
+ *         is moved aside to a backup first, so there is no moment without
+ *         either version on disk; readers go through {@link #existing(File)}
+ *         to pick up the backup when a crash came in between.
+ */
+public class FileReplacement {
+	private FileReplacement() {
+	}
+
+	/**
+	 * @param file
+	 * @return the backup of the file while it is being replaced
+	 */
+	public static File backup(File file) {
+		return new File(file.getPath() + ".bak");
+	}
+
+	/**
+	 * Renames the temporary file over the file
+	 * 
+	 * @param temporary
+	 *            the new version, complete and synced
+	 * @param file
+	 * @throws IOException
+	 *             when the file can't be replaced, the old version is then
+	 *             still in place
+	 */
+	public static void replace(File temporary, File file) throws IOException {
+		if (temporary.renameTo(file)) {
+			return;
+		}
+
+		// the file is there (a rename onto a missing file goes through), so a
+		// backup left by an earlier crash is outdated
+		File backup = backup(file);
+		if (backup.exists() && !backup.delete()) {
+			throw new IOException("Unable to delete " + backup);
+		}
+		if (!file.renameTo(backup)) {
+			throw new IOException("Unable to rename " + file + " to " + backup);
+		}
+		if (!temporary.renameTo(file)) {
+			if (!backup.renameTo(file)) {
+				throw new IOException("Unable to rename " + temporary + " to " + file + ", the old version is in "
+						+ backup);
+			}
+			throw new IOException("Unable to rename " + temporary + " to " + file);
+		}
+		backup.delete();
+	}
+
+	/**
+	 * @param file
+	 * @return the file, or its backup when a replacement broke off between
+	 *         moving the old version aside and putting the new one in place
+	 */
+	public static File existing(File file) {
+		if (!file.exists()) {
+			File backup = backup(file);
+			if (backup.exists()) {
+				return backup;
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Deletes the file and any backup of it
+	 * 
+	 * @param file
+	 * @return false when either is still there
+	 */
+	public static boolean delete(File file) {
+		File backup = backup(file);
+		boolean deleted = !file.exists() || file.delete();
+		return (!backup.exists() || backup.delete()) && deleted;
+	}
+}
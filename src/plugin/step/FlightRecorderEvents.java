@@ -0,0 +1,264 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author David Law
+ *
+ *         Java Flight Recorder events of one step copy:
+ *         <ul>
+ *         <li>{@value #SLOW_ROW}: a row whose conditions took longer than the
+ *         threshold to evaluate, with the values of the row</li>
+ *         <li>{@value #STATISTICS}: rows and matches since the previous event,
+ *         about once a second</li>
+ *         </ul>
+ * 
+ *         JFR (jdk.jfr, Java 11 and 8u262 on) is used through reflection, so
+ *         the plugin still builds for and runs on Java versions without it.
+ *         Whether the events are enabled in a recording is only checked when
+ *         the statistics are due; until a recording asks for slow rows, rows
+ *         are not timed at all.
+ */
+public class FlightRecorderEvents {
+
+	static final String SLOW_ROW = "plugin.step.AddFilterSequence.SlowRow";
+
+	static final String STATISTICS = "plugin.step.AddFilterSequence.Statistics";
+
+	/**
+	 * Longer row texts are cut off
+	 */
+	private static final int MAX_ROW_TEXT = 4000;
+
+	private static final EventTypes TYPES = EventTypes.create();
+
+	private final String stepName;
+	private final Integer copy;
+
+	private boolean slowRowEnabled;
+	private long lastTime;
+	private long lastRows;
+	private long lastMatches;
+
+	/**
+	 * @param stepName
+	 * @param copy
+	 * @param now
+	 *            System.nanoTime(), the start of the first statistics interval
+	 */
+	public FlightRecorderEvents(String stepName, int copy, long now) {
+		this.stepName = stepName;
+		this.copy = Integer.valueOf(copy);
+		this.lastTime = now;
+		this.slowRowEnabled = TYPES != null && TYPES.isEnabled(TYPES.slowRow);
+	}
+
+	/**
+	 * @return true when a recording wants slow rows, the rows then have to be
+	 *         timed
+	 */
+	public boolean isSlowRowEnabled() {
+		return slowRowEnabled;
+	}
+
+	/**
+	 * @param nanos
+	 *            the evaluation time of the row
+	 * @param row
+	 *            the values of the row
+	 */
+	public void slowRow(long nanos, String row) {
+		if (slowRowEnabled) {
+			String text = row != null && row.length() > MAX_ROW_TEXT ? row.substring(0, MAX_ROW_TEXT) : row;
+			TYPES.commit(TYPES.slowRow, stepName, copy, Long.valueOf(nanos), text);
+		}
+	}
+
+	/**
+	 * Emits the statistics of the interval that ends now and checks which
+	 * events are enabled
+	 * 
+	 * @param now
+	 *            System.nanoTime()
+	 * @param rows
+	 *            the number of rows evaluated so far
+	 * @param matches
+	 *            the number of condition matches so far
+	 */
+	public void statistics(long now, long rows, long matches) {
+		if (TYPES == null) {
+			return;
+		}
+		if (TYPES.isEnabled(TYPES.statistics)) {
+			TYPES.commit(TYPES.statistics, stepName, copy, Long.valueOf(now - lastTime),
+					Long.valueOf(rows - lastRows), Long.valueOf(matches - lastMatches));
+		}
+		lastTime = now;
+		lastRows = rows;
+		lastMatches = matches;
+		slowRowEnabled = TYPES.isEnabled(TYPES.slowRow);
+	}
+
+	/**
+	 * The event types, defined once per JVM through jdk.jfr.EventFactory
+	 */
+	private static final class EventTypes {
+		private final Object slowRow;
+		private final Object statistics;
+		private final Method newEvent;
+		private final Method set;
+		private final Method commit;
+		private final Method isEnabled;
+
+		private volatile boolean failed;
+
+		private EventTypes(Object slowRow, Object statistics, Method newEvent, Method set, Method commit,
+				Method isEnabled) {
+			this.slowRow = slowRow;
+			this.statistics = statistics;
+			this.newEvent = newEvent;
+			this.set = set;
+			this.commit = commit;
+			this.isEnabled = isEnabled;
+		}
+
+		/**
+		 * @return the event types, null when JFR is not available
+		 */
+		static EventTypes create() {
+			try {
+				Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+				Class<?> eventClass = Class.forName("jdk.jfr.Event");
+				Definition definition = new Definition();
+
+				Object slowRow = definition.create(SLOW_ROW, "Slow Row",
+						"Row whose conditions took longer than the threshold to evaluate",
+						new Object[] { String.class, "step", "Step", null },
+						new Object[] { int.class, "copy", "Copy", null },
+						new Object[] { long.class, "evaluationTime", "Evaluation Time", "NANOSECONDS" },
+						new Object[] { String.class, "row", "Row", null });
+				Object statistics = definition.create(STATISTICS, "Statistics",
+						"Rows evaluated and condition matches since the previous event",
+						new Object[] { String.class, "step", "Step", null },
+						new Object[] { int.class, "copy", "Copy", null },
+						new Object[] { long.class, "interval", "Interval", "NANOSECONDS" },
+						new Object[] { long.class, "rows", "Rows", null },
+						new Object[] { long.class, "matches", "Matches", null });
+
+				return new EventTypes(slowRow, statistics, factoryClass.getMethod("newEvent"),
+						eventClass.getMethod("set", int.class, Object.class), eventClass.getMethod("commit"),
+						eventClass.getMethod("isEnabled"));
+			} catch (ClassNotFoundException e) {
+				return null;
+			} catch (Exception e) {
+				// a JFR that does not look like the one we know
+				return null;
+			}
+		}
+
+		boolean isEnabled(Object factory) {
+			if (failed) {
+				return false;
+			}
+			try {
+				return ((Boolean) isEnabled.invoke(newEvent.invoke(factory))).booleanValue();
+			} catch (Exception e) {
+				failed = true;
+				return false;
+			}
+		}
+
+		void commit(Object factory, Object... values) {
+			if (failed) {
+				return;
+			}
+			try {
+				Object event = newEvent.invoke(factory);
+				for (int i = 0; i < values.length; i++) {
+					set.invoke(event, Integer.valueOf(i), values[i]);
+				}
+				commit.invoke(event);
+			} catch (Exception e) {
+				failed = true;
+			}
+		}
+	}
+
+	/**
+	 * Builds event types from a name, label, description and fields of
+	 * { type, name, label, timespan unit or null }
+	 */
+	private static final class Definition {
+		private final Method create;
+		private final Constructor<?> annotation;
+		private final Constructor<?> valueDescriptor;
+		private final Class<?> nameClass;
+		private final Class<?> labelClass;
+		private final Class<?> descriptionClass;
+		private final Class<?> categoryClass;
+		private final Class<?> timespanClass;
+		private final Class<?> stackTraceClass;
+
+		Definition() throws ClassNotFoundException, NoSuchMethodException {
+			Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+			annotation = annotationClass.getConstructor(Class.class, Object.class);
+			valueDescriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+			nameClass = Class.forName("jdk.jfr.Name");
+			labelClass = Class.forName("jdk.jfr.Label");
+			descriptionClass = Class.forName("jdk.jfr.Description");
+			categoryClass = Class.forName("jdk.jfr.Category");
+			timespanClass = Class.forName("jdk.jfr.Timespan");
+			stackTraceClass = Class.forName("jdk.jfr.StackTrace");
+		}
+
+		Object create(String name, String label, String description, Object[]... fields) throws Exception {
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation.newInstance(nameClass, name));
+			annotations.add(annotation.newInstance(labelClass, label));
+			annotations.add(annotation.newInstance(descriptionClass, description));
+			annotations.add(annotation.newInstance(categoryClass, new String[] { "Kettle", "Add Filter Sequence" }));
+			annotations.add(annotation.newInstance(stackTraceClass, Boolean.FALSE));
+
+			List<Object> descriptors = new ArrayList<Object>();
+			for (Object[] field : fields) {
+				List<Object> fieldAnnotations = new ArrayList<Object>();
+				fieldAnnotations.add(annotation.newInstance(labelClass, field[2]));
+				if (field[3] != null) {
+					fieldAnnotations.add(annotation.newInstance(timespanClass, field[3]));
+				}
+				descriptors.add(valueDescriptor.newInstance(field[0], field[1], fieldAnnotations));
+			}
+			return create.invoke(null, annotations, descriptors);
+		}
+	}
+}
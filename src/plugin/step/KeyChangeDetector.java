@@ -0,0 +1,204 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * @author David Law
+ *
+ *         Tells whether the key fields of a row differ from those of the
+ *         previous row. Field positions are looked up once, and the common
+ *         types are compared directly instead of through ValueMeta.compare().
+ */
+public class KeyChangeDetector {
+	private static Class<?> PKG = AddFilterSequenceMeta.class; // for i18n purposes
+
+	private static final int KIND_OTHER = 0;
+	private static final int KIND_STRING = 1;
+	private static final int KIND_INTEGER = 2;
+	private static final int KIND_NUMBER = 3;
+	private static final int KIND_DATE = 4;
+	private static final int KIND_BOOLEAN = 5;
+	private static final int KIND_BINARY_STRING = 6;
+
+	private final int[] indexes;
+
+	private final ValueMetaInterface[] valueMetas;
+
+	private final int[] kinds;
+
+	/**
+	 * Key values of the previous row, null before the first row
+	 */
+	private Object[] previous;
+
+	/**
+	 * @param rowMeta
+	 *            the layout of the rows
+	 * @param keyFields
+	 *            the names of the key fields
+	 * @throws KettleStepException
+	 *             when a key field is not in the rows
+	 */
+	public KeyChangeDetector(RowMetaInterface rowMeta, String[] keyFields) throws KettleStepException {
+		indexes = new int[keyFields.length];
+		valueMetas = new ValueMetaInterface[keyFields.length];
+		kinds = new int[keyFields.length];
+		for (int k = 0; k < keyFields.length; k++) {
+			indexes[k] = rowMeta.indexOfValue(keyFields[k]);
+			if (indexes[k] < 0) {
+				throw new KettleStepException(
+						BaseMessages.getString(PKG, "AddFilterSequenceMeta.Exception.KeyFieldNotFound", keyFields[k]));
+			}
+			valueMetas[k] = rowMeta.getValueMeta(indexes[k]);
+			kinds[k] = kind(valueMetas[k]);
+		}
+	}
+
+	private static int kind(ValueMetaInterface valueMeta) {
+		if (valueMeta.isStorageBinaryString()) {
+			return KIND_BINARY_STRING;
+		}
+		if (valueMeta.getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+			return KIND_OTHER;
+		}
+		switch (valueMeta.getType()) {
+		case ValueMetaInterface.TYPE_STRING:
+			return valueMeta.isCaseInsensitive() ? KIND_OTHER : KIND_STRING;
+		case ValueMetaInterface.TYPE_INTEGER:
+			return KIND_INTEGER;
+		case ValueMetaInterface.TYPE_NUMBER:
+			return KIND_NUMBER;
+		case ValueMetaInterface.TYPE_DATE:
+			return KIND_DATE;
+		case ValueMetaInterface.TYPE_BOOLEAN:
+			return KIND_BOOLEAN;
+		default:
+			return KIND_OTHER;
+		}
+	}
+
+	/**
+	 * @return true when there are key fields to watch
+	 */
+	public boolean hasKeys() {
+		return indexes.length > 0;
+	}
+
+	/**
+	 * @return the layout of the key values
+	 */
+	public RowMetaInterface getKeyRowMeta() {
+		RowMetaInterface keyRowMeta = new RowMeta();
+		for (ValueMetaInterface valueMeta : valueMetas) {
+			keyRowMeta.addValueMeta(valueMeta.clone());
+		}
+		return keyRowMeta;
+	}
+
+	/**
+	 * @return the key values of the previous row, null before the first row
+	 */
+	public Object[] getPrevious() {
+		return previous == null ? null : previous.clone();
+	}
+
+	/**
+	 * Continues after a row with the given key values, e.g. from a checkpoint
+	 * 
+	 * @param previous
+	 *            the key values, null to start as if before the first row
+	 */
+	public void setPrevious(Object[] previous) {
+		this.previous = previous == null ? null : previous.clone();
+	}
+
+	/**
+	 * Compares the keys of the row with those of the previous row and
+	 * remembers them for the next one
+	 * 
+	 * @param row
+	 * @return true when any key differs from the previous row, false for the
+	 *         first row
+	 * @throws KettleValueException
+	 */
+	public boolean changed(Object[] row) throws KettleValueException {
+		if (previous == null) {
+			previous = new Object[indexes.length];
+			for (int k = 0; k < indexes.length; k++) {
+				previous[k] = row[indexes[k]];
+			}
+			return false;
+		}
+
+		boolean changed = false;
+		for (int k = 0; k < indexes.length; k++) {
+			Object value = row[indexes[k]];
+			if (!changed && !equal(k, previous[k], value)) {
+				changed = true;
+			}
+			previous[k] = value;
+		}
+		return changed;
+	}
+
+	private boolean equal(int k, Object a, Object b) throws KettleValueException {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			// null handling, like empty strings being null, is left to Kettle
+			return valueMetas[k].compare(a, b) == 0;
+		}
+		switch (kinds[k]) {
+		case KIND_STRING:
+			return a.equals(b);
+		case KIND_INTEGER:
+			return ((Long) a).longValue() == ((Long) b).longValue();
+		case KIND_NUMBER:
+			return Double.compare(((Double) a).doubleValue(), ((Double) b).doubleValue()) == 0;
+		case KIND_DATE:
+			return ((Date) a).getTime() == ((Date) b).getTime();
+		case KIND_BOOLEAN:
+			return ((Boolean) a).booleanValue() == ((Boolean) b).booleanValue();
+		case KIND_BINARY_STRING:
+			// the same bytes are the same value, different bytes may still
+			// convert to the same value
+			return Arrays.equals((byte[]) a, (byte[]) b) || valueMetas[k].compare(a, b) == 0;
+		default:
+			return valueMetas[k].compare(a, b) == 0;
+		}
+	}
+}
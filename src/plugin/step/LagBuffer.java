@@ -0,0 +1,191 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+package plugin.step;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * @author David Law
+ *
+ *         Keeps the values of the last rows for the fields increment
+ *         expressions refer to with <code>prev(field, k)</code>, in a ring of
+ *         as many rows as are kept. Only the referenced fields are copied, the
+ *         rows themselves are not held on to.
+ */
+public class LagBuffer {
+	private static Class<?> PKG = AddFilterSequenceMeta.class; // for i18n purposes
+
+	/**
+	 * <code>prev(field, k)</code> or <code>prev("field name", k)</code> in an
+	 * expression, with its string literals masked
+	 */
+	static final Pattern PREV = Pattern
+			.compile("\\bprev\\s*\\(\\s*([A-Za-z_$][A-Za-z0-9_$]*|\"[^\"]*\")\\s*,\\s*([0-9]+)\\s*\\)");
+
+	private final String[] fieldNames;
+
+	private final int[] indexes;
+
+	private final ValueMetaInterface[] valueMetas;
+
+	/**
+	 * Values of the kept rows per field, the newest at position newest
+	 */
+	private final Object[][] rows;
+
+	private int newest = -1;
+
+	private int count;
+
+	/**
+	 * @param expressions
+	 *            the increment expressions, null for sequences without one
+	 * @param rowMeta
+	 *            the layout of the rows
+	 * @param size
+	 *            the number of rows kept
+	 * @throws KettleStepException
+	 *             when an expression refers to an unknown field or further back
+	 *             than the rows kept
+	 */
+	public LagBuffer(String[] expressions, RowMetaInterface rowMeta, int size) throws KettleStepException {
+		List<String> fields = new ArrayList<String>();
+		for (String expression : expressions) {
+			if (expression == null) {
+				continue;
+			}
+			Matcher matcher = PREV.matcher(ExpressionCompiler.mask(expression));
+			while (matcher.find()) {
+				String field = ExpressionCompiler.getName(expression, matcher, 1);
+				int k;
+				try {
+					k = Integer.parseInt(matcher.group(2));
+				} catch (NumberFormatException e) {
+					k = -1; // more rows back than an int holds
+				}
+				if (k < 1 || k > size) {
+					throw new KettleStepException(BaseMessages.getString(PKG,
+							"AddFilterSequenceMeta.Exception.PreviousRowOutOfRange",
+							expression.substring(matcher.start(), matcher.end()),
+							Integer.toString(size)));
+				}
+				if (rowMeta.indexOfValue(field) < 0) {
+					throw new KettleStepException(BaseMessages.getString(PKG,
+							"AddFilterSequenceMeta.Exception.UnknownPreviousField", field));
+				}
+				if (!fields.contains(field)) {
+					fields.add(field);
+				}
+			}
+		}
+
+		fieldNames = fields.toArray(new String[fields.size()]);
+		indexes = new int[fieldNames.length];
+		valueMetas = new ValueMetaInterface[fieldNames.length];
+		for (int i = 0; i < fieldNames.length; i++) {
+			indexes[i] = rowMeta.indexOfValue(fieldNames[i]);
+			valueMetas[i] = rowMeta.getValueMeta(indexes[i]);
+		}
+		rows = new Object[fieldNames.length == 0 ? 0 : size][fieldNames.length];
+	}
+
+	/**
+	 * @param expression
+	 * @return true when the expression refers to previous rows
+	 */
+	public static boolean isUsedBy(String expression) {
+		return expression != null && PREV.matcher(ExpressionCompiler.mask(expression)).find();
+	}
+
+	/**
+	 * @param field
+	 * @return the position of the field's values, -1 when it is not kept
+	 */
+	public int getSlot(String field) {
+		for (int i = 0; i < fieldNames.length; i++) {
+			if (fieldNames[i].equals(field)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param slot
+	 * @return the layout of the values kept at the slot
+	 */
+	public ValueMetaInterface getValueMeta(int slot) {
+		return valueMetas[slot];
+	}
+
+	/**
+	 * Keeps the values of a row, dropping those of the oldest one
+	 * 
+	 * @param row
+	 * @throws KettleValueException
+	 *             when a lazily converted value does not convert
+	 */
+	public void add(Object[] row) throws KettleValueException {
+		if (rows.length == 0) {
+			return;
+		}
+		newest = newest + 1 == rows.length ? 0 : newest + 1;
+		Object[] values = rows[newest];
+		for (int i = 0; i < indexes.length; i++) {
+			Object value = row[indexes[i]];
+			if (valueMetas[i].getStorageType() != ValueMetaInterface.STORAGE_TYPE_NORMAL) {
+				value = valueMetas[i].convertToNormalStorageType(value);
+			}
+			values[i] = value;
+		}
+		if (count < rows.length) {
+			count++;
+		}
+	}
+
+	/**
+	 * @param slot
+	 * @param k
+	 *            1 for the previous row, 2 for the one before
+	 * @return the value of the field k rows back, null before there were k
+	 *         rows
+	 */
+	public Object get(int slot, int k) {
+		if (k > count) {
+			return null;
+		}
+		int position = newest - k + 1;
+		return rows[position < 0 ? position + rows.length : position][slot];
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.Arrays;
+
+/**
+ * @author David Law
+ *
+ *         Set of primitive longs with open addressing, no boxing on lookup
+ */
+public class LongHashSet {
+
+	private long[] table;
+
+	private int mask;
+
+	private int size;
+
+	/**
+	 * 0 marks a free slot, so it is kept aside
+	 */
+	private boolean containsZero;
+
+	/**
+	 * @param expected
+	 *            the expected number of values
+	 */
+	public LongHashSet(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		table = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Spreads the bits of the value over the whole hash
+	 */
+	static long mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * @param value
+	 * @return true when the value was not in the set yet
+	 */
+	public boolean add(long value) {
+		if (value == 0L) {
+			boolean added = !containsZero;
+			containsZero = true;
+			return added;
+		}
+		int slot = (int) mix(value) & mask;
+		while (table[slot] != 0L) {
+			if (table[slot] == value) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = value;
+		if (++size * 2 > table.length) {
+			grow();
+		}
+		return true;
+	}
+
+	private void grow() {
+		long[] old = table;
+		table = new long[old.length * 2];
+		mask = table.length - 1;
+		size = 0;
+		for (long value : old) {
+			if (value != 0L) {
+				add(value);
+			}
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return true when the value is in the set
+	 */
+	public boolean contains(long value) {
+		if (value == 0L) {
+			return containsZero;
+		}
+		int slot = (int) mix(value) & mask;
+		long found;
+		while ((found = table[slot]) != 0L) {
+			if (found == value) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int size() {
+		return containsZero ? size + 1 : size;
+	}
+
+	/**
+	 * Empties the set
+	 */
+	public void clear() {
+		Arrays.fill(table, 0L);
+		size = 0;
+		containsZero = false;
+	}
+}
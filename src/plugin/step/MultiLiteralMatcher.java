@@ -0,0 +1,224 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * @author David Law
+ *
+ *         Aho-Corasick automaton telling whether a string contains any of a
+ *         set of literals, or starts with any of another set. The string is
+ *         scanned once, whatever the number of literals. Transitions are
+ *         resolved up front into one table, so every character costs a single
+ *         lookup.
+ *
+ *         Characters are mapped onto classes first: one per character used in
+ *         the literals and one for all others.
+ */
+public class MultiLiteralMatcher {
+
+	/**
+	 * Class of each ASCII character, 0 for characters in no literal
+	 */
+	private final int[] asciiClasses = new int[128];
+
+	/**
+	 * Other characters used in the literals, sorted. Their class is their
+	 * position plus firstOtherClass.
+	 */
+	private final char[] otherChars;
+
+	private final int firstOtherClass;
+
+	private final int nrClasses;
+
+	/**
+	 * Next state for each state and character class
+	 */
+	private final int[] delta;
+
+	/**
+	 * Length of the literal prefix each state stands for
+	 */
+	private final int[] depth;
+
+	/**
+	 * States where a contained literal ends, directly or as a suffix
+	 */
+	private final boolean[] containsEnd;
+
+	/**
+	 * States where a prefix literal ends
+	 */
+	private final boolean[] prefixEnd;
+
+	/**
+	 * An empty literal matches every string
+	 */
+	private final boolean matchesAll;
+
+	/**
+	 * @param contains
+	 *            literals that may occur anywhere
+	 * @param prefixes
+	 *            literals that have to occur at the start
+	 */
+	public MultiLiteralMatcher(String[] contains, String[] prefixes) {
+		boolean empty = false;
+		int totalLength = 0;
+		TreeSet<Character> others = new TreeSet<Character>();
+		int nextClass = 1;
+		for (String[] literals : new String[][] { contains, prefixes }) {
+			for (String literal : literals) {
+				empty |= literal.length() == 0;
+				totalLength += literal.length();
+				for (int i = 0; i < literal.length(); i++) {
+					char c = literal.charAt(i);
+					if (c < 128) {
+						if (asciiClasses[c] == 0) {
+							asciiClasses[c] = nextClass++;
+						}
+					} else {
+						others.add(Character.valueOf(c));
+					}
+				}
+			}
+		}
+		matchesAll = empty;
+		firstOtherClass = nextClass;
+		otherChars = new char[others.size()];
+		int o = 0;
+		for (Character c : others) {
+			otherChars[o++] = c.charValue();
+		}
+		nrClasses = firstOtherClass + otherChars.length;
+
+		// The trie, state 0 is the root
+		int maxStates = totalLength + 1;
+		int[] trie = new int[maxStates * nrClasses];
+		Arrays.fill(trie, -1);
+		int[] depths = new int[maxStates];
+		boolean[] containsEnds = new boolean[maxStates];
+		boolean[] prefixEnds = new boolean[maxStates];
+		int states = 1;
+		for (int set = 0; set < 2; set++) {
+			for (String literal : set == 0 ? contains : prefixes) {
+				int state = 0;
+				for (int i = 0; i < literal.length(); i++) {
+					int slot = state * nrClasses + classOf(literal.charAt(i));
+					if (trie[slot] < 0) {
+						depths[states] = i + 1;
+						trie[slot] = states++;
+					}
+					state = trie[slot];
+				}
+				if (set == 0) {
+					containsEnds[state] = true;
+				} else {
+					prefixEnds[state] = true;
+				}
+			}
+		}
+
+		// Breadth first, fill the missing transitions with those of the
+		// failure state
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < nrClasses; c++) {
+			int next = trie[c];
+			if (next < 0) {
+				trie[c] = 0;
+			} else {
+				fail[next] = 0;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			int state = queue[head++];
+			containsEnds[state] |= containsEnds[fail[state]];
+			for (int c = 0; c < nrClasses; c++) {
+				int slot = state * nrClasses + c;
+				int next = trie[slot];
+				int fallback = trie[fail[state] * nrClasses + c];
+				if (next < 0) {
+					trie[slot] = fallback;
+				} else {
+					fail[next] = fallback;
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		delta = Arrays.copyOf(trie, states * nrClasses);
+		depth = Arrays.copyOf(depths, states);
+		containsEnd = Arrays.copyOf(containsEnds, states);
+		prefixEnd = Arrays.copyOf(prefixEnds, states);
+	}
+
+	private int classOf(char c) {
+		if (c < 128) {
+			return asciiClasses[c];
+		}
+		int i = Arrays.binarySearch(otherChars, c);
+		return i >= 0 ? firstOtherClass + i : 0;
+	}
+
+	/**
+	 * @param value
+	 *            not null
+	 * @return true when the value contains one of the contained literals or
+	 *         starts with one of the prefixes
+	 */
+	public boolean matches(String value) {
+		if (matchesAll) {
+			return true;
+		}
+		int state = 0;
+		boolean atStart = true;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			state = delta[state * nrClasses + classOf(value.charAt(i))];
+			if (containsEnd[state]) {
+				return true;
+			}
+			if (atStart) {
+				// still on the path of the first i + 1 characters?
+				if (depth[state] == i + 1) {
+					if (prefixEnd[state]) {
+						return true;
+					}
+				} else {
+					atStart = false;
+				}
+			}
+		}
+		return false;
+	}
+}
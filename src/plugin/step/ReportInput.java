@@ -0,0 +1,377 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * @author David Law
+ * @category Input
+ * 
+ *           Reads a paginated report from a memory mapped file. Line ends, form
+ *           feeds and page headers are found on the bytes, the lines passed on
+ *           are left as bytes with lazy conversion and decoded into Strings
+ *           otherwise. Every line gets the number of its page and its number
+ *           within the page, and optionally a filter sequence incremented by
+ *           the lines matching the condition.
+ */
+public class ReportInput extends BaseStep implements StepInterface {
+	private static Class<?> PKG = ReportInputMeta.class; // for i18n purposes
+
+	/**
+	 * Bytes mapped at once, grown for lines that don't fit
+	 */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+	private static final byte FF = '\f';
+
+	private ReportInputMeta meta;
+
+	private ReportInputData data;
+
+	public ReportInput(StepMeta s, StepDataInterface stepDataInterface, int c, TransMeta t, Trans dis) {
+		super(s, stepDataInterface, c, t, dis);
+	}
+
+	public boolean init(StepMetaInterface smi, StepDataInterface sdi) {
+		meta = (ReportInputMeta) smi;
+		data = (ReportInputData) sdi;
+
+		if (!super.init(smi, sdi)) {
+			return false;
+		}
+
+		// every copy would read the whole file
+		if (getStepMeta().getCopies() > 1) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.SingleCopy"));
+			return false;
+		}
+
+		String fileName = environmentSubstitute(meta.getFileName());
+		String encoding = environmentSubstitute(meta.getEncoding());
+		try {
+			data.charset = Const.isEmpty(encoding) ? Charset.defaultCharset() : Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.UnknownEncoding", encoding));
+			return false;
+		}
+		// Line ends and form feeds are looked for as single bytes
+		if (!Arrays.equals("\n\r\f".getBytes(data.charset), new byte[] { LF, CR, FF })) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.UnsupportedEncoding", data.charset.name()));
+			return false;
+		}
+
+		String header = environmentSubstitute(meta.getPageHeader());
+		data.header = Const.isEmpty(header) ? null : header.getBytes(data.charset);
+
+		try {
+			data.page = Long.parseLong(environmentSubstitute(meta.getStartAt()));
+		} catch (NumberFormatException ex) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.CouldNotParseStartAt", meta.getStartAt()));
+			return false;
+		}
+
+		try {
+			data.file = new RandomAccessFile(new File(fileName), "r");
+			data.channel = data.file.getChannel();
+			data.fileSize = data.channel.size();
+		} catch (IOException e) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.CouldNotOpenFile", fileName), e);
+			return false;
+		}
+
+		data.sequenceIndex = -1;
+		if (!Const.isEmpty(meta.getSequenceField())) {
+			if (meta.getCondition().isEmpty()) {
+				logError(BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.NoCondition"));
+				return false;
+			}
+			try {
+				data.sequenceValue = Long.parseLong(environmentSubstitute(meta.getSequenceStartAt()));
+			} catch (NumberFormatException ex) {
+				logError(BaseMessages.getString(PKG, "ReportInput.Log.CouldNotParseSequenceStartAt",
+						meta.getSequenceStartAt()));
+				return false;
+			}
+			try {
+				data.sequenceIncrement = Long.parseLong(environmentSubstitute(meta.getSequenceIncrementBy()));
+			} catch (NumberFormatException ex) {
+				logError(BaseMessages.getString(PKG, "ReportInput.Log.CouldNotParseSequenceIncrementBy",
+						meta.getSequenceIncrementBy()));
+				return false;
+			}
+		}
+
+		data.windowSize = WINDOW_SIZE;
+		data.lineBuffer = new byte[256];
+		return true;
+	}
+
+	public boolean processRow(StepMetaInterface smi, StepDataInterface sdi) throws KettleException {
+		meta = (ReportInputMeta) smi;
+		data = (ReportInputData) sdi;
+
+		if (first) {
+			first = false;
+			data.outputRowMeta = new RowMeta();
+			meta.getFields(data.outputRowMeta, getStepname(), null, null, this, null, null);
+			data.outputSize = data.outputRowMeta.size();
+			data.lineNrIndex = Const.isEmpty(meta.getLineNrField()) ? -1 : 2;
+			if (!Const.isEmpty(meta.getSequenceField())) {
+				data.sequenceIndex = data.outputRowMeta.indexOfValue(meta.getSequenceField());
+				Condition condition = (Condition) meta.getCondition().clone();
+				condition.clearFieldPositions();
+				// the line is matched on its bytes as long as the condition allows
+				data.predicate = new ConditionCompiler(data.outputRowMeta).compile(condition);
+			}
+		}
+
+		try {
+			// Lines that are not passed on don't end the call
+			while (data.position < data.fileSize && !isStopped()) {
+				Object[] row = readLine();
+				if (row != null) {
+					if (data.sequenceIndex >= 0) {
+						addSequence(row);
+					}
+					putRow(data.outputRowMeta, row);
+					if (checkFeedback(getLinesInput())) {
+						logBasic(BaseMessages.getString(PKG, "ReportInput.Log.LineNr", Long.toString(getLinesInput())));
+					}
+					return true;
+				}
+			}
+		} catch (IOException e) {
+			throw new KettleException(BaseMessages.getString(PKG, "ReportInput.Exception.ErrorReadingFile"), e);
+		}
+
+		setOutputDone();
+		return false;
+	}
+
+	/**
+	 * Sets the filter sequence of a line passed on. Like the Add filter
+	 * sequence step, the first line starts the sequence whether it matches or
+	 * not.
+	 * 
+	 * @param row
+	 * @throws KettleException
+	 */
+	private void addSequence(Object[] row) throws KettleException {
+		if (data.sequenceStarted) {
+			if (data.predicate.evaluate(row)) {
+				data.sequenceValue += data.sequenceIncrement;
+			}
+		} else {
+			data.sequenceStarted = true;
+		}
+		row[data.sequenceIndex] = Long.valueOf(data.sequenceValue);
+	}
+
+	/**
+	 * Reads the line at the current position and moves past its end
+	 * 
+	 * @return the row for the line, null when it is not passed on
+	 * @throws IOException
+	 * @throws KettleException
+	 *             when the line does not fit in the largest window
+	 */
+	private Object[] readLine() throws IOException, KettleException {
+		int start = window(data.position);
+		int end = findLineEnd(start);
+		while (end < 0) {
+			// The line runs past the window, map it from its start and grow
+			// the window if that was already the case
+			if (start == 0) {
+				if (data.windowSize == Integer.MAX_VALUE) {
+					throw new KettleException(BaseMessages.getString(PKG, "ReportInput.Exception.LineTooLong",
+							environmentSubstitute(meta.getFileName()), Long.toString(data.position)));
+				}
+				data.windowSize = (int) Math.min(Integer.MAX_VALUE, data.windowSize * 2L);
+			}
+			start = map(data.position);
+			end = findLineEnd(start);
+		}
+
+		boolean formFeed = end < data.window.limit() && data.window.get(end) == FF;
+		data.position = data.windowStart + Math.min(end + 1, data.window.limit());
+
+		int length = end - start;
+		if (length > 0 && data.window.get(start + length - 1) == CR) {
+			length--;
+		}
+
+		Object[] row = null;
+		// the empty part in front of a form feed is no line
+		if (length > 0 || !formFeed) {
+			incrementLinesInput();
+			if (length > 0 && data.header != null && data.pageHasLines && startsWithHeader(start, length)) {
+				newPage();
+			}
+			data.lineNr++;
+			if (length > 0 || !meta.isSkipEmptyLines()) {
+				row = createRow(start, length);
+			}
+			// blank lines at the top don't stop a header from starting the page
+			if (length > 0) {
+				data.pageHasLines = true;
+			}
+		}
+		if (formFeed && data.pageHasLines) {
+			newPage();
+		}
+		return row;
+	}
+
+	/**
+	 * @param start
+	 *            offset of the line in the window
+	 * @return offset of the line feed or form feed ending the line, the end of
+	 *         the window if it is the end of the file, -1 if the line goes on
+	 *         past the window
+	 */
+	private int findLineEnd(int start) {
+		int limit = data.window.limit();
+		boolean formFeedBreak = meta.isFormFeedBreak();
+		for (int i = start; i < limit; i++) {
+			byte b = data.window.get(i);
+			if (b == LF || (b == FF && formFeedBreak)) {
+				return i;
+			}
+		}
+		return data.windowStart + limit >= data.fileSize ? limit : -1;
+	}
+
+	private boolean startsWithHeader(int start, int length) {
+		byte[] header = data.header;
+		if (length < header.length) {
+			return false;
+		}
+		for (int i = 0; i < header.length; i++) {
+			if (data.window.get(start + i) != header[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void newPage() {
+		data.page++;
+		data.lineNr = 0;
+		data.pageHasLines = false;
+	}
+
+	private Object[] createRow(int start, int length) {
+		if (!meta.isLazyConversion() && data.lineBuffer.length < length) {
+			data.lineBuffer = new byte[Math.max(length, data.lineBuffer.length * 2)];
+		}
+		Object[] row = RowDataUtil.allocateRowData(data.outputSize);
+		data.window.position(start);
+		if (meta.isLazyConversion()) {
+			// the row keeps the bytes, the buffer gets reused
+			byte[] line = new byte[length];
+			data.window.get(line);
+			row[0] = line;
+		} else {
+			data.window.get(data.lineBuffer, 0, length);
+			row[0] = new String(data.lineBuffer, 0, length, data.charset);
+		}
+		row[1] = Long.valueOf(data.page);
+		if (data.lineNrIndex >= 0) {
+			row[data.lineNrIndex] = Long.valueOf(data.lineNr);
+		}
+		return row;
+	}
+
+	/**
+	 * @param position
+	 *            a position in the file
+	 * @return the offset of the position in the mapped window, mapping a new
+	 *         one if needed
+	 * @throws IOException
+	 */
+	private int window(long position) throws IOException {
+		if (data.window != null && position >= data.windowStart
+				&& position < data.windowStart + data.window.limit()) {
+			return (int) (position - data.windowStart);
+		}
+		return map(position);
+	}
+
+	/**
+	 * Maps the file from the position on
+	 * 
+	 * @param position
+	 * @return 0, the offset of the position in the new window
+	 * @throws IOException
+	 */
+	private int map(long position) throws IOException {
+		long size = Math.min(data.windowSize, data.fileSize - position);
+		data.window = data.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		data.windowStart = position;
+		return 0;
+	}
+
+	public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
+		meta = (ReportInputMeta) smi;
+		data = (ReportInputData) sdi;
+
+		// The mapping itself goes with the garbage collector
+		data.window = null;
+		try {
+			if (data.file != null) {
+				data.file.close();
+			}
+		} catch (IOException e) {
+			logError(BaseMessages.getString(PKG, "ReportInput.Log.CouldNotCloseFile"), e);
+		}
+		data.file = null;
+		data.channel = null;
+
+		super.dispose(smi, sdi);
+	}
+}
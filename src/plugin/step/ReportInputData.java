@@ -0,0 +1,87 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+
+/**
+ * 
+ * @author David Law
+ *
+ */
+public class ReportInputData extends BaseStepData implements StepDataInterface {
+	public RowMetaInterface outputRowMeta;
+	public int outputSize;
+
+	public RandomAccessFile file;
+	public FileChannel channel;
+	public long fileSize;
+	public Charset charset;
+
+	/**
+	 * The mapped part of the file and where it starts
+	 */
+	public MappedByteBuffer window;
+	public long windowStart;
+	public int windowSize;
+
+	/**
+	 * Start of the next line in the file
+	 */
+	public long position;
+
+	public byte[] header;
+	public byte[] lineBuffer;
+
+	public long page;
+	public long lineNr;
+	public boolean pageHasLines;
+
+	/**
+	 * The field of the line number, -1 when there is none
+	 */
+	public int lineNrIndex;
+
+	/**
+	 * The filter sequence, its field is -1 when there is none
+	 */
+	public RowPredicate predicate;
+	public int sequenceIndex;
+	public long sequenceValue;
+	public long sequenceIncrement;
+	public boolean sequenceStarted;
+
+	public ReportInputData() {
+		super();
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ConditionEditor;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+/**
+ * Dialog of the report input step
+ * 
+ * @author David Law
+ */
+public class ReportInputDialog extends BaseStepDialog implements StepDialogInterface {
+	private static Class<?> PKG = ReportInputMeta.class; // for i18n purposes, needed by Translator2!!
+
+	private TextVar wFileName;
+	private TextVar wEncoding;
+	private Text wLineField;
+	private Text wPageField;
+	private Text wLineNrField;
+	private TextVar wStartAt;
+	private Button wFormFeedBreak;
+	private TextVar wPageHeader;
+	private Button wSkipEmptyLines;
+	private Button wLazyConversion;
+	private Text wSequenceField;
+	private TextVar wSequenceStartAt;
+	private TextVar wSequenceIncrementBy;
+	private ConditionEditor wCondition;
+
+	// Working copy of the condition, only handed to the meta on OK
+	private Condition condition;
+
+	private ReportInputMeta input;
+
+	private ModifyListener lsMod;
+	private int middle;
+	private int margin;
+
+	public ReportInputDialog(Shell parent, Object in, TransMeta transMeta, String sname) {
+		super(parent, (BaseStepMeta) in, transMeta, sname);
+		input = (ReportInputMeta) in;
+	}
+
+	public String open() {
+		Shell parent = getParent();
+		Display display = parent.getDisplay();
+
+		shell = new Shell(parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MAX | SWT.MIN);
+		props.setLook(shell);
+		setShellImage(shell, input);
+
+		lsMod = new ModifyListener() {
+			public void modifyText(ModifyEvent e) {
+				input.setChanged();
+			}
+		};
+		SelectionAdapter lsSelection = new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				input.setChanged();
+			}
+		};
+		changed = input.hasChanged();
+
+		FormLayout formLayout = new FormLayout();
+		formLayout.marginWidth = Const.FORM_MARGIN;
+		formLayout.marginHeight = Const.FORM_MARGIN;
+
+		shell.setLayout(formLayout);
+		shell.setText(BaseMessages.getString(PKG, "ReportInputDialog.Shell.Title"));
+
+		middle = props.getMiddlePct();
+		margin = Const.MARGIN;
+
+		// Stepname line
+		wlStepname = new Label(shell, SWT.RIGHT);
+		wlStepname.setText(BaseMessages.getString(PKG, "ReportInputDialog.StepName.Label"));
+		props.setLook(wlStepname);
+		fdlStepname = new FormData();
+		fdlStepname.left = new FormAttachment(0, 0);
+		fdlStepname.right = new FormAttachment(middle, -margin);
+		fdlStepname.top = new FormAttachment(0, margin);
+		wlStepname.setLayoutData(fdlStepname);
+		wStepname = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wStepname.setText(stepname);
+		props.setLook(wStepname);
+		wStepname.addModifyListener(lsMod);
+		fdStepname = new FormData();
+		fdStepname.left = new FormAttachment(middle, 0);
+		fdStepname.top = new FormAttachment(0, margin);
+		fdStepname.right = new FormAttachment(100, 0);
+		wStepname.setLayoutData(fdStepname);
+
+		wFileName = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.FileName.Label", wFileName, wStepname);
+		wFileName.addModifyListener(lsMod);
+
+		wEncoding = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.Encoding.Label", wEncoding, wFileName);
+		wEncoding.addModifyListener(lsMod);
+
+		wLineField = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.LineField.Label", wLineField, wEncoding);
+		wLineField.addModifyListener(lsMod);
+
+		wPageField = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.PageField.Label", wPageField, wLineField);
+		wPageField.addModifyListener(lsMod);
+
+		wLineNrField = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.LineNrField.Label", wLineNrField, wPageField);
+		wLineNrField.addModifyListener(lsMod);
+
+		wStartAt = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.StartAt.Label", wStartAt, wLineNrField);
+		wStartAt.addModifyListener(lsMod);
+
+		wFormFeedBreak = new Button(shell, SWT.CHECK);
+		addLine("ReportInputDialog.FormFeedBreak.Label", wFormFeedBreak, wStartAt);
+		wFormFeedBreak.addSelectionListener(lsSelection);
+
+		wPageHeader = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.PageHeader.Label", wPageHeader, wFormFeedBreak);
+		wPageHeader.setToolTipText(BaseMessages.getString(PKG, "ReportInputDialog.PageHeader.Tooltip"));
+		wPageHeader.addModifyListener(lsMod);
+
+		wSkipEmptyLines = new Button(shell, SWT.CHECK);
+		addLine("ReportInputDialog.SkipEmptyLines.Label", wSkipEmptyLines, wPageHeader);
+		wSkipEmptyLines.addSelectionListener(lsSelection);
+
+		wLazyConversion = new Button(shell, SWT.CHECK);
+		addLine("ReportInputDialog.LazyConversion.Label", wLazyConversion, wSkipEmptyLines);
+		wLazyConversion.setToolTipText(BaseMessages.getString(PKG, "ReportInputDialog.LazyConversion.Tooltip"));
+		wLazyConversion.addSelectionListener(lsSelection);
+
+		wSequenceField = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.SequenceField.Label", wSequenceField, wLazyConversion);
+		wSequenceField.addModifyListener(lsMod);
+
+		wSequenceStartAt = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.SequenceStartAt.Label", wSequenceStartAt, wSequenceField);
+		wSequenceStartAt.addModifyListener(lsMod);
+
+		wSequenceIncrementBy = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		addLine("ReportInputDialog.SequenceIncrementBy.Label", wSequenceIncrementBy, wSequenceStartAt);
+		wSequenceIncrementBy.addModifyListener(lsMod);
+
+		Label wlCondition = new Label(shell, SWT.NONE);
+		wlCondition.setText(BaseMessages.getString(PKG, "ReportInputDialog.Condition.Label"));
+		props.setLook(wlCondition);
+		FormData fdlCondition = new FormData();
+		fdlCondition.left = new FormAttachment(0, 0);
+		fdlCondition.top = new FormAttachment(wSequenceIncrementBy, margin);
+		wlCondition.setLayoutData(fdlCondition);
+
+		// Some buttons
+		wOK = new Button(shell, SWT.PUSH);
+		wOK.setText(BaseMessages.getString(PKG, "System.Button.OK"));
+		wCancel = new Button(shell, SWT.PUSH);
+		wCancel.setText(BaseMessages.getString(PKG, "System.Button.Cancel"));
+
+		setButtonPositions(new Button[] { wOK, wCancel }, margin, null);
+
+		// The condition is tested on the fields of the step itself
+		RowMetaInterface fields = new RowMeta();
+		try {
+			input.getFields(fields, stepname, null, null, transMeta, null, null);
+		} catch (KettleStepException e) {
+			fields = new RowMeta();
+		}
+		condition = (Condition) input.getCondition().clone();
+		wCondition = new ConditionEditor(shell, SWT.BORDER, condition, fields);
+		FormData fdCondition = new FormData();
+		fdCondition.left = new FormAttachment(0, 0);
+		fdCondition.top = new FormAttachment(wlCondition, margin);
+		fdCondition.right = new FormAttachment(100, 0);
+		fdCondition.bottom = new FormAttachment(wOK, -2 * margin);
+		wCondition.setLayoutData(fdCondition);
+		wCondition.addModifyListener(lsMod);
+
+		// Add listeners
+		lsOK = new Listener() {
+			public void handleEvent(Event e) {
+				ok();
+			}
+		};
+		lsCancel = new Listener() {
+			public void handleEvent(Event e) {
+				cancel();
+			}
+		};
+
+		wOK.addListener(SWT.Selection, lsOK);
+		wCancel.addListener(SWT.Selection, lsCancel);
+
+		lsDef = new SelectionAdapter() {
+			public void widgetDefaultSelected(SelectionEvent e) {
+				ok();
+			}
+		};
+
+		wStepname.addSelectionListener(lsDef);
+		wFileName.addSelectionListener(lsDef);
+		wLineField.addSelectionListener(lsDef);
+		wPageField.addSelectionListener(lsDef);
+
+		// Detect X or ALT-F4 or something that kills this window...
+		shell.addShellListener(new ShellAdapter() {
+			public void shellClosed(ShellEvent e) {
+				cancel();
+			}
+		});
+
+		// Set the shell size, based upon previous time...
+		setSize();
+
+		getData();
+
+		shell.open();
+		while (!shell.isDisposed()) {
+			if (!display.readAndDispatch()) {
+				display.sleep();
+			}
+		}
+		return stepname;
+	}
+
+	/**
+	 * Puts a labelled widget below another one
+	 * 
+	 * @param labelKey
+	 * @param control
+	 * @param above
+	 */
+	private void addLine(String labelKey, Control control, Control above) {
+		Label label = new Label(shell, SWT.RIGHT);
+		label.setText(BaseMessages.getString(PKG, labelKey));
+		props.setLook(label);
+		FormData fdLabel = new FormData();
+		fdLabel.left = new FormAttachment(0, 0);
+		fdLabel.right = new FormAttachment(middle, -margin);
+		fdLabel.top = new FormAttachment(above, margin);
+		label.setLayoutData(fdLabel);
+
+		props.setLook(control);
+		FormData fdControl = new FormData();
+		fdControl.left = new FormAttachment(middle, 0);
+		fdControl.top = new FormAttachment(above, margin);
+		fdControl.right = new FormAttachment(100, 0);
+		control.setLayoutData(fdControl);
+	}
+
+	/**
+	 * Copy information from the meta-data input to the dialog fields.
+	 */
+	public void getData() {
+		wFileName.setText(Const.NVL(input.getFileName(), ""));
+		wEncoding.setText(Const.NVL(input.getEncoding(), ""));
+		wLineField.setText(Const.NVL(input.getLineField(), ""));
+		wPageField.setText(Const.NVL(input.getPageField(), ""));
+		wLineNrField.setText(Const.NVL(input.getLineNrField(), ""));
+		wStartAt.setText(Const.NVL(input.getStartAt(), "1"));
+		wFormFeedBreak.setSelection(input.isFormFeedBreak());
+		wPageHeader.setText(Const.NVL(input.getPageHeader(), ""));
+		wSkipEmptyLines.setSelection(input.isSkipEmptyLines());
+		wLazyConversion.setSelection(input.isLazyConversion());
+		wSequenceField.setText(Const.NVL(input.getSequenceField(), ""));
+		wSequenceStartAt.setText(Const.NVL(input.getSequenceStartAt(), "1"));
+		wSequenceIncrementBy.setText(Const.NVL(input.getSequenceIncrementBy(), "1"));
+
+		wStepname.selectAll();
+		wStepname.setFocus();
+	}
+
+	private void cancel() {
+		stepname = null;
+		input.setChanged(changed);
+		dispose();
+	}
+
+	private void ok() {
+		if ("".equals(wStepname.getText())) {// Const.isEmpty -> NoSuchMethodError
+			return;
+		}
+		if (wCondition.getLevel() > 0) {
+			wCondition.goUp();
+			return;
+		}
+		stepname = wStepname.getText();
+
+		input.setFileName(wFileName.getText());
+		input.setEncoding(wEncoding.getText());
+		input.setLineField(wLineField.getText());
+		input.setPageField(wPageField.getText());
+		input.setLineNrField(wLineNrField.getText());
+		input.setStartAt(wStartAt.getText());
+		input.setFormFeedBreak(wFormFeedBreak.getSelection());
+		input.setPageHeader(wPageHeader.getText());
+		input.setSkipEmptyLines(wSkipEmptyLines.getSelection());
+		input.setLazyConversion(wLazyConversion.getSelection());
+		input.setSequenceField(wSequenceField.getText());
+		input.setSequenceStartAt(wSequenceStartAt.getText());
+		input.setSequenceIncrementBy(wSequenceIncrementBy.getText());
+		input.setCondition(condition);
+
+		dispose();
+	}
+}
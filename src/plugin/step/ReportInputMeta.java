@@ -0,0 +1,574 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.util.List;
+
+import org.eclipse.swt.widgets.Shell;
+import org.pentaho.di.core.CheckResult;
+import org.pentaho.di.core.CheckResultInterface;
+import org.pentaho.di.core.Condition;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+/**
+ * 
+ * @author David Law
+ *
+ *         Reads a paginated report file line by line, numbering the pages on
+ *         the way, and adds a filter sequence that increments on the lines
+ *         matching a condition
+ */
+@Step(id = "ReportInput", image = "plugin/step/resources/FCS.svg", i18nPackageName = "plugin.step", name = "ReportInput.Name", description = "ReportInput.TooltipDesc", categoryDescription = "ReportInput.Category")
+public class ReportInputMeta extends BaseStepMeta implements StepMetaInterface {
+	private static Class<?> PKG = ReportInputMeta.class; // for i18n purposes
+
+	/**
+	 * The report file, a local file as it is memory mapped
+	 */
+	private String fileName;
+
+	/**
+	 * Encoding of the report, has to keep line feed, carriage return and form
+	 * feed as single bytes
+	 */
+	private String encoding;
+
+	/**
+	 * Name of the field holding the line
+	 */
+	private String lineField;
+
+	/**
+	 * Name of the field holding the page number
+	 */
+	private String pageField;
+
+	/**
+	 * Name of the field holding the line number within the page, empty for
+	 * none
+	 */
+	private String lineNrField;
+
+	/**
+	 * Starting number for the pages
+	 */
+	private String startAt;
+
+	/**
+	 * A form feed starts a new page
+	 */
+	private boolean formFeedBreak;
+
+	/**
+	 * A line starting with this text starts a new page, empty for none
+	 */
+	private String pageHeader;
+
+	/**
+	 * Empty lines are counted but not passed on
+	 */
+	private boolean skipEmptyLines;
+
+	/**
+	 * Lines are passed on as their bytes, only decoded by the steps that need
+	 * the text
+	 */
+	private boolean lazyConversion;
+
+	/**
+	 * Name of the field holding the filter sequence, empty for none
+	 */
+	private String sequenceField;
+
+	/**
+	 * Start of the filter sequence
+	 */
+	private String sequenceStartAt;
+
+	/**
+	 * Increment of the filter sequence
+	 */
+	private String sequenceIncrementBy;
+
+	/**
+	 * Lines matching it increment the filter sequence
+	 */
+	private Condition condition;
+
+	public ReportInputMeta() {
+		super();
+		setDefault();
+	}
+
+	/**
+	 * @return Returns the fileName.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @param fileName
+	 *            The fileName to set.
+	 */
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * @return Returns the encoding.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @param encoding
+	 *            The encoding to set.
+	 */
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
+	/**
+	 * @return Returns the lineField.
+	 */
+	public String getLineField() {
+		return lineField;
+	}
+
+	/**
+	 * @param lineField
+	 *            The lineField to set.
+	 */
+	public void setLineField(String lineField) {
+		this.lineField = lineField;
+	}
+
+	/**
+	 * @return Returns the pageField.
+	 */
+	public String getPageField() {
+		return pageField;
+	}
+
+	/**
+	 * @param pageField
+	 *            The pageField to set.
+	 */
+	public void setPageField(String pageField) {
+		this.pageField = pageField;
+	}
+
+	/**
+	 * @return Returns the lineNrField.
+	 */
+	public String getLineNrField() {
+		return lineNrField;
+	}
+
+	/**
+	 * @param lineNrField
+	 *            The lineNrField to set.
+	 */
+	public void setLineNrField(String lineNrField) {
+		this.lineNrField = lineNrField;
+	}
+
+	/**
+	 * @return Returns the start of the page numbers.
+	 */
+	public String getStartAt() {
+		return startAt;
+	}
+
+	/**
+	 * @param startAt
+	 *            The start of the page numbers to set.
+	 */
+	public void setStartAt(String startAt) {
+		this.startAt = startAt;
+	}
+
+	/**
+	 * @return Returns the formFeedBreak.
+	 */
+	public boolean isFormFeedBreak() {
+		return formFeedBreak;
+	}
+
+	/**
+	 * @param formFeedBreak
+	 *            The formFeedBreak to set.
+	 */
+	public void setFormFeedBreak(boolean formFeedBreak) {
+		this.formFeedBreak = formFeedBreak;
+	}
+
+	/**
+	 * @return Returns the pageHeader.
+	 */
+	public String getPageHeader() {
+		return pageHeader;
+	}
+
+	/**
+	 * @param pageHeader
+	 *            The pageHeader to set.
+	 */
+	public void setPageHeader(String pageHeader) {
+		this.pageHeader = pageHeader;
+	}
+
+	/**
+	 * @return Returns the skipEmptyLines.
+	 */
+	public boolean isSkipEmptyLines() {
+		return skipEmptyLines;
+	}
+
+	/**
+	 * @param skipEmptyLines
+	 *            The skipEmptyLines to set.
+	 */
+	public void setSkipEmptyLines(boolean skipEmptyLines) {
+		this.skipEmptyLines = skipEmptyLines;
+	}
+
+	/**
+	 * @return Returns the lazyConversion.
+	 */
+	public boolean isLazyConversion() {
+		return lazyConversion;
+	}
+
+	/**
+	 * @param lazyConversion
+	 *            The lazyConversion to set.
+	 */
+	public void setLazyConversion(boolean lazyConversion) {
+		this.lazyConversion = lazyConversion;
+	}
+
+	/**
+	 * @return Returns the sequenceField.
+	 */
+	public String getSequenceField() {
+		return sequenceField;
+	}
+
+	/**
+	 * @param sequenceField
+	 *            The sequenceField to set.
+	 */
+	public void setSequenceField(String sequenceField) {
+		this.sequenceField = sequenceField;
+	}
+
+	/**
+	 * @return Returns the start of the filter sequence.
+	 */
+	public String getSequenceStartAt() {
+		return sequenceStartAt;
+	}
+
+	/**
+	 * @param sequenceStartAt
+	 *            The start of the filter sequence to set.
+	 */
+	public void setSequenceStartAt(String sequenceStartAt) {
+		this.sequenceStartAt = sequenceStartAt;
+	}
+
+	/**
+	 * @return Returns the increment of the filter sequence.
+	 */
+	public String getSequenceIncrementBy() {
+		return sequenceIncrementBy;
+	}
+
+	/**
+	 * @param sequenceIncrementBy
+	 *            The increment of the filter sequence to set.
+	 */
+	public void setSequenceIncrementBy(String sequenceIncrementBy) {
+		this.sequenceIncrementBy = sequenceIncrementBy;
+	}
+
+	/**
+	 * @return Returns the condition.
+	 */
+	public Condition getCondition() {
+		return condition;
+	}
+
+	/**
+	 * @param condition
+	 *            The condition to set.
+	 */
+	public void setCondition(Condition condition) {
+		this.condition = condition;
+	}
+
+	public StepDialogInterface getDialog(Shell shell, StepMetaInterface meta, TransMeta transMeta, String name) {
+		return new ReportInputDialog(shell, meta, transMeta, name);
+	}
+
+	public StepInterface getStep(StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
+			Trans disp) {
+		return new ReportInput(stepMeta, stepDataInterface, cnr, transMeta, disp);
+	}
+
+	public StepDataInterface getStepData() {
+		return new ReportInputData();
+	}
+
+	public void setDefault() {
+		fileName = "";
+		encoding = "UTF-8";
+		lineField = "line";
+		pageField = "page";
+		lineNrField = "line_nr";
+		startAt = "1";
+		formFeedBreak = true;
+		pageHeader = "";
+		skipEmptyLines = false;
+		lazyConversion = true;
+		sequenceField = "";
+		sequenceStartAt = "1";
+		sequenceIncrementBy = "1";
+		condition = new Condition();
+	}
+
+	public Object clone() {
+		ReportInputMeta retval = (ReportInputMeta) super.clone();
+		retval.condition = (Condition) condition.clone();
+		return retval;
+	}
+
+	public void loadXML(Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore) throws KettleXMLException {
+		try {
+			fileName = XMLHandler.getTagValue(stepnode, "file_name");
+			encoding = XMLHandler.getTagValue(stepnode, "encoding");
+			lineField = XMLHandler.getTagValue(stepnode, "line_field");
+			pageField = XMLHandler.getTagValue(stepnode, "page_field");
+			lineNrField = XMLHandler.getTagValue(stepnode, "line_nr_field");
+			startAt = XMLHandler.getTagValue(stepnode, "start_at");
+			formFeedBreak = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "form_feed_break"));
+			pageHeader = XMLHandler.getTagValue(stepnode, "page_header");
+			skipEmptyLines = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "skip_empty_lines"));
+			lazyConversion = !"N".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "lazy_conversion"));
+			sequenceField = Const.NVL(XMLHandler.getTagValue(stepnode, "sequence_field"), "");
+			sequenceStartAt = Const.NVL(XMLHandler.getTagValue(stepnode, "sequence_start_at"), "1");
+			sequenceIncrementBy = Const.NVL(XMLHandler.getTagValue(stepnode, "sequence_increment_by"), "1");
+			Node condnode = XMLHandler.getSubNode(XMLHandler.getSubNode(stepnode, "compare"), "condition");
+			condition = condnode == null ? new Condition() : new Condition(condnode);
+		} catch (Exception e) {
+			throw new KettleXMLException(BaseMessages.getString(PKG, "ReportInputMeta.Exception.UnableToReadXML"), e);
+		}
+	}
+
+	public String getXML() throws KettleException {
+		StringBuilder retval = new StringBuilder(300);
+		retval.append("    ").append(XMLHandler.addTagValue("file_name", fileName));
+		retval.append("    ").append(XMLHandler.addTagValue("encoding", encoding));
+		retval.append("    ").append(XMLHandler.addTagValue("line_field", lineField));
+		retval.append("    ").append(XMLHandler.addTagValue("page_field", pageField));
+		retval.append("    ").append(XMLHandler.addTagValue("line_nr_field", lineNrField));
+		retval.append("    ").append(XMLHandler.addTagValue("start_at", startAt));
+		retval.append("    ").append(XMLHandler.addTagValue("form_feed_break", formFeedBreak));
+		retval.append("    ").append(XMLHandler.addTagValue("page_header", pageHeader));
+		retval.append("    ").append(XMLHandler.addTagValue("skip_empty_lines", skipEmptyLines));
+		retval.append("    ").append(XMLHandler.addTagValue("lazy_conversion", lazyConversion));
+		retval.append("    ").append(XMLHandler.addTagValue("sequence_field", sequenceField));
+		retval.append("    ").append(XMLHandler.addTagValue("sequence_start_at", sequenceStartAt));
+		retval.append("    ").append(XMLHandler.addTagValue("sequence_increment_by", sequenceIncrementBy));
+		retval.append("    <compare>").append(Const.CR);
+		retval.append(condition.getXML());
+		retval.append("    </compare>").append(Const.CR);
+		return retval.toString();
+	}
+
+	public void readRep(Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases)
+			throws KettleException {
+		try {
+			fileName = rep.getStepAttributeString(id_step, "file_name");
+			encoding = rep.getStepAttributeString(id_step, "encoding");
+			lineField = rep.getStepAttributeString(id_step, "line_field");
+			pageField = rep.getStepAttributeString(id_step, "page_field");
+			lineNrField = rep.getStepAttributeString(id_step, "line_nr_field");
+			startAt = rep.getStepAttributeString(id_step, "start_at");
+			formFeedBreak = rep.getStepAttributeBoolean(id_step, "form_feed_break");
+			pageHeader = rep.getStepAttributeString(id_step, "page_header");
+			skipEmptyLines = rep.getStepAttributeBoolean(id_step, "skip_empty_lines");
+			lazyConversion = !"N".equalsIgnoreCase(rep.getStepAttributeString(id_step, "lazy_conversion"));
+			sequenceField = Const.NVL(rep.getStepAttributeString(id_step, "sequence_field"), "");
+			sequenceStartAt = Const.NVL(rep.getStepAttributeString(id_step, "sequence_start_at"), "1");
+			sequenceIncrementBy = Const.NVL(rep.getStepAttributeString(id_step, "sequence_increment_by"), "1");
+			condition = rep.loadConditionFromStepAttribute(id_step, "id_condition");
+			if (condition == null) {
+				condition = new Condition();
+			}
+		} catch (Exception e) {
+			throw new KettleException(BaseMessages.getString(PKG, "ReportInputMeta.Exception.UnableToReadStepInfo")
+					+ id_step, e);
+		}
+	}
+
+	public void saveRep(Repository rep, IMetaStore metaStore, ObjectId id_transformation, ObjectId id_step)
+			throws KettleException {
+		try {
+			rep.saveStepAttribute(id_transformation, id_step, "file_name", fileName);
+			rep.saveStepAttribute(id_transformation, id_step, "encoding", encoding);
+			rep.saveStepAttribute(id_transformation, id_step, "line_field", lineField);
+			rep.saveStepAttribute(id_transformation, id_step, "page_field", pageField);
+			rep.saveStepAttribute(id_transformation, id_step, "line_nr_field", lineNrField);
+			rep.saveStepAttribute(id_transformation, id_step, "start_at", startAt);
+			rep.saveStepAttribute(id_transformation, id_step, "form_feed_break", formFeedBreak);
+			rep.saveStepAttribute(id_transformation, id_step, "page_header", pageHeader);
+			rep.saveStepAttribute(id_transformation, id_step, "skip_empty_lines", skipEmptyLines);
+			rep.saveStepAttribute(id_transformation, id_step, "lazy_conversion", lazyConversion ? "Y" : "N");
+			rep.saveStepAttribute(id_transformation, id_step, "sequence_field", sequenceField);
+			rep.saveStepAttribute(id_transformation, id_step, "sequence_start_at", sequenceStartAt);
+			rep.saveStepAttribute(id_transformation, id_step, "sequence_increment_by", sequenceIncrementBy);
+			rep.saveConditionStepAttribute(id_transformation, id_step, "id_condition", condition);
+		} catch (Exception e) {
+			throw new KettleException(BaseMessages.getString(PKG, "ReportInputMeta.Exception.UnableToSaveStepInfo")
+					+ id_step, e);
+		}
+	}
+
+	@Override
+	public void getFields(RowMetaInterface rowMeta, String origin, RowMetaInterface[] info, StepMeta nextStep,
+			VariableSpace space, Repository repository, IMetaStore metaStore) throws KettleStepException {
+		rowMeta.clear();
+		try {
+			ValueMetaInterface line = ValueMetaFactory.createValueMeta(lineField, ValueMetaInterface.TYPE_STRING);
+			line.setOrigin(origin);
+			if (lazyConversion) {
+				// the bytes of the line, decoded with the encoding of the file
+				ValueMetaInterface storage = line.clone();
+				storage.setStringEncoding(space == null ? encoding : space.environmentSubstitute(encoding));
+				line.setStorageMetadata(storage);
+				line.setStorageType(ValueMetaInterface.STORAGE_TYPE_BINARY_STRING);
+			}
+			rowMeta.addValueMeta(line);
+
+			ValueMetaInterface page = ValueMetaFactory.createValueMeta(pageField, ValueMetaInterface.TYPE_INTEGER);
+			page.setOrigin(origin);
+			rowMeta.addValueMeta(page);
+
+			if (!Const.isEmpty(lineNrField)) {
+				ValueMetaInterface lineNr = ValueMetaFactory.createValueMeta(lineNrField,
+						ValueMetaInterface.TYPE_INTEGER);
+				lineNr.setOrigin(origin);
+				rowMeta.addValueMeta(lineNr);
+			}
+
+			if (!Const.isEmpty(sequenceField)) {
+				ValueMetaInterface sequence = ValueMetaFactory.createValueMeta(sequenceField,
+						ValueMetaInterface.TYPE_INTEGER);
+				sequence.setOrigin(origin);
+				rowMeta.addValueMeta(sequence);
+			}
+		} catch (KettlePluginException e) {
+			throw new KettleStepException(e);
+		}
+	}
+
+	public void check(List<CheckResultInterface> remarks, TransMeta transMeta, StepMeta stepMeta, RowMetaInterface prev,
+			String[] input, String[] output, RowMetaInterface info, VariableSpace space, Repository repository,
+			IMetaStore metaStore) {
+		CheckResult cr;
+
+		if (Const.isEmpty(fileName)) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.NoFileName"), stepMeta);
+		} else {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_OK,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.FileNameSpecified"), stepMeta);
+		}
+		remarks.add(cr);
+
+		if (Const.isEmpty(lineField) || Const.isEmpty(pageField)) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.NoFieldName"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (!formFeedBreak && Const.isEmpty(pageHeader)) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.NoPageBreak"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (stepMeta.getCopies() > 1) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.SingleCopy"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (!Const.isEmpty(sequenceField) && condition.isEmpty()) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, BaseMessages.getString(PKG,
+					"ReportInputMeta.CheckResult.NoCondition"), stepMeta);
+			remarks.add(cr);
+		} else if (Const.isEmpty(sequenceField) && !condition.isEmpty()) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING, BaseMessages.getString(PKG,
+					"ReportInputMeta.CheckResult.NoSequenceField"), stepMeta);
+			remarks.add(cr);
+		}
+
+		if (input.length > 0) {
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR,
+					BaseMessages.getString(PKG, "ReportInputMeta.CheckResult.NoInputExpected"), stepMeta);
+			remarks.add(cr);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.pentaho.di.core.exception.KettleValueException;
+
+/**
+ *
+ * @author David Law
+ *
+ *         A row test with all field positions and constants resolved up front,
+ *         produced by the {@link ConditionCompiler} from a Kettle Condition
+ */
+public abstract class RowPredicate {
+
+	/**
+	 * Evaluates the predicate against a row of the layout it was compiled for
+	 *
+	 * @param row
+	 * @return true when the row matches
+	 * @throws KettleValueException
+	 */
+	public abstract boolean evaluate(Object[] row) throws KettleValueException;
+}
@@ -0,0 +1,66 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.IOException;
+
+/**
+ * @author David Law
+ *
+ *         Hands out blocks of sequence values that no other run gets, see
+ *         {@link SequenceStore} and {@link SequenceClient}
+ */
+public interface SequenceAllocator {
+
+	/**
+	 * Reserves the next block of values of a sequence
+	 * 
+	 * @param name
+	 *            the name of the sequence
+	 * @param start
+	 *            the first value of a sequence that was not used yet
+	 * @param increment
+	 * @param count
+	 *            the number of values to reserve
+	 * @return the first value of the block
+	 * @throws IOException
+	 */
+	long reserve(String name, long start, long increment, long count) throws IOException;
+
+	/**
+	 * Hands back the values of a block that were not used, as long as no
+	 * other block of the sequence was reserved in the meantime
+	 * 
+	 * @param name
+	 *            the name of the sequence
+	 * @param end
+	 *            the value following the block
+	 * @param next
+	 *            the first value that was not used
+	 * @throws IOException
+	 */
+	void release(String name, long end, long next) throws IOException;
+}
@@ -0,0 +1,198 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * @author David Law
+ *
+ *         The state of the step after a number of rows: the value of each
+ *         sequence and the key values of the last row. A rerun skips the rows
+ *         consumed and carries on numbering from there.
+ * 
+ *         The file is written next to the checkpoint file first and then
+ *         put in its place with {@link FileReplacement}, so a crash leaves
+ *         either the old or the new checkpoint.
+ */
+public class SequenceCheckpoint {
+	private static final int MAGIC = 0x41465343;
+	private static final int VERSION = 1;
+
+	private final String[] sequenceNames;
+	private final long[] values;
+	private final long rowsConsumed;
+	private final byte[] keys;
+
+	/**
+	 * @param sequenceNames
+	 * @param values
+	 *            the value of each sequence
+	 * @param rowsConsumed
+	 *            the number of rows read and passed on
+	 * @param keys
+	 *            the key values of the last row as written by
+	 *            {@link #writeKeys(RowMetaInterface, Object[])}, null when
+	 *            there are none
+	 */
+	public SequenceCheckpoint(String[] sequenceNames, long[] values, long rowsConsumed, byte[] keys) {
+		this.sequenceNames = sequenceNames;
+		this.values = values;
+		this.rowsConsumed = rowsConsumed;
+		this.keys = keys;
+	}
+
+	public String[] getSequenceNames() {
+		return sequenceNames;
+	}
+
+	public long[] getValues() {
+		return values;
+	}
+
+	public long getRowsConsumed() {
+		return rowsConsumed;
+	}
+
+	public byte[] getKeys() {
+		return keys;
+	}
+
+	/**
+	 * Replaces the checkpoint file with this checkpoint
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			DataOutputStream data = new DataOutputStream(out);
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(sequenceNames.length);
+			for (int i = 0; i < sequenceNames.length; i++) {
+				data.writeUTF(sequenceNames[i]);
+				data.writeLong(values[i]);
+			}
+			data.writeLong(rowsConsumed);
+			data.writeInt(keys == null ? -1 : keys.length);
+			if (keys != null) {
+				data.write(keys);
+			}
+			data.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		FileReplacement.replace(temporary, file);
+	}
+
+	/**
+	 * @param file
+	 * @return the checkpoint in the file, null when there is none
+	 * @throws IOException
+	 *             when the file can't be read or is not a checkpoint
+	 */
+	public static SequenceCheckpoint read(File file) throws IOException {
+		file = FileReplacement.existing(file);
+		if (!file.exists()) {
+			return null;
+		}
+		DataInputStream data = new DataInputStream(new FileInputStream(file));
+		try {
+			if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+				throw new IOException(file + " is not a checkpoint file");
+			}
+			int nrSequences = data.readInt();
+			String[] sequenceNames = new String[nrSequences];
+			long[] values = new long[nrSequences];
+			for (int i = 0; i < nrSequences; i++) {
+				sequenceNames[i] = data.readUTF();
+				values[i] = data.readLong();
+			}
+			long rowsConsumed = data.readLong();
+			int keysLength = data.readInt();
+			byte[] keys = null;
+			if (keysLength >= 0) {
+				keys = new byte[keysLength];
+				data.readFully(keys);
+			}
+			return new SequenceCheckpoint(sequenceNames, values, rowsConsumed, keys);
+		} finally {
+			data.close();
+		}
+	}
+
+	/**
+	 * @param keyRowMeta
+	 *            the layout of the key values
+	 * @param keys
+	 *            the key values, may be null
+	 * @return the key values in Kettle's binary row format, null for no keys
+	 * @throws KettleException
+	 */
+	public static byte[] writeKeys(RowMetaInterface keyRowMeta, Object[] keys) throws KettleException {
+		if (keys == null) {
+			return null;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		keyRowMeta.writeData(new DataOutputStream(bytes), keys);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param keyRowMeta
+	 *            the layout of the key values
+	 * @param keys
+	 *            as returned by writeKeys(), may be null
+	 * @return the key values
+	 * @throws KettleException
+	 */
+	public static Object[] readKeys(RowMetaInterface keyRowMeta, byte[] keys) throws KettleException {
+		if (keys == null) {
+			return null;
+		}
+		try {
+			return keyRowMeta.readData(new DataInputStream(new ByteArrayInputStream(keys)));
+		} catch (SocketTimeoutException e) {
+			throw new KettleException(e);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * @author David Law
+ *
+ *         Reserves sequence values at a {@link SequenceServer}. There is one
+ *         connection per request, requests only happen once per block.
+ */
+public class SequenceClient implements SequenceAllocator {
+	private static final int TIMEOUT = 30000;
+
+	private final String host;
+	private final int port;
+
+	public SequenceClient(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * @param address
+	 *            host:port of the server
+	 * @return the client
+	 * @throws IllegalArgumentException
+	 *             when the address has no valid port
+	 */
+	public static SequenceClient forAddress(String address) {
+		int colon = address.lastIndexOf(':');
+		if (colon <= 0) {
+			throw new IllegalArgumentException("No port in " + address);
+		}
+		try {
+			return new SequenceClient(address.substring(0, colon).trim(),
+					Integer.parseInt(address.substring(colon + 1).trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid port in " + address);
+		}
+	}
+
+	public long reserve(String name, long start, long increment, long count) throws IOException {
+		String reply = request("RESERVE " + start + " " + increment + " " + count + " " + name);
+		try {
+			return Long.parseLong(reply);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid reply from " + host + ":" + port + ": " + reply);
+		}
+	}
+
+	public void release(String name, long end, long next) throws IOException {
+		if (end != next) {
+			request("RELEASE " + end + " " + next + " " + name);
+		}
+	}
+
+	/**
+	 * Sends a request, once more on a new connection when it fails. A block
+	 * reserved twice only leaves a gap.
+	 * 
+	 * @param request
+	 * @return the reply without OK
+	 * @throws IOException
+	 */
+	private String request(String request) throws IOException {
+		try {
+			return send(request);
+		} catch (IOException e) {
+			return send(request);
+		}
+	}
+
+	private String send(String request) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			socket.setTcpNoDelay(true);
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), SequenceServer.CHARSET);
+			out.write(request);
+			out.write('\n');
+			out.flush();
+			String reply = new BufferedReader(new InputStreamReader(socket.getInputStream(), SequenceServer.CHARSET))
+					.readLine();
+			if (reply == null) {
+				throw new IOException("No reply from " + host + ":" + port);
+			}
+			if (reply.startsWith("ERROR")) {
+				throw new IOException(host + ":" + port + ": " + reply.substring(5).trim());
+			}
+			return reply.length() > 2 ? reply.substring(3) : "";
+		} finally {
+			socket.close();
+		}
+	}
+}
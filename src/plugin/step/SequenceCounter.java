@@ -0,0 +1,341 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * @author David Law
+ *
+ *         Backend holding the current value of a filter sequence
+ */
+public abstract class SequenceCounter {
+	private static Class<?> PKG = AddFilterSequence.class; // for i18n purposes
+
+	/**
+	 * @return the current value of the sequence
+	 */
+	public abstract long getValue();
+
+	/**
+	 * Increments the sequence
+	 *
+	 * @return the new value of the sequence
+	 * @throws KettleStepException
+	 *             when no more values can be reserved
+	 */
+	public abstract long increment() throws KettleStepException;
+
+	/**
+	 * Sets the sequence back to its start value
+	 *
+	 * @return the start value
+	 * @throws KettleStepException
+	 *             when the sequence never starts over
+	 */
+	public abstract long reset() throws KettleStepException;
+
+	/**
+	 * Sets the sequence to a value it had before, e.g. in a checkpoint
+	 *
+	 * @param value
+	 */
+	public abstract void restore(long value);
+
+	/**
+	 * Called when the last step copy is done with the counter
+	 */
+	public void close() {
+	}
+
+	/**
+	 * Creates a counter for the given number of step copies
+	 *
+	 * @param start
+	 * @param increment
+	 * @param users
+	 *            the number of step copies that will share the counter
+	 * @return a thread-confined counter for a single user, a CAS based one
+	 *         otherwise
+	 */
+	public static SequenceCounter create(long start, long increment, int users) {
+		if (users > 1) {
+			return new Atomic(start, increment);
+		}
+		return new Local(start, increment);
+	}
+
+	/**
+	 * Creates a counter taking its values from blocks no other run gets
+	 *
+	 * @param allocator
+	 *            the sequence store or allocation server
+	 * @param name
+	 *            the name of the sequence in the allocator
+	 * @param start
+	 *            the first value when the allocator does not have the sequence
+	 *            yet
+	 * @param increment
+	 * @param blockSize
+	 *            the number of values reserved at once
+	 * @param prefetch
+	 *            reserves the next block in the background when half of the
+	 *            current one is used if true
+	 * @return the counter, safe to share between step copies
+	 * @throws IOException
+	 *             when the first block can't be reserved
+	 */
+	public static SequenceCounter createStored(SequenceAllocator allocator, String name, long start, long increment,
+			long blockSize, boolean prefetch) throws IOException {
+		return new Stored(allocator, name, start, increment, blockSize, prefetch);
+	}
+
+	/**
+	 * Plain long, only to be used by the thread of one step copy
+	 */
+	static final class Local extends SequenceCounter {
+		private final long start;
+		private final long increment;
+		private long value;
+
+		Local(long start, long increment) {
+			this.start = start;
+			this.value = start;
+			this.increment = increment;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public long increment() {
+			value += increment;
+			return value;
+		}
+
+		public long reset() {
+			value = start;
+			return value;
+		}
+
+		public void restore(long value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Shared between step copies, lock free
+	 */
+	static final class Atomic extends SequenceCounter {
+		private final long start;
+		private final long increment;
+		private final AtomicLong value;
+
+		Atomic(long start, long increment) {
+			this.start = start;
+			this.value = new AtomicLong(start);
+			this.increment = increment;
+		}
+
+		public long getValue() {
+			return value.get();
+		}
+
+		public long increment() {
+			return value.addAndGet(increment);
+		}
+
+		public long reset() {
+			value.set(start);
+			return start;
+		}
+
+		public void restore(long value) {
+			this.value.set(value);
+		}
+	}
+
+	/**
+	 * Takes its values from blocks reserved in a sequence store or allocation
+	 * server, which is only used once per block. With prefetching the next
+	 * block is reserved in the background, rows only wait when it is not
+	 * there by the end of the current one.
+	 */
+	static final class Stored extends SequenceCounter {
+		private final SequenceAllocator allocator;
+		private final String name;
+		private final long start;
+		private final long increment;
+		private final long blockSize;
+		private final ExecutorService prefetcher;
+		private Future<Long> next;
+		private long value;
+		private long remaining;
+		private long end;
+
+		Stored(SequenceAllocator allocator, String name, long start, long increment, long blockSize, boolean prefetch)
+				throws IOException {
+			this.allocator = allocator;
+			this.name = name;
+			this.start = start;
+			this.increment = increment;
+			this.blockSize = blockSize;
+			this.prefetcher = prefetch ? Executors.newSingleThreadExecutor(new PrefetchThreadFactory(name)) : null;
+			takeBlock(allocator.reserve(name, start, increment, blockSize));
+		}
+
+		/**
+		 * Moves on to the first value of a new block
+		 */
+		private void takeBlock(long first) {
+			value = first;
+			remaining = blockSize - 1;
+			end = first + blockSize * increment;
+			prefetch();
+		}
+
+		/**
+		 * Reserves the next block in the background once half of the current
+		 * one is used, right away for blocks of one or two values
+		 */
+		private void prefetch() {
+			if (prefetcher != null && next == null && remaining <= blockSize / 2) {
+				next = prefetcher.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						return Long.valueOf(allocator.reserve(name, start, increment, blockSize));
+					}
+				});
+			}
+		}
+
+		/**
+		 * @return the first value of the next block, prefetched or not
+		 */
+		private long nextBlock() throws IOException {
+			if (next == null) {
+				return allocator.reserve(name, start, increment, blockSize);
+			}
+			try {
+				return next.get().longValue();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reserving values of sequence " + name);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause().toString());
+			} finally {
+				next = null;
+			}
+		}
+
+		public synchronized long getValue() {
+			return value;
+		}
+
+		public synchronized long increment() throws KettleStepException {
+			if (remaining > 0) {
+				remaining--;
+				value += increment;
+				prefetch();
+				return value;
+			}
+			try {
+				takeBlock(nextBlock());
+			} catch (IOException e) {
+				throw new KettleStepException(BaseMessages.getString(PKG,
+						"AddFilterSequence.Exception.UnableToReserveBlock", name), e);
+			}
+			return value;
+		}
+
+		/**
+		 * Stored sequences never start over, the step refuses to run when they
+		 * could, so this only happens on a layout init() did not foresee
+		 */
+		public long reset() throws KettleStepException {
+			throw new KettleStepException(BaseMessages.getString(PKG, "AddFilterSequence.Exception.StoredSequenceReset",
+					name));
+		}
+
+		/**
+		 * The next value comes from a new block, the rest of the one the value
+		 * came from may have been handed out already
+		 */
+		public synchronized void restore(long value) {
+			this.value = value;
+			remaining = 0;
+			prefetch();
+		}
+
+		public synchronized void close() {
+			try {
+				// the prefetched block was reserved last, it has to go back first
+				if (next != null) {
+					long first = nextBlock();
+					allocator.release(name, first + blockSize * increment, first);
+				}
+				if (remaining > 0) {
+					allocator.release(name, end, value + increment);
+				}
+			} catch (IOException e) {
+				// the values are skipped
+			} finally {
+				if (prefetcher != null) {
+					prefetcher.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Daemon threads, a transformation that is done does not wait for them
+	 */
+	private static final class PrefetchThreadFactory implements ThreadFactory {
+		private final String name;
+
+		PrefetchThreadFactory(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "AddFilterSequence prefetch " + name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.pentaho.di.trans.Trans;
+
+/**
+ * @author David Law
+ *
+ *         Hands out the counters and copy coordinators of the running
+ *         transformations. Step copies using the same sequence get the same
+ *         counter, which is only dropped when the last of them has released
+ *         it.
+ */
+public class SequenceCounterRegistry {
+
+	private static final Map<Trans, Map<String, Registration>> registrations = new WeakHashMap<Trans, Map<String, Registration>>();
+
+	private SequenceCounterRegistry() {
+	}
+
+	/**
+	 * Gets the counter for the sequence, creating it for the first user
+	 *
+	 * @param trans
+	 *            the running transformation
+	 * @param lookup
+	 *            the name of the sequence
+	 * @param start
+	 * @param increment
+	 * @param users
+	 *            the number of step copies that will use the sequence
+	 * @return the counter
+	 */
+	public static synchronized SequenceCounter acquire(Trans trans, String lookup, long start, long increment,
+			int users) {
+		Registration registration = lookup(trans, lookup);
+		if (registration.value == null) {
+			registration.value = SequenceCounter.create(start, increment, users);
+		}
+		registration.references++;
+		return (SequenceCounter) registration.value;
+	}
+
+	/**
+	 * Gets the counter for a sequence carried on from one run to the next or
+	 * shared with other servers, creating it for the first user
+	 *
+	 * @param trans
+	 *            the running transformation
+	 * @param lookup
+	 *            the name of the sequence
+	 * @param allocator
+	 *            the sequence store or allocation server
+	 * @param name
+	 *            the name of the sequence in the allocator
+	 * @param start
+	 * @param increment
+	 * @param blockSize
+	 *            the number of values reserved at once
+	 * @param prefetch
+	 *            reserves the next block in the background if true
+	 * @return the counter
+	 * @throws IOException
+	 *             when the first block can't be reserved
+	 */
+	public static synchronized SequenceCounter acquireStored(Trans trans, String lookup, SequenceAllocator allocator,
+			String name, long start, long increment, long blockSize, boolean prefetch) throws IOException {
+		Registration registration = lookup(trans, lookup);
+		if (registration.value == null) {
+			registration.value = SequenceCounter.createStored(allocator, name, start, increment, blockSize, prefetch);
+		}
+		registration.references++;
+		return (SequenceCounter) registration.value;
+	}
+
+	/**
+	 * Gets the coordinator numbering the rows of the copies of a step
+	 *
+	 * @param trans
+	 *            the running transformation
+	 * @param lookup
+	 *            the name of the coordinator
+	 * @param copies
+	 *            the number of step copies
+	 * @param blockSize
+	 * @param start
+	 *            the start value of each sequence
+	 * @param increment
+	 *            the increment of each sequence
+	 * @param parents
+	 *            the index of the parent of each sequence, -1 for top level
+	 *            sequences
+	 * @return the coordinator
+	 */
+	public static synchronized CopyCoordinator acquireCoordinator(Trans trans, String lookup, int copies,
+			int blockSize, long[] start, long[] increment, int[] parents) {
+		Registration registration = lookup(trans, lookup);
+		if (registration.value == null) {
+			registration.value = new CopyCoordinator(copies, blockSize, start, increment, parents);
+		}
+		registration.references++;
+		return (CopyCoordinator) registration.value;
+	}
+
+	private static Registration lookup(Trans trans, String lookup) {
+		Map<String, Registration> counters = registrations.get(trans);
+		if (counters == null) {
+			counters = new HashMap<String, Registration>();
+			registrations.put(trans, counters);
+		}
+
+		Registration registration = counters.get(lookup);
+		if (registration == null) {
+			registration = new Registration();
+			counters.put(lookup, registration);
+		}
+		return registration;
+	}
+
+	/**
+	 * Releases the counter or coordinator, it is removed once no step copy
+	 * uses it anymore
+	 *
+	 * @param trans
+	 * @param lookup
+	 */
+	public static synchronized void release(Trans trans, String lookup) {
+		Map<String, Registration> counters = registrations.get(trans);
+		if (counters == null) {
+			return;
+		}
+
+		Registration registration = counters.get(lookup);
+		if (registration != null && --registration.references <= 0) {
+			counters.remove(lookup);
+			if (registration.value instanceof SequenceCounter) {
+				((SequenceCounter) registration.value).close();
+			}
+		}
+		if (counters.isEmpty()) {
+			registrations.remove(trans);
+		}
+	}
+
+	private static final class Registration {
+		private Object value;
+		private int references;
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.pentaho.di.core.Condition;
+
+/**
+ * 
+ * @author David Law
+ *
+ *         One sequence added by the step: the new field, its counter options
+ *         and the condition that makes it increment
+ */
+public class SequenceDefinition implements Cloneable {
+	/**
+	 * Name of the new field
+	 */
+	private String fieldName;
+
+	/**
+	 * Starting number for the sequence
+	 */
+	private String startAt;
+
+	/**
+	 * The number to increment by
+	 */
+	private String incrementBy;
+
+	/**
+	 * The condition making the sequence increment
+	 */
+	private Condition condition;
+
+	/**
+	 * Java expression making the sequence increment instead of the condition,
+	 * empty to use the condition
+	 */
+	private String expression;
+
+	/**
+	 * The condition making the sequence start over, empty for none
+	 */
+	private Condition resetCondition;
+
+	/**
+	 * Name of the sequence that resets this one when it increments, null for
+	 * a top level sequence
+	 */
+	private String parentName;
+
+	public SequenceDefinition() {
+		fieldName = "fieldName";
+		startAt = "1";
+		incrementBy = "1";
+		condition = new Condition();
+		expression = "";
+		resetCondition = new Condition();
+	}
+
+	/**
+	 * @return Returns the fieldName.
+	 */
+	public String getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * @param fieldName
+	 *            The fieldName to set.
+	 */
+	public void setFieldName(String fieldName) {
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * @return Returns the start of the sequence.
+	 */
+	public String getStartAt() {
+		return startAt;
+	}
+
+	/**
+	 * @param startAt
+	 *            The starting point of the sequence to set.
+	 */
+	public void setStartAt(String startAt) {
+		this.startAt = startAt;
+	}
+
+	/**
+	 * @return Returns the incrementBy.
+	 */
+	public String getIncrementBy() {
+		return incrementBy;
+	}
+
+	/**
+	 * @param incrementBy
+	 *            The incrementBy to set.
+	 */
+	public void setIncrementBy(String incrementBy) {
+		this.incrementBy = incrementBy;
+	}
+
+	/**
+	 * @return Returns the condition.
+	 */
+	public Condition getCondition() {
+		return condition;
+	}
+
+	/**
+	 * @param condition
+	 *            The condition to set.
+	 */
+	public void setCondition(Condition condition) {
+		this.condition = condition;
+	}
+
+	/**
+	 * @return Returns the increment expression, empty when the condition is
+	 *         used.
+	 */
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @param expression
+	 *            The increment expression to set.
+	 */
+	public void setExpression(String expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * @return true when the sequence increments on the expression instead of
+	 *         the condition
+	 */
+	public boolean hasExpression() {
+		return expression != null && expression.trim().length() > 0;
+	}
+
+	/**
+	 * @return Returns the reset condition.
+	 */
+	public Condition getResetCondition() {
+		return resetCondition;
+	}
+
+	/**
+	 * @param resetCondition
+	 *            The reset condition to set.
+	 */
+	public void setResetCondition(Condition resetCondition) {
+		this.resetCondition = resetCondition;
+	}
+
+	/**
+	 * @return Returns the name of the parent sequence, null for a top level
+	 *         sequence.
+	 */
+	public String getParentName() {
+		return parentName;
+	}
+
+	/**
+	 * @param parentName
+	 *            The name of the parent sequence to set.
+	 */
+	public void setParentName(String parentName) {
+		this.parentName = parentName;
+	}
+
+	/**
+	 * Deep clone
+	 */
+	public Object clone() {
+		try {
+			SequenceDefinition retval = (SequenceDefinition) super.clone();
+			if (condition != null) {
+				retval.condition = (Condition) condition.clone();
+			}
+			if (resetCondition != null) {
+				retval.resetCondition = (Condition) resetCondition.clone();
+			}
+			return retval;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e); // Never happens
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import org.pentaho.di.core.exception.KettleStepException;
+
+/**
+ * @author David Law
+ *
+ *         Moves the counters of the sequences of a step on by one row at a
+ *         time. A sequence may have a parent sequence: whenever the parent
+ *         increments or resets, the child and all its descendants go back to
+ *         their start value. Parents are always handled before their children,
+ *         so all levels are worked out in a single pass over the sequences.
+ */
+public class SequenceHierarchy {
+
+	private final SequenceCounter[] counters;
+
+	/**
+	 * Index of the parent of each sequence, -1 for top level sequences
+	 */
+	private final int[] parents;
+
+	/**
+	 * The sequences, parents before their children
+	 */
+	private final int[] order;
+
+	/**
+	 * Whether each sequence incremented or reset on the current row
+	 */
+	private final boolean[] changed;
+
+	/**
+	 * @param counters
+	 *            the counter of each sequence
+	 * @param parents
+	 *            the index of the parent of each sequence, -1 for top level
+	 *            sequences. Sequences must not be their own ancestors.
+	 */
+	public SequenceHierarchy(SequenceCounter[] counters, int[] parents) {
+		this.counters = counters;
+		this.parents = parents.clone();
+		this.order = order(parents);
+		this.changed = new boolean[counters.length];
+	}
+
+	/**
+	 * Sorts the sequences on their depth in the hierarchy
+	 * 
+	 * @param parents
+	 * @return the sequence indexes, parents before their children
+	 */
+	private static int[] order(int[] parents) {
+		int n = parents.length;
+		int[] depth = new int[n];
+		int maxDepth = 0;
+		for (int i = 0; i < n; i++) {
+			for (int p = parents[i]; p >= 0; p = parents[p]) {
+				depth[i]++;
+			}
+			maxDepth = Math.max(maxDepth, depth[i]);
+		}
+
+		int[] order = new int[n];
+		int next = 0;
+		for (int d = 0; d <= maxDepth; d++) {
+			for (int i = 0; i < n; i++) {
+				if (depth[i] == d) {
+					order[next++] = i;
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Moves all sequences on by one row
+	 * 
+	 * @param increments
+	 *            the condition outcome of each sequence for the row
+	 * @param resets
+	 *            the reset condition outcome of each sequence for the row
+	 * @param offset
+	 *            position of the outcomes of the first sequence
+	 * @param values
+	 *            receives the value of each sequence for the row
+	 * @param valueOffset
+	 *            position of the value of the first sequence
+	 * @param resetAll
+	 *            starts all sequences over, like on a change of the key fields
+	 * @throws KettleStepException
+	 *             when a sequence that never starts over has to
+	 */
+	public void advance(boolean[] increments, boolean[] resets, int offset, long[] values, int valueOffset,
+			boolean resetAll) throws KettleStepException {
+		for (int n = 0; n < order.length; n++) {
+			int i = order[n];
+			int parent = parents[i];
+			long value;
+			if (resetAll || resets[offset + i] || (parent >= 0 && changed[parent])) {
+				// resets win over the increment condition of the same row
+				value = counters[i].reset();
+				changed[i] = true;
+			} else if (increments[offset + i]) {
+				value = counters[i].increment();
+				changed[i] = true;
+			} else {
+				value = counters[i].getValue();
+				changed[i] = false;
+			}
+			values[valueOffset + i] = value;
+		}
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+/**
+ * @author David Law
+ *
+ *         Hands out blocks of sequence values to the steps of transformations
+ *         running on several servers, so that their numbers never collide.
+ *         The protocol is one line per request and reply:
+ * 
+ *         <pre>
+ * RESERVE &lt;start&gt; &lt;increment&gt; &lt;count&gt; &lt;name&gt;   replies OK &lt;first value&gt;
+ * RELEASE &lt;end&gt; &lt;next&gt; &lt;name&gt;                  replies OK
+ *                                   or on failure ERROR &lt;message&gt;
+ * </pre>
+ * 
+ *         Without a store file the values are kept in memory, which is what
+ *         the in-process stand-in used on a single machine does.
+ * 
+ *         <pre>
+ * java -cp ... plugin.step.SequenceServer &lt;port&gt; [&lt;store file&gt;]
+ * </pre>
+ */
+public class SequenceServer {
+	private static Class<?> PKG = AddFilterSequence.class; // for i18n purposes
+
+	static final String CHARSET = "UTF-8";
+
+	private final SequenceAllocator backend;
+	private final LogChannelInterface log;
+	private final ServerSocket serverSocket;
+	private final Set<Socket> connections = new HashSet<Socket>();
+	private volatile boolean stopped;
+
+	/**
+	 * @param port
+	 *            the port to listen on, 0 for any free one
+	 * @param backend
+	 *            the sequence store, null to keep the values in memory
+	 * @throws IOException
+	 */
+	public SequenceServer(int port, SequenceAllocator backend) throws IOException {
+		this(port, backend, new LogChannel(SequenceServer.class.getSimpleName()));
+	}
+
+	/**
+	 * @param port
+	 *            the port to listen on, 0 for any free one
+	 * @param backend
+	 *            the sequence store, null to keep the values in memory
+	 * @param log
+	 *            where connection errors are logged
+	 * @throws IOException
+	 */
+	public SequenceServer(int port, SequenceAllocator backend, LogChannelInterface log) throws IOException {
+		this.backend = backend == null ? new Memory() : backend;
+		this.log = log;
+		this.serverSocket = new ServerSocket(port);
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections in a background thread
+	 */
+	public void start() {
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				accept();
+			}
+		}, "SequenceServer " + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Closes the server and the connections to it
+	 */
+	public void stop() {
+		stopped = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		synchronized (connections) {
+			for (Socket socket : connections) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// closing anyway
+				}
+			}
+			connections.clear();
+		}
+	}
+
+	private void accept() {
+		while (!stopped) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				if (!stopped) {
+					log.logError(BaseMessages.getString(PKG, "SequenceServer.Log.AcceptFailed",
+							Integer.toString(getPort())), e);
+				}
+				return;
+			}
+			synchronized (connections) {
+				connections.add(socket);
+			}
+			Thread connection = new Thread(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			}, "SequenceServer connection " + socket.getRemoteSocketAddress());
+			connection.setDaemon(true);
+			connection.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+			Writer out = new OutputStreamWriter(socket.getOutputStream(), CHARSET);
+			String line;
+			while ((line = in.readLine()) != null) {
+				out.write(handle(line));
+				out.write('\n');
+				out.flush();
+			}
+		} catch (SocketException e) {
+			// closed by the client or by stop()
+		} catch (IOException e) {
+			log.logError(BaseMessages.getString(PKG, "SequenceServer.Log.ConnectionFailed",
+					String.valueOf(socket.getRemoteSocketAddress())), e);
+		} finally {
+			synchronized (connections) {
+				connections.remove(socket);
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	/**
+	 * @param request
+	 * @return the reply
+	 */
+	String handle(String request) {
+		String[] words = request.split(" ", 5);
+		try {
+			if (words.length == 5 && "RESERVE".equals(words[0])) {
+				long first = backend.reserve(words[4], Long.parseLong(words[1]), Long.parseLong(words[2]),
+						Long.parseLong(words[3]));
+				return "OK " + first;
+			}
+			words = request.split(" ", 4);
+			if (words.length == 4 && "RELEASE".equals(words[0])) {
+				backend.release(words[3], Long.parseLong(words[1]), Long.parseLong(words[2]));
+				return "OK";
+			}
+			return "ERROR Unknown request";
+		} catch (NumberFormatException e) {
+			return "ERROR Invalid number " + e.getMessage();
+		} catch (IOException e) {
+			return "ERROR " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Keeps the next free value of each sequence while the server runs
+	 */
+	static final class Memory implements SequenceAllocator {
+		private final Map<String, Long> values = new HashMap<String, Long>();
+
+		public synchronized long reserve(String name, long start, long increment, long count) {
+			Long next = values.get(name);
+			long first = next == null ? start : next.longValue();
+			values.put(name, Long.valueOf(first + count * increment));
+			return first;
+		}
+
+		public synchronized void release(String name, long end, long next) {
+			Long current = values.get(name);
+			if (current != null && current.longValue() == end) {
+				values.put(name, Long.valueOf(next));
+			}
+		}
+	}
+
+	/**
+	 * Runs the server until it is killed
+	 * 
+	 * @param args
+	 *            the port and optionally the sequence store file
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: SequenceServer <port> [<store file>]");
+			System.exit(1);
+		}
+		KettleLogStore.init();
+		SequenceAllocator backend = args.length > 1 ? SequenceStore.open(new File(args[1])) : null;
+		SequenceServer server = new SequenceServer(Integer.parseInt(args[0]), backend);
+		server.log.logBasic(BaseMessages.getString(PKG, "SequenceServer.Log.Listening",
+				Integer.toString(server.getPort())));
+		server.accept();
+	}
+}
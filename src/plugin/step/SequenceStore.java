@@ -0,0 +1,150 @@
+/*
+ * !
+ * *****************************************************************************
+ * *
+ *
+ * Pentaho Data Integration
+ *
+ * Copyright (C) 2002-2013 by Pentaho : http://www.pentaho.com
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ ******************************************************************************/
+
+package plugin.step;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author David Law
+ *
+ *         Keeps sequences going from one run to the next. The store is a
+ *         properties file with the next free value of each sequence by name.
+ *         Values are reserved in blocks, so the file is only read and written
+ *         once per block; a crash leaves a gap, never a value handed out
+ *         twice.
+ * 
+ *         Runs in other processes are kept out with a lock on a file next to
+ *         the store, step copies in this one share the store object.
+ */
+public class SequenceStore implements SequenceAllocator {
+	private static final Map<File, SequenceStore> stores = new HashMap<File, SequenceStore>();
+
+	private final File file;
+	private final File lockFile;
+
+	private SequenceStore(File file) {
+		this.file = file;
+		this.lockFile = new File(file.getPath() + ".lock");
+	}
+
+	/**
+	 * @param file
+	 * @return the store in the file, created with the first block reserved
+	 * @throws IOException
+	 */
+	public static synchronized SequenceStore open(File file) throws IOException {
+		File canonical = file.getCanonicalFile();
+		SequenceStore store = stores.get(canonical);
+		if (store == null) {
+			store = new SequenceStore(canonical);
+			stores.put(canonical, store);
+		}
+		return store;
+	}
+
+	public synchronized long reserve(String name, long start, long increment, long count) throws IOException {
+		RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+		try {
+			FileLock fileLock = lock.getChannel().lock();
+			try {
+				Properties values = load();
+				String next = values.getProperty(name);
+				long first = next == null ? start : Long.parseLong(next);
+				values.setProperty(name, Long.toString(first + count * increment));
+				store(values);
+				return first;
+			} finally {
+				fileLock.release();
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid value of sequence " + name + " in " + file);
+		} finally {
+			lock.close();
+		}
+	}
+
+	public synchronized void release(String name, long end, long next) throws IOException {
+		if (end == next) {
+			return;
+		}
+		RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+		try {
+			FileLock fileLock = lock.getChannel().lock();
+			try {
+				Properties values = load();
+				if (Long.toString(end).equals(values.getProperty(name))) {
+					values.setProperty(name, Long.toString(next));
+					store(values);
+				}
+			} finally {
+				fileLock.release();
+			}
+		} finally {
+			lock.close();
+		}
+	}
+
+	private Properties load() throws IOException {
+		Properties values = new Properties();
+		File existing = FileReplacement.existing(file);
+		if (existing.exists()) {
+			InputStream in = new FileInputStream(existing);
+			try {
+				values.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Writes a temporary file and puts it in place of the store, a crash
+	 * leaves the old or the new values
+	 */
+	private void store(Properties values) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			values.store(out, null);
+			out.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		FileReplacement.replace(temporary, file);
+	}
+}